@@ -15,7 +15,11 @@ import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.android.gms.maps.model.MarkerOptions;
+
+import es.age.apps.mapwrapperexample.utils.CameraScheduler;
+import es.age.apps.mapwrapperexample.utils.ClusterManager;
+import es.age.apps.mapwrapperexample.utils.LocationActivity;
+import es.age.apps.mapwrapperexample.utils.MapCameraDispatcher;
 
 /**
  * Created by adricacho on 3/10/16.
@@ -28,6 +32,8 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
     private SupportMapFragment mapFragment;
     private OnMapLoadedListener onMapLoadedListener;
     private GoogleMap mMap;
+    private ClusterManager clusterManager;
+    private MapCameraDispatcher cameraDispatcher;
     private String TAG = "MapFragment";
 
     // Container Activity must implement this interface
@@ -60,10 +66,37 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
         }
         Log.d(TAG, "onMapReady: ");
         mMap = googleMap;
+        // Markers are drawn by the cluster manager, it reclusters when the camera stops
+        clusterManager = new ClusterManager(getActivity(), mMap);
+        LocationActivity locationActivity = getActivity() instanceof LocationActivity
+                ? (LocationActivity) getActivity() : null;
+        cameraDispatcher = locationActivity != null
+                ? locationActivity.getCameraDispatcher()
+                : new MapCameraDispatcher(mMap);
+        cameraDispatcher.addOnCameraIdleListener(clusterManager);
         // Add a marker in Sydney and move the camera
         LatLng sydney = new LatLng(-34, 151);
-        mMap.addMarker(new MarkerOptions().position(sydney).title("Marker in Sydney"));
-        mMap.moveCamera(CameraUpdateFactory.newLatLng(sydney));
+        clusterManager.addItem(sydney.latitude, sydney.longitude, "Marker in Sydney");
+        if (locationActivity != null) {
+            // Merged with the moves of the activity instead of cancelling them, and skipped when
+            // the activity reopened the map where it was left
+            if (!locationActivity.isCameraRestored()) {
+                locationActivity.getCameraScheduler().moveTo(sydney,
+                        CameraScheduler.PRIORITY_CONTENT);
+            }
+        } else {
+            mMap.moveCamera(CameraUpdateFactory.newLatLng(sydney));
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        if (clusterManager != null) {
+            cameraDispatcher.removeOnCameraIdleListener(clusterManager);
+            clusterManager.destroy();
+            clusterManager = null;
+        }
+        super.onDestroyView();
     }
 
     @Override
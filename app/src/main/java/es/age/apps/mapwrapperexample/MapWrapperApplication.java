@@ -0,0 +1,18 @@
+package es.age.apps.mapwrapperexample;
+
+import android.app.Application;
+
+import es.age.apps.mapwrapperexample.utils.MapHost;
+
+/**
+ * Initializes the maps SDK once the app is idle after starting, before the first map screen
+ * is opened.
+ */
+public class MapWrapperApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        MapHost.getInstance().prewarm(this);
+    }
+}
@@ -3,24 +3,32 @@ package es.age.apps.mapwrapperexample;
 import android.os.Bundle;
 import android.util.Log;
 
-import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.android.gms.maps.model.MarkerOptions;
 
+import es.age.apps.mapwrapperexample.utils.CameraScheduler;
+import es.age.apps.mapwrapperexample.utils.ClusterManager;
 import es.age.apps.mapwrapperexample.utils.LocationActivity;
+import es.age.apps.mapwrapperexample.utils.StartupTrace;
 
 public class MapsActivity extends LocationActivity implements OnMapReadyCallback {
 
     private GoogleMap mMap;
+    private ClusterManager clusterManager;
     private String TAG = "MapsActivity" ;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Jank statistics are only collected in debug builds, they are logged in onStop
+        setFrameMonitorEnabled(BuildConfig.DEBUG);
+        // Opens where the other map screen was left, the open time is logged in onStop
+        setMapHostEnabled(true);
+        getStartupTrace().begin(StartupTrace.PHASE_LAYOUT);
         setContentView(R.layout.activity_maps);
+        getStartupTrace().end(StartupTrace.PHASE_LAYOUT);
         // Obtain the SupportMapFragment and get notified when the map is ready to be used.
         SupportMapFragment mapFragment = (SupportMapFragment) getSupportFragmentManager()
                 .findFragmentById(R.id.map);
@@ -44,11 +52,24 @@ public class MapsActivity extends LocationActivity implements OnMapReadyCallback
 
         Log.d(TAG, "onMapReady: ");
         mMap = googleMap;
-        // Add a marker in Sydney and move the camera
+        // Markers are drawn by the cluster manager, it reclusters when the camera stops
+        clusterManager = new ClusterManager(this, mMap);
+        getCameraDispatcher().addOnCameraIdleListener(clusterManager);
+        // Add a marker in Sydney and move the camera, unless the map reopened where it was left
         LatLng sydney = new LatLng(-34, 151);
-        mMap.addMarker(new MarkerOptions().position(sydney).title("Marker in Sydney"));
-        mMap.moveCamera(CameraUpdateFactory.newLatLng(sydney));
+        clusterManager.addItem(sydney.latitude, sydney.longitude, "Marker in Sydney");
+        if (!isCameraRestored()) {
+            getCameraScheduler().moveTo(sydney, CameraScheduler.PRIORITY_CONTENT);
+        }
 
     }
 
+    @Override
+    protected void onDestroy() {
+        if (clusterManager != null) {
+            clusterManager.destroy();
+        }
+        super.onDestroy();
+    }
+
 }
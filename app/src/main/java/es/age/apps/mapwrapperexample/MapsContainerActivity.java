@@ -6,6 +6,7 @@ import android.support.v4.app.FragmentTransaction;
 import com.google.android.gms.maps.GoogleMap;
 
 import es.age.apps.mapwrapperexample.utils.LocationActivity;
+import es.age.apps.mapwrapperexample.utils.StartupTrace;
 
 /**
  * Created by adricacho on 3/10/16.
@@ -16,14 +17,24 @@ public class MapsContainerActivity extends LocationActivity implements MapFragme
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Jank statistics are only collected in debug builds, they are logged in onStop
+        setFrameMonitorEnabled(BuildConfig.DEBUG);
+        // Opens where the other map screen was left, the open time is logged in onStop
+        setMapHostEnabled(true);
+        getStartupTrace().begin(StartupTrace.PHASE_LAYOUT);
         setContentView(R.layout.activity_container_maps);
+        getStartupTrace().end(StartupTrace.PHASE_LAYOUT);
 
-        MapFragment mapFragment = new MapFragment();
+        // After a recreation the fragment manager restores the map fragment, do not inflate a
+        // second map
+        if (savedInstanceState == null) {
+            MapFragment mapFragment = new MapFragment();
 
-        FragmentTransaction transaction = getSupportFragmentManager().beginTransaction();
+            FragmentTransaction transaction = getSupportFragmentManager().beginTransaction();
 
-        transaction.replace(R.id.fragment_container, mapFragment, "mapFragment");
-        transaction.commit();
+            transaction.replace(R.id.fragment_container, mapFragment, "mapFragment");
+            transaction.commit();
+        }
     }
 
     @Override
@@ -0,0 +1,251 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import com.google.android.gms.maps.CameraUpdateFactory;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+
+/**
+ * Single entry point for the camera moves of the wrapper and of the app.
+ * <p>
+ * Requests are not applied right away: the ones made before the next frame are merged and only
+ * the one with the highest priority is applied, the latest one on a tie. Fields left unset
+ * ({@code NaN}) are taken from the request it replaces, then from the current camera. While an
+ * animation of the scheduler or a gesture is in progress, requests with a lower priority are
+ * dropped; a request with the same or a higher priority replaces the animation. A move that
+ * would not change the zoom, bearing nor tilt, to a target already well inside the visible
+ * region, is skipped instead of redrawing the map, except for {@link #PRIORITY_USER}.
+ * Must be used from the main thread.
+ */
+public class CameraScheduler implements FrameClock.FrameCallback,
+        GoogleMap.OnCameraMoveStartedListener, GoogleMap.OnCameraIdleListener {
+
+    /**
+     * Last known position restored when the map opens.
+     */
+    public static final int PRIORITY_RESTORE = 0;
+    /**
+     * Following the location updates.
+     */
+    public static final int PRIORITY_FOLLOW = 1;
+    /**
+     * Showing content of the app.
+     */
+    public static final int PRIORITY_CONTENT = 2;
+    /**
+     * Asked by the user, for example with a button. Same priority as a gesture.
+     */
+    public static final int PRIORITY_USER = 3;
+
+    // No animation of the scheduler in progress
+    private static final int IDLE = -1;
+
+    // Fraction of the visible region trimmed on every side before looking for the target
+    private static final double VISIBLE_MARGIN = 0.1;
+    private static final float ZOOM_TOLERANCE = 0.01f;
+    private static final float ANGLE_TOLERANCE = 0.5f;
+
+    private final MapCameraDispatcher cameraDispatcher;
+    private final GoogleMap googleMap;
+
+    // Request applied on the next frame
+    private boolean pending = false;
+    private double pendingLatitude;
+    private double pendingLongitude;
+    private float pendingZoom;
+    private float pendingBearing;
+    private float pendingTilt;
+    private int pendingPriority;
+    private boolean pendingAnimate;
+
+    private int animationPriority = IDLE;
+    private boolean gestureInProgress = false;
+    // Tells the callback of a replaced animation apart from the current one
+    private int generation;
+    private boolean destroyed = false;
+
+    private int requestCount;
+    private int appliedCount;
+    private int mergedCount;
+    private int droppedCount;
+    private int skippedCount;
+
+    public CameraScheduler(MapCameraDispatcher cameraDispatcher) {
+        this.cameraDispatcher = cameraDispatcher;
+        this.googleMap = cameraDispatcher.getMap();
+        cameraDispatcher.addOnCameraMoveStartedListener(this);
+        cameraDispatcher.addOnCameraIdleListener(this);
+    }
+
+    public void moveTo(LatLng target, int priority) {
+        request(target.latitude, target.longitude, Float.NaN, Float.NaN, Float.NaN, priority,
+                false);
+    }
+
+    public void moveTo(CameraPosition position, int priority) {
+        request(position.target.latitude, position.target.longitude, position.zoom,
+                position.bearing, position.tilt, priority, false);
+    }
+
+    public void animateTo(CameraPosition position, int priority) {
+        request(position.target.latitude, position.target.longitude, position.zoom,
+                position.bearing, position.tilt, priority, true);
+    }
+
+    /**
+     * Asks for a camera move on the next frame.
+     *
+     * @param zoom    {@code NaN} to keep it, same for the bearing and the tilt
+     * @param animate whether to animate the move or jump to the target
+     */
+    public void request(double latitude, double longitude, float zoom, float bearing, float tilt,
+                        int priority, boolean animate) {
+        if (destroyed) {
+            return;
+        }
+        requestCount++;
+        if (priority < getMovingPriority()) {
+            droppedCount++;
+            return;
+        }
+        if (pending) {
+            if (priority < pendingPriority) {
+                droppedCount++;
+                return;
+            }
+            mergedCount++;
+            zoom = Float.isNaN(zoom) ? pendingZoom : zoom;
+            bearing = Float.isNaN(bearing) ? pendingBearing : bearing;
+            tilt = Float.isNaN(tilt) ? pendingTilt : tilt;
+        } else {
+            pending = true;
+            FrameClock.getInstance().postFrameCallback(this);
+        }
+        pendingLatitude = latitude;
+        pendingLongitude = longitude;
+        pendingZoom = zoom;
+        pendingBearing = bearing;
+        pendingTilt = tilt;
+        pendingPriority = priority;
+        pendingAnimate = animate;
+    }
+
+    /**
+     * Drops the pending request and stops the animation of the scheduler, if any.
+     */
+    public void cancel() {
+        if (pending) {
+            pending = false;
+            FrameClock.getInstance().removeFrameCallback(this);
+        }
+        if (animationPriority != IDLE) {
+            animationPriority = IDLE;
+            generation++;
+            googleMap.stopAnimation();
+        }
+    }
+
+    public void destroy() {
+        cancel();
+        destroyed = true;
+        // Also when nothing is pending, so the clock never keeps a destroyed scheduler
+        FrameClock.getInstance().removeFrameCallback(this);
+        cameraDispatcher.removeOnCameraMoveStartedListener(this);
+        cameraDispatcher.removeOnCameraIdleListener(this);
+    }
+
+    // Priority a request needs to interrupt the move in progress
+    private int getMovingPriority() {
+        return gestureInProgress ? Math.max(PRIORITY_USER, animationPriority) : animationPriority;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!pending || destroyed) {
+            return;
+        }
+        pending = false;
+        if (pendingPriority < getMovingPriority()) {
+            // A gesture started after the request
+            droppedCount++;
+            return;
+        }
+        CameraPosition current = googleMap.getCameraPosition();
+        if (pendingPriority < PRIORITY_USER && isOnScreen(current)) {
+            skippedCount++;
+            return;
+        }
+        CameraPosition target = CameraPosition.builder(current)
+                .target(new LatLng(pendingLatitude, pendingLongitude))
+                .zoom(Float.isNaN(pendingZoom) ? current.zoom : pendingZoom)
+                .bearing(Float.isNaN(pendingBearing) ? current.bearing : pendingBearing)
+                .tilt(Float.isNaN(pendingTilt) ? current.tilt : pendingTilt)
+                .build();
+        appliedCount++;
+        final int moveGeneration = ++generation;
+        long start = FrameMonitor.begin(JankStats.OP_CAMERA_MOVE);
+        if (pendingAnimate) {
+            animationPriority = pendingPriority;
+            googleMap.animateCamera(CameraUpdateFactory.newCameraPosition(target),
+                    new GoogleMap.CancelableCallback() {
+                        @Override
+                        public void onFinish() {
+                            onAnimationEnd(moveGeneration);
+                        }
+
+                        @Override
+                        public void onCancel() {
+                            onAnimationEnd(moveGeneration);
+                        }
+                    });
+        } else {
+            // Also ends the animation in progress, its callback is ignored
+            animationPriority = IDLE;
+            googleMap.moveCamera(CameraUpdateFactory.newCameraPosition(target));
+        }
+        FrameMonitor.end(JankStats.OP_CAMERA_MOVE, start);
+    }
+
+    private void onAnimationEnd(int moveGeneration) {
+        if (moveGeneration == generation) {
+            animationPriority = IDLE;
+        }
+    }
+
+    private boolean isOnScreen(CameraPosition current) {
+        if (!Float.isNaN(pendingZoom) && Math.abs(pendingZoom - current.zoom) > ZOOM_TOLERANCE) {
+            return false;
+        }
+        if (!Float.isNaN(pendingTilt) && Math.abs(pendingTilt - current.tilt) > ANGLE_TOLERANCE) {
+            return false;
+        }
+        if (!Float.isNaN(pendingBearing)) {
+            float delta = Math.abs(pendingBearing - current.bearing) % 360;
+            if (Math.min(delta, 360 - delta) > ANGLE_TOLERANCE) {
+                return false;
+            }
+        }
+        // A negative padding trims the bounds
+        return cameraDispatcher.getVisibleBounds().pad(-VISIBLE_MARGIN)
+                .contains(pendingLatitude, pendingLongitude);
+    }
+
+    @Override
+    public void onCameraMoveStarted(int reason) {
+        if (reason == REASON_GESTURE) {
+            gestureInProgress = true;
+        }
+    }
+
+    @Override
+    public void onCameraIdle() {
+        gestureInProgress = false;
+    }
+
+    @Override
+    public String toString() {
+        return "CameraScheduler[requests=" + requestCount + ", applied=" + appliedCount
+                + ", merged=" + mergedCount + ", dropped=" + droppedCount
+                + ", skipped=" + skippedCount + "]";
+    }
+}
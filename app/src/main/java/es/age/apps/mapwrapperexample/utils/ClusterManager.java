@@ -0,0 +1,254 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.HashMap;
+import java.util.List;
+
+import es.age.apps.mapwrapperexample.R;
+
+/**
+ * Draws the points added to it as clusters instead of one marker per point.
+ * <p>
+ * Clustering runs on {@link MapExecutors#background()} with a {@link GridClusterer}, and only
+ * the clusters and single points around the visible region are drawn. Cluster icons come from
+ * the shared {@link MarkerIconCache}. Markers that are still
+ * needed after a camera change are kept, so only the difference is added or removed.
+ * Register it as a camera idle listener on the map's {@link MapCameraDispatcher}. Must be
+ * used from the main thread.
+ */
+public class ClusterManager implements GoogleMap.OnCameraIdleListener {
+
+    // Fraction of the visible region added on every side before clustering
+    private static final double VIEWPORT_PADDING = 0.5;
+
+    private String TAG = "ClusterManager";
+
+    private final GoogleMap googleMap;
+    private final Resources resources;
+    private final GridClusterer clusterer;
+    private final MarkerIconCache iconCache;
+    private final SparseArray<String> titles = new SparseArray<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private HashMap<Long, DrawnCluster> drawn = new HashMap<>();
+
+    // Increased on every request, results of older requests are dropped
+    private int generation;
+    private boolean dirty = true;
+    private boolean clusterPending = false;
+
+    // Zoom and bounds covered by the last request
+    private int clusteredZoom = -1;
+    private GeoBounds clusteredBounds;
+
+    private final Runnable clusterRunnable = new Runnable() {
+        @Override
+        public void run() {
+            clusterPending = false;
+            cluster();
+        }
+    };
+
+    private static final class DrawnCluster {
+        final Marker marker;
+        double latitude;
+        double longitude;
+        int count;
+        String title;
+
+        DrawnCluster(Marker marker, GridClusterer.Cluster cluster, String title) {
+            this.marker = marker;
+            this.latitude = cluster.latitude;
+            this.longitude = cluster.longitude;
+            this.count = cluster.count;
+            this.title = title;
+        }
+    }
+
+    public ClusterManager(Context context, GoogleMap googleMap) {
+        this(context, googleMap, new GridClusterer());
+    }
+
+    public ClusterManager(Context context, GoogleMap googleMap, GridClusterer clusterer) {
+        this.googleMap = googleMap;
+        this.resources = context.getResources();
+        this.clusterer = clusterer;
+        this.iconCache = MarkerIconCache.getInstance(context);
+    }
+
+    /**
+     * Adds a point and returns its id, the map is reclustered once the current burst of
+     * changes is done.
+     */
+    public int addItem(double latitude, double longitude, String title) {
+        int id = clusterer.add(latitude, longitude);
+        titles.put(id, title);
+        invalidate();
+        return id;
+    }
+
+    public void removeItem(int id) {
+        if (clusterer.remove(id)) {
+            titles.remove(id);
+            invalidate();
+        }
+    }
+
+    public void clearItems() {
+        clusterer.clear();
+        titles.clear();
+        invalidate();
+    }
+
+    @Override
+    public void onCameraIdle() {
+        cluster();
+    }
+
+    /**
+     * Reclusters the region around the camera, unless the last request already covered it.
+     */
+    public void cluster() {
+        final int zoom = (int) googleMap.getCameraPosition().zoom;
+        LatLngBounds visible = googleMap.getProjection().getVisibleRegion().latLngBounds;
+        GeoBounds bounds = new GeoBounds(visible.southwest.latitude, visible.southwest.longitude,
+                visible.northeast.latitude, visible.northeast.longitude);
+        if (!dirty && zoom == clusteredZoom && clusteredBounds.contains(bounds)) {
+            return;
+        }
+        clusteredZoom = zoom;
+        clusteredBounds = bounds.pad(VIEWPORT_PADDING);
+        dirty = false;
+
+        final int requestGeneration = ++generation;
+        final GeoBounds requestBounds = clusteredBounds;
+        MapExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<GridClusterer.Cluster> clusters = clusterer.getClusters(zoom,
+                        requestBounds.south, requestBounds.west, requestBounds.north,
+                        requestBounds.east);
+                final BitmapDescriptor[] icons = new BitmapDescriptor[clusters.size()];
+                for (int i = 0; i < icons.length; i++) {
+                    GridClusterer.Cluster cluster = clusters.get(i);
+                    if (cluster.isCluster()) {
+                        icons[i] = iconCache.getClusterIcon(cluster.count);
+                    }
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (requestGeneration == generation) {
+                            long start = FrameMonitor.begin(JankStats.OP_OVERLAY_UPDATE);
+                            render(clusters, icons);
+                            FrameMonitor.end(JankStats.OP_OVERLAY_UPDATE, start);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Removes every marker drawn by this manager and drops pending results.
+     */
+    public void destroy() {
+        generation++;
+        handler.removeCallbacks(clusterRunnable);
+        clusterPending = false;
+        for (DrawnCluster cluster : drawn.values()) {
+            cluster.marker.remove();
+        }
+        drawn.clear();
+    }
+
+    private void invalidate() {
+        dirty = true;
+        if (!clusterPending) {
+            clusterPending = true;
+            handler.post(clusterRunnable);
+        }
+    }
+
+    private void render(List<GridClusterer.Cluster> clusters, BitmapDescriptor[] icons) {
+        HashMap<Long, DrawnCluster> next = new HashMap<>(clusters.size() * 2);
+        int added = 0;
+        for (int i = 0; i < icons.length; i++) {
+            GridClusterer.Cluster cluster = clusters.get(i);
+            DrawnCluster current = drawn.remove(cluster.key);
+            if (current == null) {
+                String title = titleOf(cluster);
+                current = new DrawnCluster(
+                        googleMap.addMarker(toMarkerOptions(cluster, title, icons[i])), cluster,
+                        title);
+                added++;
+            } else {
+                update(current, cluster, icons[i]);
+            }
+            next.put(cluster.key, current);
+        }
+        int removed = drawn.size();
+        for (DrawnCluster stale : drawn.values()) {
+            stale.marker.remove();
+        }
+        drawn = next;
+        Log.d(TAG, "render: " + clusters.size() + " markers, " + added + " added, "
+                + removed + " removed");
+    }
+
+    private void update(DrawnCluster current, GridClusterer.Cluster cluster,
+                        BitmapDescriptor icon) {
+        if (current.latitude != cluster.latitude || current.longitude != cluster.longitude) {
+            current.marker.setPosition(new LatLng(cluster.latitude, cluster.longitude));
+            current.latitude = cluster.latitude;
+            current.longitude = cluster.longitude;
+        }
+        // Single points are keyed by item id, and ids of removed items are reused, so their
+        // title may change without the count changing
+        if (current.count != cluster.count || !cluster.isCluster()) {
+            String title = titleOf(cluster);
+            if (!TextUtils.equals(current.title, title)) {
+                current.marker.setTitle(title);
+                current.title = title;
+            }
+        }
+        if (current.count != cluster.count) {
+            if (icon != null) {
+                current.marker.setIcon(icon);
+            }
+            current.count = cluster.count;
+        }
+    }
+
+    private MarkerOptions toMarkerOptions(GridClusterer.Cluster cluster, String title,
+                                          BitmapDescriptor icon) {
+        MarkerOptions options = new MarkerOptions()
+                .position(new LatLng(cluster.latitude, cluster.longitude))
+                .title(title);
+        if (icon != null) {
+            options.icon(icon).anchor(0.5f, 0.5f);
+        }
+        return options;
+    }
+
+    private String titleOf(GridClusterer.Cluster cluster) {
+        if (cluster.isCluster()) {
+            return resources.getString(R.string.cluster_title, cluster.count);
+        }
+        return titles.get(cluster.itemId);
+    }
+}
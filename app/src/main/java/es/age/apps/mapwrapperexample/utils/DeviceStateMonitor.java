@@ -0,0 +1,192 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.location.LocationManager;
+import android.net.ConnectivityManager;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process wide cache of the network, GPS and location permission state.
+ * <p>
+ * While it has users, see {@link #acquire} and {@link #release}, it listens to the connectivity
+ * and location provider broadcasts and keeps the current state, so reading it is a field access
+ * instead of a query to the system services. Listeners hear about every change as it happens,
+ * also about the changes made while nobody was using it, like the GPS enabled from the
+ * settings screen. There is no broadcast for the permission, it is read again on every
+ * {@link #acquire} and on {@link #refreshLocationPermission}; a revoked permission kills the
+ * process anyway. Without users the getters query the system services. Must be used from the
+ * main thread.
+ */
+public class DeviceStateMonitor {
+
+    public static final int CHANGED_NETWORK = 1;
+    public static final int CHANGED_GPS = 1 << 1;
+    public static final int CHANGED_LOCATION_PERMISSION = 1 << 2;
+
+    private static DeviceStateMonitor instance;
+
+    private String TAG = "DeviceStateMonitor";
+
+    private final Context context;
+    private final LocationManager locationManager;
+    private final CopyOnWriteArrayList<OnDeviceStateChangedListener> listeners =
+            new CopyOnWriteArrayList<>();
+
+    private int users = 0;
+    // Whether the state below has been read once, changes are only reported after that
+    private boolean known = false;
+    private boolean networkConnected;
+    private boolean gpsEnabled;
+    private boolean locationPermissionGranted;
+
+    public interface OnDeviceStateChangedListener {
+        /**
+         * @param changed {@code CHANGED_*} flags of the states that changed
+         */
+        public void onDeviceStateChanged(DeviceStateMonitor state, int changed);
+    }
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (users == 0) {
+                return;
+            }
+            if (ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
+                update(isConnected(intent), gpsEnabled, locationPermissionGranted);
+            } else {
+                update(networkConnected, queryGpsEnabled(), locationPermissionGranted);
+            }
+        }
+    };
+
+    public static synchronized DeviceStateMonitor getInstance(Context context) {
+        if (instance == null) {
+            instance = new DeviceStateMonitor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DeviceStateMonitor(Context context) {
+        this.context = context;
+        locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+    }
+
+    public void addOnDeviceStateChangedListener(OnDeviceStateChangedListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeOnDeviceStateChangedListener(OnDeviceStateChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    public int getUserCount() {
+        return users;
+    }
+
+    /**
+     * Adds a user, the first one starts listening to the broadcasts and reads the whole state.
+     */
+    public void acquire() {
+        users++;
+        if (users > 1) {
+            refreshLocationPermission();
+            return;
+        }
+        IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+        filter.addAction(LocationManager.PROVIDERS_CHANGED_ACTION);
+        // The connectivity intent is sticky, registering returns the current state right away
+        Intent connectivity = context.registerReceiver(receiver, filter);
+        boolean network = connectivity != null
+                ? isConnected(connectivity) : LocationUtils.isConnected(context);
+        update(network, queryGpsEnabled(), queryLocationPermission());
+    }
+
+    /**
+     * Removes a user, the last one stops listening to the broadcasts.
+     */
+    public void release() {
+        if (users == 0) {
+            return;
+        }
+        users--;
+        if (users == 0) {
+            context.unregisterReceiver(receiver);
+        }
+    }
+
+    /**
+     * Reads the permission again, call it once the user answers the permission request.
+     */
+    public void refreshLocationPermission() {
+        if (users > 0) {
+            update(networkConnected, gpsEnabled, queryLocationPermission());
+        }
+    }
+
+    public boolean isNetworkConnected() {
+        return users > 0 ? networkConnected : LocationUtils.isConnected(context);
+    }
+
+    public boolean isGpsEnabled() {
+        return users > 0 ? gpsEnabled : queryGpsEnabled();
+    }
+
+    public boolean isLocationPermissionGranted() {
+        return users > 0 ? locationPermissionGranted : queryLocationPermission();
+    }
+
+    private void update(boolean network, boolean gps, boolean permission) {
+        int changed = 0;
+        if (network != networkConnected) {
+            changed |= CHANGED_NETWORK;
+        }
+        if (gps != gpsEnabled) {
+            changed |= CHANGED_GPS;
+        }
+        if (permission != locationPermissionGranted) {
+            changed |= CHANGED_LOCATION_PERMISSION;
+        }
+        networkConnected = network;
+        gpsEnabled = gps;
+        locationPermissionGranted = permission;
+        if (!known) {
+            known = true;
+            return;
+        }
+        if (changed != 0) {
+            Log.d(TAG, "update: " + this);
+            for (OnDeviceStateChangedListener listener : listeners) {
+                listener.onDeviceStateChanged(this, changed);
+            }
+        }
+    }
+
+    private static boolean isConnected(Intent connectivity) {
+        // Sent for every network, the extra tells whether any network is left
+        return !connectivity.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false);
+    }
+
+    private boolean queryGpsEnabled() {
+        return locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
+    }
+
+    private boolean queryLocationPermission() {
+        return ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceStateMonitor[users=" + users + ", network=" + networkConnected
+                + ", gps=" + gpsEnabled + ", permission=" + locationPermissionGranted + "]";
+    }
+}
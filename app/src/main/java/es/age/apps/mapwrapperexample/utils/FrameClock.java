@@ -0,0 +1,131 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.HashMap;
+
+/**
+ * Posts callbacks for the next frame on the main thread. Uses {@link Choreographer} where it is
+ * available (API 16+) and falls back to a 16ms {@link Handler} tick on older devices, which
+ * keeps minSdkVersion at 14.
+ * <p>
+ * Callbacks are one shot, post them again from {@link FrameCallback#doFrame} to keep running.
+ * Must be used from the main thread.
+ */
+public abstract class FrameClock {
+
+    private static final long FALLBACK_FRAME_MS = 16;
+
+    private static FrameClock instance;
+
+    public interface FrameCallback {
+        /**
+         * @param frameTimeNanos start of the frame, in the {@link System#nanoTime()} time base
+         */
+        public void doFrame(long frameTimeNanos);
+    }
+
+    public static FrameClock getInstance() {
+        if (instance == null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                instance = new ChoreographerClock();
+            } else {
+                instance = new HandlerClock();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * True if frame times come from the display vsync, false for the fallback tick.
+     */
+    public abstract boolean isVsyncAligned();
+
+    public abstract void postFrameCallback(FrameCallback callback);
+
+    public abstract void removeFrameCallback(FrameCallback callback);
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class ChoreographerClock extends FrameClock {
+
+        private final Choreographer choreographer = Choreographer.getInstance();
+
+        // Wrappers of the pending callbacks. A wrapper drops its entry when it fires, so the
+        // process wide clock does not keep callbacks that stopped posting, and what they hold
+        private final HashMap<FrameCallback, Choreographer.FrameCallback> wrappers = new HashMap<>();
+
+        @Override
+        public boolean isVsyncAligned() {
+            return true;
+        }
+
+        @Override
+        public void postFrameCallback(final FrameCallback callback) {
+            Choreographer.FrameCallback wrapper = wrappers.get(callback);
+            if (wrapper == null) {
+                wrapper = new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        if (wrappers.get(callback) == this) {
+                            wrappers.remove(callback);
+                        }
+                        callback.doFrame(frameTimeNanos);
+                    }
+                };
+                wrappers.put(callback, wrapper);
+            }
+            choreographer.postFrameCallback(wrapper);
+        }
+
+        @Override
+        public void removeFrameCallback(FrameCallback callback) {
+            Choreographer.FrameCallback wrapper = wrappers.remove(callback);
+            if (wrapper != null) {
+                choreographer.removeFrameCallback(wrapper);
+            }
+        }
+    }
+
+    private static class HandlerClock extends FrameClock {
+
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        // Wrappers of the pending callbacks, see ChoreographerClock
+        private final HashMap<FrameCallback, Runnable> wrappers = new HashMap<>();
+
+        @Override
+        public boolean isVsyncAligned() {
+            return false;
+        }
+
+        @Override
+        public void postFrameCallback(final FrameCallback callback) {
+            Runnable wrapper = wrappers.get(callback);
+            if (wrapper == null) {
+                wrapper = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (wrappers.get(callback) == this) {
+                            wrappers.remove(callback);
+                        }
+                        callback.doFrame(System.nanoTime());
+                    }
+                };
+                wrappers.put(callback, wrapper);
+            }
+            handler.postDelayed(wrapper, FALLBACK_FRAME_MS);
+        }
+
+        @Override
+        public void removeFrameCallback(FrameCallback callback) {
+            Runnable wrapper = wrappers.remove(callback);
+            if (wrapper != null) {
+                handler.removeCallbacks(wrapper);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package es.age.apps.mapwrapperexample.utils;
+
+/**
+ * Opt in jank detector: measures every frame of the main thread with {@link FrameClock} and
+ * tags the slow ones with the wrapper operations that ran since the previous frame, see
+ * {@link JankStats}.
+ * <p>
+ * Wrapper code marks its main thread work with {@link #begin} and {@link #end}, and long lived
+ * states like a camera move with {@link #setActive}. Both are a field check when no monitor is
+ * running. Only one monitor runs at a time, the one of the screen in the foreground. Keeping a
+ * frame callback posted wakes the main thread on every vsync, so only enable it to look for
+ * hot spots. Must be used from the main thread.
+ */
+public class FrameMonitor implements FrameClock.FrameCallback {
+
+    private static FrameMonitor running;
+
+    private final JankStats stats;
+    private final LatencyHistogram frameLatency =
+            MetricsRegistry.getInstance().histogram(MetricsRegistry.LATENCY_FRAME);
+
+    private long lastFrameNanos = -1;
+    // Operations that ran since the last frame, and states still active
+    private int frameOperations;
+    private int activeOperations;
+    private final long[] operationNanos = new long[JankStats.OPERATION_COUNT];
+
+    public FrameMonitor() {
+        this(new JankStats());
+    }
+
+    public FrameMonitor(JankStats stats) {
+        this.stats = stats;
+    }
+
+    public JankStats getStats() {
+        return stats;
+    }
+
+    public boolean isRunning() {
+        return running == this;
+    }
+
+    /**
+     * Starts measuring frames, stopping the monitor that was running if any.
+     */
+    public void start() {
+        if (running == this) {
+            return;
+        }
+        if (running != null) {
+            running.stop();
+        }
+        running = this;
+        lastFrameNanos = -1;
+        frameOperations = 0;
+        activeOperations = 0;
+        FrameClock.getInstance().postFrameCallback(this);
+    }
+
+    public void stop() {
+        if (running != this) {
+            return;
+        }
+        running = null;
+        FrameClock.getInstance().removeFrameCallback(this);
+    }
+
+    /**
+     * Marks the start of an operation, pass the result to {@link #end}.
+     */
+    public static long begin(int operation) {
+        FrameMonitor monitor = running;
+        if (monitor == null) {
+            return -1;
+        }
+        monitor.frameOperations |= 1 << operation;
+        return System.nanoTime();
+    }
+
+    public static void end(int operation, long beginNanos) {
+        FrameMonitor monitor = running;
+        if (monitor != null && beginNanos >= 0) {
+            monitor.operationNanos[operation] += System.nanoTime() - beginNanos;
+        }
+    }
+
+    /**
+     * Tags every frame with the operation until it is set inactive again.
+     */
+    public static void setActive(int operation, boolean active) {
+        FrameMonitor monitor = running;
+        if (monitor == null) {
+            return;
+        }
+        if (active) {
+            monitor.activeOperations |= 1 << operation;
+        } else {
+            monitor.activeOperations &= ~(1 << operation);
+            // Still ran during this frame
+            monitor.frameOperations |= 1 << operation;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (running != this) {
+            return;
+        }
+        if (lastFrameNanos >= 0) {
+            long duration = frameTimeNanos - lastFrameNanos;
+            int dominant = JankStats.OP_NONE;
+            long longest = 0;
+            for (int op = 0; op < operationNanos.length; op++) {
+                if (operationNanos[op] > longest) {
+                    longest = operationNanos[op];
+                    dominant = op;
+                }
+            }
+            stats.onFrame(frameTimeNanos, duration, frameOperations | activeOperations,
+                    dominant);
+            frameLatency.record(duration);
+        }
+        lastFrameNanos = frameTimeNanos;
+        frameOperations = 0;
+        for (int op = 0; op < operationNanos.length; op++) {
+            operationNanos[op] = 0;
+        }
+        FrameClock.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public String toString() {
+        return "FrameMonitor[" + stats + "]";
+    }
+}
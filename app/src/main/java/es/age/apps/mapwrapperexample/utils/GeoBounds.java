@@ -0,0 +1,91 @@
+package es.age.apps.mapwrapperexample.utils;
+
+/**
+ * Immutable latitude/longitude bounds on primitive values. {@code west} is greater than
+ * {@code east} when the bounds cross the antimeridian.
+ */
+public class GeoBounds {
+
+    public static final GeoBounds WORLD = new GeoBounds(-90, -180, 90, 180);
+
+    public final double south;
+    public final double west;
+    public final double north;
+    public final double east;
+
+    public GeoBounds(double south, double west, double north, double east) {
+        this.south = south;
+        this.west = west;
+        this.north = north;
+        this.east = east;
+    }
+
+    public boolean crossesAntimeridian() {
+        return west > east;
+    }
+
+    public double getLongitudeSpan() {
+        return west <= east ? east - west : east - west + 360;
+    }
+
+    public double getCenterLatitude() {
+        return (south + north) / 2;
+    }
+
+    public double getCenterLongitude() {
+        return wrapLongitude(west + getLongitudeSpan() / 2);
+    }
+
+    public boolean containsLongitude(double longitude) {
+        if (west <= east) {
+            return longitude >= west && longitude <= east;
+        }
+        return longitude >= west || longitude <= east;
+    }
+
+    public boolean contains(double latitude, double longitude) {
+        return latitude >= south && latitude <= north && containsLongitude(longitude);
+    }
+
+    public boolean contains(GeoBounds other) {
+        if (other.south < south || other.north > north) {
+            return false;
+        }
+        if (getLongitudeSpan() >= 360) {
+            return true;
+        }
+        return other.getLongitudeSpan() <= getLongitudeSpan()
+                && containsLongitude(other.west) && containsLongitude(other.east);
+    }
+
+    /**
+     * Returns these bounds grown by the given fraction of their size on every side.
+     */
+    public GeoBounds pad(double fraction) {
+        double latPadding = (north - south) * fraction;
+        double lonSpan = getLongitudeSpan();
+        double lonPadding = lonSpan * fraction;
+        double padSouth = Math.max(-90, south - latPadding);
+        double padNorth = Math.min(90, north + latPadding);
+        if (lonSpan + 2 * lonPadding >= 360) {
+            return new GeoBounds(padSouth, -180, padNorth, 180);
+        }
+        return new GeoBounds(padSouth, wrapLongitude(west - lonPadding), padNorth,
+                wrapLongitude(east + lonPadding));
+    }
+
+    public static double wrapLongitude(double longitude) {
+        if (longitude < -180) {
+            return longitude + 360;
+        }
+        if (longitude > 180) {
+            return longitude - 360;
+        }
+        return longitude;
+    }
+
+    @Override
+    public String toString() {
+        return "GeoBounds[" + south + "," + west + " - " + north + "," + east + "]";
+    }
+}
@@ -0,0 +1,123 @@
+package es.age.apps.mapwrapperexample.utils;
+
+/**
+ * Plain Java geometry helpers shared by the map wrapper. Everything works on primitive
+ * coordinates so it can run off the main thread and on the JVM.
+ * <p>
+ * Projected coordinates are Web Mercator "world" coordinates normalized to [0, 1], with x
+ * growing to the east and y growing to the south, the same layout Google Maps uses for tiles.
+ */
+public class GeoUtils {
+
+    /**
+     * Size in dp of a map tile, and of the whole world at zoom 0.
+     */
+    public static final double TILE_SIZE_DP = 256;
+
+    /**
+     * Mean earth radius in meters.
+     */
+    public static final double EARTH_RADIUS_M = 6371008.8;
+
+    /**
+     * Latitude limit of the Web Mercator projection.
+     */
+    public static final double MAX_LATITUDE = 85.05112877980659;
+
+    private static final char[] GEOHASH_BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    /**
+     * Great circle distance in meters between two positions (haversine formula).
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double sinLat = Math.sin((phi2 - phi1) / 2);
+        double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double a = sinLat * sinLat + Math.cos(phi1) * Math.cos(phi2) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Initial great circle bearing in degrees from the first position to the second, clockwise
+     * from north in [0, 360).
+     */
+    public static double bearing(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double deltaLon = Math.toRadians(lon2 - lon1);
+        double y = Math.sin(deltaLon) * Math.cos(phi2);
+        double x = Math.cos(phi1) * Math.sin(phi2)
+                - Math.sin(phi1) * Math.cos(phi2) * Math.cos(deltaLon);
+        return (Math.toDegrees(Math.atan2(y, x)) + 360) % 360;
+    }
+
+    /**
+     * Geohash of a position with the given number of characters. Positions in the same cell share
+     * the hash: 7 characters are a cell of about 150m by 150m at the equator, 8 of 38m by 19m.
+     */
+    public static String geohash(double latitude, double longitude, int precision) {
+        double minLat = -90;
+        double maxLat = 90;
+        double minLon = -180;
+        double maxLon = 180;
+        char[] hash = new char[precision];
+        // Bits alternate between longitude and latitude, starting with longitude
+        boolean longitudeBit = true;
+        int bits = 0;
+        int value = 0;
+        int length = 0;
+        while (length < precision) {
+            value <<= 1;
+            if (longitudeBit) {
+                double middle = (minLon + maxLon) / 2;
+                if (longitude >= middle) {
+                    value |= 1;
+                    minLon = middle;
+                } else {
+                    maxLon = middle;
+                }
+            } else {
+                double middle = (minLat + maxLat) / 2;
+                if (latitude >= middle) {
+                    value |= 1;
+                    minLat = middle;
+                } else {
+                    maxLat = middle;
+                }
+            }
+            longitudeBit = !longitudeBit;
+            if (++bits == 5) {
+                hash[length++] = GEOHASH_BASE32[value];
+                bits = 0;
+                value = 0;
+            }
+        }
+        return new String(hash);
+    }
+
+    public static double lonToX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    public static double latToY(double latitude) {
+        double lat = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+        double sin = Math.sin(Math.toRadians(lat));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    public static double xToLon(double x) {
+        return x * 360 - 180;
+    }
+
+    public static double yToLat(double y) {
+        return 90 - 360 * Math.atan(Math.exp((y - 0.5) * 2 * Math.PI)) / Math.PI;
+    }
+
+    /**
+     * Width of the whole world in dp at the given zoom.
+     */
+    public static double worldSize(double zoom) {
+        return TILE_SIZE_DP * Math.pow(2, zoom);
+    }
+}
@@ -0,0 +1,43 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@link ReverseGeocoder.Backend} on the platform {@link Geocoder}, the address lines of the
+ * first result joined with commas.
+ */
+public class GeocoderBackend implements ReverseGeocoder.Backend {
+
+    private final Geocoder geocoder;
+
+    public GeocoderBackend(Context context) {
+        geocoder = new Geocoder(context.getApplicationContext(), Locale.getDefault());
+    }
+
+    @Override
+    public String lookup(double latitude, double longitude) throws IOException {
+        if (!Geocoder.isPresent()) {
+            // Not cached, the service may be installed later
+            throw new IOException("No geocoder service");
+        }
+        List<Address> addresses = geocoder.getFromLocation(latitude, longitude, 1);
+        if (addresses == null || addresses.isEmpty()) {
+            return null;
+        }
+        Address address = addresses.get(0);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i <= address.getMaxAddressLineIndex(); i++) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(address.getAddressLine(i));
+        }
+        return builder.length() > 0 ? builder.toString() : null;
+    }
+}
@@ -0,0 +1,496 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Evaluates polygonal geofences locally, without the count and shape limits of the platform
+ * geofencing API.
+ * <p>
+ * Vertices of every fence are stored flattened in primitive arrays. A uniform grid over the
+ * fence bounding boxes, stored as compressed rows, is rebuilt lazily after fences change. For
+ * every fix only the fences of its grid cell have their bounding box and then the exact
+ * point in polygon test run, so a fix costs microseconds with tens of thousands of fences.
+ * <p>
+ * Transitions are debounced: a fence is only entered once the fixes stay inside it for the
+ * enter delay, and only exited once they stay outside for the exit delay, so a track running
+ * along a border does not flap. {@link #TRANSITION_DWELL} is sent once per visit after the
+ * dwell time. Polygons are tested in plain latitude/longitude and must not cross the
+ * antimeridian. Listeners are called on the thread calling {@link #process}.
+ */
+public class GeofenceEngine {
+
+    public static final int TRANSITION_ENTER = 1;
+    public static final int TRANSITION_EXIT = 2;
+    public static final int TRANSITION_DWELL = 4;
+
+    public static final long DEFAULT_ENTER_DELAY_MS = 5000;
+    public static final long DEFAULT_EXIT_DELAY_MS = 10000;
+    public static final long DEFAULT_DWELL_MS = 60000;
+
+    private static final byte STATE_OUTSIDE = 0;
+    private static final byte STATE_ENTERING = 1;
+    private static final byte STATE_INSIDE = 2;
+    private static final byte STATE_EXITING = 3;
+
+    // Fences covering more cells than this are tested on every fix instead of being indexed
+    private static final int MAX_CELLS_PER_FENCE = 64;
+    private static final int MAX_GRID_SIZE = 1024;
+
+    public interface Listener {
+        public void onGeofenceTransition(int fenceId, int transition, long timeMs);
+    }
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final long enterDelayMs;
+    private final long exitDelayMs;
+    private final long dwellMs;
+
+    // Flattened vertices, fence i uses [vertexStart[i], vertexStart[i] + vertexCount[i])
+    private double[] vertexLat = new double[256];
+    private double[] vertexLon = new double[256];
+    private int vertexSize = 0;
+
+    // Per fence
+    private int fenceSize = 0;
+    private int liveFences = 0;
+    private int[] vertexStart = new int[16];
+    private int[] vertexCount = new int[16];
+    private double[] minLat = new double[16];
+    private double[] maxLat = new double[16];
+    private double[] minLon = new double[16];
+    private double[] maxLon = new double[16];
+    private boolean[] removed = new boolean[16];
+    private byte[] state = new byte[16];
+    private long[] stateSince = new long[16];
+    private long[] enteredAt = new long[16];
+    private boolean[] dwelled = new boolean[16];
+    private int[] seen = new int[16];
+
+    // Fences not outside, they must be checked even when the fix is far from them
+    private int[] active = new int[16];
+    private boolean[] isActive = new boolean[16];
+    private int activeSize = 0;
+
+    // Grid index over the bounding boxes, rebuilt when dirty
+    private boolean dirty = true;
+    private int gridColumns;
+    private int gridRows;
+    private double gridSouth;
+    private double gridWest;
+    private double cellHeight;
+    private double cellWidth;
+    private int[] cellStart = new int[1];
+    private int[] cellFences = new int[0];
+    private int[] largeFences = new int[0];
+
+    private int stamp = 0;
+    private long lastCandidates;
+    // Transitions of the fix being processed, as (fence, transition) pairs, reused across fixes
+    private int[] eventBuffer = new int[8];
+
+    public GeofenceEngine() {
+        this(DEFAULT_ENTER_DELAY_MS, DEFAULT_EXIT_DELAY_MS, DEFAULT_DWELL_MS);
+    }
+
+    /**
+     * @param dwellMs time inside a fence before {@link #TRANSITION_DWELL} is sent, 0 to never
+     *                send it
+     */
+    public GeofenceEngine(long enterDelayMs, long exitDelayMs, long dwellMs) {
+        this.enterDelayMs = enterDelayMs;
+        this.exitDelayMs = exitDelayMs;
+        this.dwellMs = dwellMs;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Adds a polygon given by its vertices, closing it is optional. Returns the fence id.
+     */
+    public synchronized int addPolygon(double[] latitudes, double[] longitudes, int size) {
+        if (size < 3) {
+            throw new IllegalArgumentException("A polygon needs 3 vertices: " + size);
+        }
+        if (vertexSize + size > vertexLat.length) {
+            int capacity = Math.max(vertexLat.length * 2, vertexSize + size);
+            vertexLat = Arrays.copyOf(vertexLat, capacity);
+            vertexLon = Arrays.copyOf(vertexLon, capacity);
+        }
+        if (fenceSize == vertexStart.length) {
+            growFences(fenceSize * 2);
+        }
+        int id = fenceSize++;
+        double south = Double.MAX_VALUE;
+        double north = -Double.MAX_VALUE;
+        double west = Double.MAX_VALUE;
+        double east = -Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            vertexLat[vertexSize + i] = latitudes[i];
+            vertexLon[vertexSize + i] = longitudes[i];
+            south = Math.min(south, latitudes[i]);
+            north = Math.max(north, latitudes[i]);
+            west = Math.min(west, longitudes[i]);
+            east = Math.max(east, longitudes[i]);
+        }
+        vertexStart[id] = vertexSize;
+        vertexCount[id] = size;
+        vertexSize += size;
+        minLat[id] = south;
+        maxLat[id] = north;
+        minLon[id] = west;
+        maxLon[id] = east;
+        liveFences++;
+        dirty = true;
+        return id;
+    }
+
+    /**
+     * Adds a circle approximated by a polygon. Returns the fence id.
+     */
+    public int addCircle(double latitude, double longitude, double radiusMeters, int vertices) {
+        double[] latitudes = new double[vertices];
+        double[] longitudes = new double[vertices];
+        double dLat = Math.toDegrees(radiusMeters / GeoUtils.EARTH_RADIUS_M);
+        double dLon = dLat / Math.cos(Math.toRadians(latitude));
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            latitudes[i] = latitude + dLat * Math.sin(angle);
+            longitudes[i] = longitude + dLon * Math.cos(angle);
+        }
+        return addPolygon(latitudes, longitudes, vertices);
+    }
+
+    /**
+     * Removes a fence. No exit is sent for it.
+     */
+    public synchronized boolean remove(int id) {
+        if (id < 0 || id >= fenceSize || removed[id]) {
+            return false;
+        }
+        removed[id] = true;
+        state[id] = STATE_OUTSIDE;
+        liveFences--;
+        dirty = true;
+        return true;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(removed, 0, fenceSize, false);
+        Arrays.fill(state, 0, fenceSize, STATE_OUTSIDE);
+        Arrays.fill(isActive, 0, fenceSize, false);
+        fenceSize = 0;
+        liveFences = 0;
+        vertexSize = 0;
+        activeSize = 0;
+        dirty = true;
+    }
+
+    public synchronized int size() {
+        return liveFences;
+    }
+
+    /**
+     * Whether the fence has been entered and not exited yet.
+     */
+    public synchronized boolean isInside(int id) {
+        return id >= 0 && id < fenceSize
+                && (state[id] == STATE_INSIDE || state[id] == STATE_EXITING);
+    }
+
+    /**
+     * Number of fences whose bounding box was tested for the last fix.
+     */
+    public synchronized long getLastCandidateCount() {
+        return lastCandidates;
+    }
+
+    /**
+     * Whether the position is inside the fence polygon, ignoring the transition state.
+     */
+    public synchronized boolean contains(int id, double latitude, double longitude) {
+        return id >= 0 && id < fenceSize && !removed[id] && inBounds(id, latitude, longitude)
+                && inPolygon(id, latitude, longitude);
+    }
+
+    /**
+     * Evaluates a fix against every fence and sends the resulting transitions. Fixes must come
+     * in time order. Returns the number of transitions sent.
+     */
+    public int process(double latitude, double longitude, long timeMs) {
+        int[] events;
+        int eventCount;
+        synchronized (this) {
+            if (dirty) {
+                rebuildIndex();
+            }
+            if (++stamp == Integer.MAX_VALUE) {
+                Arrays.fill(seen, 0);
+                stamp = 1;
+            }
+            events = eventBuffer;
+            eventCount = 0;
+            long candidates = 0;
+            int cell = cellOf(latitude, longitude);
+            if (cell >= 0) {
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    candidates++;
+                    eventCount = test(cellFences[k], latitude, longitude, timeMs, events,
+                            eventCount);
+                    events = grow(events, eventCount);
+                }
+            }
+            for (int fence : largeFences) {
+                candidates++;
+                eventCount = test(fence, latitude, longitude, timeMs, events, eventCount);
+                events = grow(events, eventCount);
+            }
+            // Fences not outside whose polygon does not hold the fix
+            int kept = 0;
+            for (int i = 0; i < activeSize; i++) {
+                int fence = active[i];
+                if (!removed[fence] && seen[fence] != stamp) {
+                    eventCount = transition(fence, false, timeMs, events, eventCount);
+                    events = grow(events, eventCount);
+                }
+                if (!removed[fence] && state[fence] != STATE_OUTSIDE) {
+                    active[kept++] = fence;
+                } else {
+                    isActive[fence] = false;
+                }
+            }
+            activeSize = kept;
+            lastCandidates = candidates;
+            eventBuffer = events;
+            if (eventCount == 0) {
+                return 0;
+            }
+            // Listeners run outside the lock, while another fix may refill the buffer
+            events = Arrays.copyOf(events, eventCount);
+        }
+        for (int i = 0; i < eventCount; i += 2) {
+            for (Listener listener : listeners) {
+                listener.onGeofenceTransition(events[i], events[i + 1], timeMs);
+            }
+        }
+        return eventCount / 2;
+    }
+
+    private int test(int fence, double latitude, double longitude, long timeMs, int[] events,
+                     int eventCount) {
+        if (removed[fence] || seen[fence] == stamp || !inBounds(fence, latitude, longitude)
+                || !inPolygon(fence, latitude, longitude)) {
+            return eventCount;
+        }
+        seen[fence] = stamp;
+        if (!isActive[fence]) {
+            if (activeSize == active.length) {
+                active = Arrays.copyOf(active, activeSize * 2);
+            }
+            active[activeSize++] = fence;
+            isActive[fence] = true;
+        }
+        return transition(fence, true, timeMs, events, eventCount);
+    }
+
+    private int transition(int fence, boolean inside, long timeMs, int[] events,
+                           int eventCount) {
+        switch (state[fence]) {
+            case STATE_OUTSIDE:
+                if (inside) {
+                    state[fence] = STATE_ENTERING;
+                    stateSince[fence] = timeMs;
+                    return transition(fence, true, timeMs, events, eventCount);
+                }
+                break;
+            case STATE_ENTERING:
+                if (!inside) {
+                    state[fence] = STATE_OUTSIDE;
+                } else if (timeMs - stateSince[fence] >= enterDelayMs) {
+                    state[fence] = STATE_INSIDE;
+                    enteredAt[fence] = stateSince[fence];
+                    dwelled[fence] = false;
+                    eventCount = add(events, eventCount, fence, TRANSITION_ENTER);
+                }
+                break;
+            case STATE_EXITING:
+                if (inside) {
+                    // Back inside, the dwell time still counts from the enter
+                    state[fence] = STATE_INSIDE;
+                    eventCount = stayInside(fence, timeMs, events, eventCount);
+                } else if (timeMs - stateSince[fence] >= exitDelayMs) {
+                    state[fence] = STATE_OUTSIDE;
+                    eventCount = add(events, eventCount, fence, TRANSITION_EXIT);
+                }
+                break;
+            case STATE_INSIDE:
+                if (!inside) {
+                    state[fence] = STATE_EXITING;
+                    stateSince[fence] = timeMs;
+                    return transition(fence, false, timeMs, events, eventCount);
+                }
+                eventCount = stayInside(fence, timeMs, events, eventCount);
+                break;
+        }
+        return eventCount;
+    }
+
+    private int stayInside(int fence, long timeMs, int[] events, int eventCount) {
+        if (dwellMs > 0 && !dwelled[fence] && timeMs - enteredAt[fence] >= dwellMs) {
+            dwelled[fence] = true;
+            eventCount = add(events, eventCount, fence, TRANSITION_DWELL);
+        }
+        return eventCount;
+    }
+
+    private static int add(int[] events, int eventCount, int fence, int transition) {
+        events[eventCount] = fence;
+        events[eventCount + 1] = transition;
+        return eventCount + 2;
+    }
+
+    // Keeps room for the 2 events a single fence can add
+    private static int[] grow(int[] events, int eventCount) {
+        return eventCount + 4 > events.length ? Arrays.copyOf(events, events.length * 2) : events;
+    }
+
+    private boolean inBounds(int fence, double latitude, double longitude) {
+        return latitude >= minLat[fence] && latitude <= maxLat[fence]
+                && longitude >= minLon[fence] && longitude <= maxLon[fence];
+    }
+
+    /**
+     * Ray casting: counts the edges crossed by a ray going east from the position.
+     */
+    private boolean inPolygon(int fence, double latitude, double longitude) {
+        int start = vertexStart[fence];
+        int end = start + vertexCount[fence];
+        boolean inside = false;
+        int previous = end - 1;
+        for (int i = start; i < end; i++) {
+            double latI = vertexLat[i];
+            double latP = vertexLat[previous];
+            if ((latI > latitude) != (latP > latitude)) {
+                double crossing = vertexLon[i] + (latitude - latI)
+                        * (vertexLon[previous] - vertexLon[i]) / (latP - latI);
+                if (longitude < crossing) {
+                    inside = !inside;
+                }
+            }
+            previous = i;
+        }
+        return inside;
+    }
+
+    private int cellOf(double latitude, double longitude) {
+        if (gridColumns == 0) {
+            return -1;
+        }
+        int column = (int) Math.floor((longitude - gridWest) / cellWidth);
+        int row = (int) Math.floor((latitude - gridSouth) / cellHeight);
+        if (column < 0 || column >= gridColumns || row < 0 || row >= gridRows) {
+            return -1;
+        }
+        return row * gridColumns + column;
+    }
+
+    private void rebuildIndex() {
+        dirty = false;
+        gridColumns = 0;
+        gridRows = 0;
+        double south = Double.MAX_VALUE;
+        double north = -Double.MAX_VALUE;
+        double west = Double.MAX_VALUE;
+        double east = -Double.MAX_VALUE;
+        for (int i = 0; i < fenceSize; i++) {
+            if (!removed[i]) {
+                south = Math.min(south, minLat[i]);
+                north = Math.max(north, maxLat[i]);
+                west = Math.min(west, minLon[i]);
+                east = Math.max(east, maxLon[i]);
+            }
+        }
+        if (liveFences == 0) {
+            cellStart = new int[1];
+            cellFences = new int[0];
+            largeFences = new int[0];
+            return;
+        }
+        // About one fence per cell when they are spread evenly
+        int side = (int) Math.ceil(Math.sqrt(liveFences));
+        gridColumns = Math.max(1, Math.min(MAX_GRID_SIZE, side));
+        gridRows = gridColumns;
+        gridSouth = south;
+        gridWest = west;
+        cellHeight = Math.max(1e-9, (north - south) / gridRows) * (1 + 1e-9);
+        cellWidth = Math.max(1e-9, (east - west) / gridColumns) * (1 + 1e-9);
+
+        // Count, prefix sum and fill
+        int cells = gridColumns * gridRows;
+        int[] counts = new int[cells + 1];
+        int large = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            int[] largeOut = pass == 0 ? null : new int[large];
+            int largeNext = 0;
+            for (int i = 0; i < fenceSize; i++) {
+                if (removed[i]) {
+                    continue;
+                }
+                int column0 = (int) ((minLon[i] - gridWest) / cellWidth);
+                int column1 = (int) ((maxLon[i] - gridWest) / cellWidth);
+                int row0 = (int) ((minLat[i] - gridSouth) / cellHeight);
+                int row1 = (int) ((maxLat[i] - gridSouth) / cellHeight);
+                if ((column1 - column0 + 1) * (row1 - row0 + 1) > MAX_CELLS_PER_FENCE) {
+                    if (pass == 0) {
+                        large++;
+                    } else {
+                        largeOut[largeNext++] = i;
+                    }
+                    continue;
+                }
+                for (int row = row0; row <= row1; row++) {
+                    for (int column = column0; column <= column1; column++) {
+                        int cell = row * gridColumns + column;
+                        if (pass == 0) {
+                            counts[cell + 1]++;
+                        } else {
+                            cellFences[counts[cell]++] = i;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int c = 0; c < cells; c++) {
+                    counts[c + 1] += counts[c];
+                }
+                cellStart = Arrays.copyOf(counts, cells + 1);
+                cellFences = new int[counts[cells]];
+            } else {
+                largeFences = largeOut;
+            }
+        }
+    }
+
+    private void growFences(int capacity) {
+        vertexStart = Arrays.copyOf(vertexStart, capacity);
+        vertexCount = Arrays.copyOf(vertexCount, capacity);
+        minLat = Arrays.copyOf(minLat, capacity);
+        maxLat = Arrays.copyOf(maxLat, capacity);
+        minLon = Arrays.copyOf(minLon, capacity);
+        maxLon = Arrays.copyOf(maxLon, capacity);
+        removed = Arrays.copyOf(removed, capacity);
+        state = Arrays.copyOf(state, capacity);
+        stateSince = Arrays.copyOf(stateSince, capacity);
+        enteredAt = Arrays.copyOf(enteredAt, capacity);
+        dwelled = Arrays.copyOf(dwelled, capacity);
+        seen = Arrays.copyOf(seen, capacity);
+        isActive = Arrays.copyOf(isActive, capacity);
+    }
+}
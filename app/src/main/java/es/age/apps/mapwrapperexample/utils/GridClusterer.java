@@ -0,0 +1,319 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Grid based point clusterer. Points are bucketed per integer zoom level into square cells of
+ * a fixed size in dp, so a cell is always the same size on screen.
+ * <p>
+ * Each zoom level is built the first time it is asked for and then kept up to date as points
+ * are added or removed, so moving the camera never reclusters the whole data set again.
+ * All methods are synchronized: points may be added on the main thread while a background
+ * thread reads the clusters.
+ */
+public class GridClusterer {
+
+    public static final int DEFAULT_CELL_SIZE_DP = 100;
+
+    public static final int MAX_ZOOM = 21;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final double cellSizeDp;
+
+    // Points by slot, a removed slot has NaN coordinates until it is reused
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    private double[] xs = new double[INITIAL_CAPACITY];
+    private double[] ys = new double[INITIAL_CAPACITY];
+    private int end;
+    private int size;
+
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeCount;
+
+    private final Level[] levels = new Level[MAX_ZOOM + 1];
+
+    /**
+     * A cluster, or a single point, as returned by {@link #getClusters}.
+     */
+    public static final class Cluster {
+        /**
+         * Stable key for the marker drawing this cluster. Single points use {@code -(id + 1)}
+         * so they keep the same marker at every zoom.
+         */
+        public final long key;
+        public final double latitude;
+        public final double longitude;
+        public final int count;
+        /**
+         * Id of the point when {@link #count} is 1, -1 otherwise.
+         */
+        public final int itemId;
+
+        Cluster(long key, double latitude, double longitude, int count, int itemId) {
+            this.key = key;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.count = count;
+            this.itemId = itemId;
+        }
+
+        public boolean isCluster() {
+            return count > 1;
+        }
+    }
+
+    private static final class Cell {
+        final int cellX;
+        final int cellY;
+        int count;
+        double sumX;
+        double sumY;
+        // First point of the cell, the rest are chained through Level.next
+        int head = -1;
+
+        Cell(int cellX, int cellY) {
+            this.cellX = cellX;
+            this.cellY = cellY;
+        }
+    }
+
+    private static final class Level {
+        final double cellsPerSide;
+        final int maxCell;
+        final HashMap<Long, Cell> cells = new HashMap<>();
+        int[] next;
+
+        Level(double cellsPerSide, int capacity) {
+            this.cellsPerSide = cellsPerSide;
+            this.maxCell = (int) Math.ceil(cellsPerSide) - 1;
+            this.next = new int[capacity];
+        }
+
+        int cell(double coordinate) {
+            int cell = (int) (coordinate * cellsPerSide);
+            return cell < 0 ? 0 : (cell > maxCell ? maxCell : cell);
+        }
+    }
+
+    public GridClusterer() {
+        this(DEFAULT_CELL_SIZE_DP);
+    }
+
+    public GridClusterer(int cellSizeDp) {
+        if (cellSizeDp <= 0) {
+            throw new IllegalArgumentException("cellSizeDp must be positive: " + cellSizeDp);
+        }
+        this.cellSizeDp = cellSizeDp;
+    }
+
+    /**
+     * Adds a point and returns its id. Ids of removed points are reused.
+     */
+    public synchronized int add(double latitude, double longitude) {
+        int id;
+        if (freeCount > 0) {
+            id = freeSlots[--freeCount];
+        } else {
+            if (end == latitudes.length) {
+                grow();
+            }
+            id = end++;
+        }
+        latitudes[id] = latitude;
+        longitudes[id] = longitude;
+        xs[id] = GeoUtils.lonToX(longitude);
+        ys[id] = GeoUtils.latToY(latitude);
+        size++;
+
+        for (Level level : levels) {
+            if (level != null) {
+                link(level, id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Removes the point with the given id, returns false if there was no such point.
+     */
+    public synchronized boolean remove(int id) {
+        if (id < 0 || id >= end || Double.isNaN(xs[id])) {
+            return false;
+        }
+        for (Level level : levels) {
+            if (level != null) {
+                unlink(level, id);
+            }
+        }
+        latitudes[id] = Double.NaN;
+        longitudes[id] = Double.NaN;
+        xs[id] = Double.NaN;
+        ys[id] = Double.NaN;
+        if (freeCount == freeSlots.length) {
+            int[] grown = new int[freeSlots.length * 2];
+            System.arraycopy(freeSlots, 0, grown, 0, freeCount);
+            freeSlots = grown;
+        }
+        freeSlots[freeCount++] = id;
+        size--;
+        return true;
+    }
+
+    public synchronized void clear() {
+        end = 0;
+        size = 0;
+        freeCount = 0;
+        for (int z = 0; z < levels.length; z++) {
+            levels[z] = null;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the clusters and single points at the given zoom whose cell intersects the given
+     * bounds. {@code west} may be greater than {@code east} when the bounds cross the
+     * antimeridian.
+     */
+    public synchronized List<Cluster> getClusters(float zoom, double south, double west,
+                                                  double north, double east) {
+        Level level = level(zoom);
+        int x0 = level.cell(GeoUtils.lonToX(west));
+        int x1 = level.cell(GeoUtils.lonToX(east));
+        int y0 = level.cell(GeoUtils.latToY(north));
+        int y1 = level.cell(GeoUtils.latToY(south));
+        boolean wraps = west > east;
+
+        long columns = wraps ? (level.maxCell - x0 + 1) + (x1 + 1) : (x1 - x0 + 1);
+        long range = columns * (y1 - y0 + 1);
+
+        List<Cluster> result = new ArrayList<>();
+        if (range > level.cells.size()) {
+            // Fewer occupied cells than cells in view, walk them all
+            for (Cell cell : level.cells.values()) {
+                boolean inX = wraps ? (cell.cellX >= x0 || cell.cellX <= x1)
+                        : (cell.cellX >= x0 && cell.cellX <= x1);
+                if (inX && cell.cellY >= y0 && cell.cellY <= y1) {
+                    result.add(toCluster(cell));
+                }
+            }
+        } else if (wraps) {
+            collect(level, x0, level.maxCell, y0, y1, result);
+            collect(level, 0, x1, y0, y1, result);
+        } else {
+            collect(level, x0, x1, y0, y1, result);
+        }
+        return result;
+    }
+
+    private void collect(Level level, int x0, int x1, int y0, int y1, List<Cluster> out) {
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                Cell cell = level.cells.get(key(x, y));
+                if (cell != null) {
+                    out.add(toCluster(cell));
+                }
+            }
+        }
+    }
+
+    private Cluster toCluster(Cell cell) {
+        if (cell.count == 1) {
+            int id = cell.head;
+            return new Cluster(-(id + 1L), latitudes[id], longitudes[id], 1, id);
+        }
+        return new Cluster(key(cell.cellX, cell.cellY),
+                GeoUtils.yToLat(cell.sumY / cell.count),
+                GeoUtils.xToLon(cell.sumX / cell.count),
+                cell.count, -1);
+    }
+
+    private Level level(float zoom) {
+        int z = Math.max(0, Math.min(MAX_ZOOM, (int) zoom));
+        Level level = levels[z];
+        if (level == null) {
+            level = new Level(GeoUtils.worldSize(z) / cellSizeDp, latitudes.length);
+            for (int id = 0; id < end; id++) {
+                if (!Double.isNaN(xs[id])) {
+                    link(level, id);
+                }
+            }
+            levels[z] = level;
+        }
+        return level;
+    }
+
+    private void link(Level level, int id) {
+        int cellX = level.cell(xs[id]);
+        int cellY = level.cell(ys[id]);
+        Long key = key(cellX, cellY);
+        Cell cell = level.cells.get(key);
+        if (cell == null) {
+            cell = new Cell(cellX, cellY);
+            level.cells.put(key, cell);
+        }
+        level.next[id] = cell.head;
+        cell.head = id;
+        cell.count++;
+        cell.sumX += xs[id];
+        cell.sumY += ys[id];
+    }
+
+    private void unlink(Level level, int id) {
+        Long key = key(level.cell(xs[id]), level.cell(ys[id]));
+        Cell cell = level.cells.get(key);
+        if (cell == null) {
+            return;
+        }
+        if (cell.head == id) {
+            cell.head = level.next[id];
+        } else {
+            int previous = cell.head;
+            while (previous != -1 && level.next[previous] != id) {
+                previous = level.next[previous];
+            }
+            if (previous == -1) {
+                return;
+            }
+            level.next[previous] = level.next[id];
+        }
+        cell.count--;
+        if (cell.count == 0) {
+            level.cells.remove(key);
+        } else {
+            cell.sumX -= xs[id];
+            cell.sumY -= ys[id];
+        }
+    }
+
+    private void grow() {
+        int capacity = latitudes.length * 2;
+        latitudes = copyOf(latitudes, capacity);
+        longitudes = copyOf(longitudes, capacity);
+        xs = copyOf(xs, capacity);
+        ys = copyOf(ys, capacity);
+        for (Level level : levels) {
+            if (level != null) {
+                int[] next = new int[capacity];
+                System.arraycopy(level.next, 0, next, 0, level.next.length);
+                level.next = next;
+            }
+        }
+    }
+
+    private static double[] copyOf(double[] array, int capacity) {
+        double[] copy = new double[capacity];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+}
@@ -0,0 +1,330 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Rasterizes heatmap tiles of a large point set into ARGB pixels.
+ * <p>
+ * Points are stored as fixed point world coordinates. For every zoom a tile is asked for, the
+ * points are aggregated once into a grid of {@link #BIN_SIZE} pixel bins, so a tile is drawn
+ * from at most a few thousand bins whatever the number of points. Each non empty bin is
+ * splatted with a precomputed Gaussian kernel weighted by its count, and the intensity is
+ * mapped through a color lookup table. Only the grids of the last zooms used are kept, and
+ * points added later are added to them in place. Tiles can be rendered from several threads
+ * at once.
+ */
+public class HeatmapRasterizer {
+
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * Size in pixels of the aggregation bins.
+     */
+    public static final int BIN_SIZE = 4;
+
+    public static final int DEFAULT_RADIUS_PX = 20;
+
+    public static final int MAX_ZOOM = 21;
+
+    private static final int BINS_PER_TILE = TILE_SIZE / BIN_SIZE;
+    private static final int MAX_GRIDS = 3;
+
+    // World coordinates are stored as x * 2^30, enough for bins up to MAX_ZOOM
+    private static final double FIXED_SCALE = 1 << 30;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int[] xs = new int[1024];
+    private int[] ys = new int[1024];
+    private int size = 0;
+
+    private final int radius;
+    private final float[] kernel;
+    private final int[] colors;
+
+    // Aggregated grids of the last zooms used, by zoom. Looking one up under the read lock
+    // does not change the map, only the use stamp of the grid
+    private final Grid[] grids = new Grid[MAX_ZOOM + 1];
+    private int gridCount;
+    private final AtomicLong useClock = new AtomicLong();
+
+    private static final class Grid {
+        final int zoom;
+        final LongIntMap counts;
+        int maxCount;
+        volatile long lastUsed;
+
+        Grid(int zoom, int expectedSize) {
+            this.zoom = zoom;
+            counts = new LongIntMap(expectedSize);
+        }
+
+        void add(int x, int y) {
+            int shift = 30 - zoom - 8 + 2; // fixed point to bin, 2^8 px per tile, 2^2 px per bin
+            long key = ((long) (x >>> shift) << 32) | (y >>> shift);
+            maxCount = Math.max(maxCount, counts.add(key, 1));
+        }
+    }
+
+    public HeatmapRasterizer() {
+        this(DEFAULT_RADIUS_PX);
+    }
+
+    public HeatmapRasterizer(int radiusPx) {
+        radius = radiusPx;
+        kernel = gaussianKernel(radiusPx);
+        colors = colorRamp();
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds points, updating the grids already built.
+     */
+    public void addPoints(double[] latitudes, double[] longitudes, int count) {
+        lock.writeLock().lock();
+        try {
+            if (size + count > xs.length) {
+                int capacity = Math.max(xs.length * 2, size + count);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+            }
+            for (int i = 0; i < count; i++) {
+                int x = toFixed(GeoUtils.lonToX(longitudes[i]));
+                int y = toFixed(GeoUtils.latToY(latitudes[i]));
+                xs[size] = x;
+                ys[size] = y;
+                size++;
+                for (Grid grid : grids) {
+                    if (grid != null) {
+                        grid.add(x, y);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            size = 0;
+            Arrays.fill(grids, null);
+            gridCount = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Largest bin count at the zoom, tiles are normalized by it. Builds the grid if needed.
+     */
+    public int getMaxCount(int zoom) {
+        Grid grid = grid(zoom);
+        lock.readLock().lock();
+        try {
+            return grid.maxCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Renders a tile into ARGB pixels, row by row. Returns null if no point is close enough
+     * to the tile to color it.
+     */
+    public int[] render(int zoom, int tileX, int tileY) {
+        Grid grid = grid(zoom);
+        float[] intensity = null;
+        float scale;
+        lock.readLock().lock();
+        try {
+            if (grid.maxCount == 0) {
+                return null;
+            }
+            scale = 1f / grid.maxCount;
+            int margin = (radius + BIN_SIZE - 1) / BIN_SIZE;
+            int binsPerSide = BINS_PER_TILE << zoom;
+            int kernelSize = 2 * radius + 1;
+            for (int by = tileY * BINS_PER_TILE - margin;
+                 by < (tileY + 1) * BINS_PER_TILE + margin; by++) {
+                if (by < 0 || by >= binsPerSide) {
+                    continue;
+                }
+                for (int bx = tileX * BINS_PER_TILE - margin;
+                     bx < (tileX + 1) * BINS_PER_TILE + margin; bx++) {
+                    // Wrap around the antimeridian
+                    int wrapped = (bx + binsPerSide) % binsPerSide;
+                    int count = grid.counts.get(((long) wrapped << 32) | by, 0);
+                    if (count == 0) {
+                        continue;
+                    }
+                    if (intensity == null) {
+                        intensity = new float[TILE_SIZE * TILE_SIZE];
+                    }
+                    // Kernel center in tile pixels
+                    int cx = (bx - tileX * BINS_PER_TILE) * BIN_SIZE + BIN_SIZE / 2;
+                    int cy = (by - tileY * BINS_PER_TILE) * BIN_SIZE + BIN_SIZE / 2;
+                    int x0 = Math.max(0, cx - radius);
+                    int x1 = Math.min(TILE_SIZE - 1, cx + radius);
+                    int y0 = Math.max(0, cy - radius);
+                    int y1 = Math.min(TILE_SIZE - 1, cy + radius);
+                    for (int py = y0; py <= y1; py++) {
+                        int row = py * TILE_SIZE;
+                        int kernelRow = (py - cy + radius) * kernelSize - cx + radius;
+                        for (int px = x0; px <= x1; px++) {
+                            intensity[row + px] += count * kernel[kernelRow + px];
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (intensity == null) {
+            return null;
+        }
+        int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+        boolean colored = false;
+        for (int i = 0; i < pixels.length; i++) {
+            // Square root so sparse areas stay visible next to the densest bin
+            float value = (float) Math.sqrt(Math.min(1f, intensity[i] * scale));
+            pixels[i] = colors[(int) (value * (colors.length - 1))];
+            colored |= pixels[i] != 0;
+        }
+        return colored ? pixels : null;
+    }
+
+    /**
+     * Calls the visitor for every tile of the zoom within the kernel radius of the point.
+     */
+    public void affectedTiles(double latitude, double longitude, int zoom, TileVisitor visitor) {
+        double worldPixels = (double) TILE_SIZE * (1 << zoom);
+        double px = GeoUtils.lonToX(longitude) * worldPixels;
+        double py = GeoUtils.latToY(latitude) * worldPixels;
+        int tiles = 1 << zoom;
+        int x0 = (int) Math.floor((px - radius - BIN_SIZE) / TILE_SIZE);
+        int x1 = (int) Math.floor((px + radius + BIN_SIZE) / TILE_SIZE);
+        int y0 = Math.max(0, (int) Math.floor((py - radius - BIN_SIZE) / TILE_SIZE));
+        int y1 = Math.min(tiles - 1, (int) Math.floor((py + radius + BIN_SIZE) / TILE_SIZE));
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                visitor.visit(zoom, (x + tiles) % tiles, y);
+            }
+        }
+    }
+
+    public interface TileVisitor {
+        public void visit(int zoom, int x, int y);
+    }
+
+    private Grid grid(int zoom) {
+        if (zoom < 0 || zoom > MAX_ZOOM) {
+            throw new IllegalArgumentException("Zoom out of range: " + zoom);
+        }
+        lock.readLock().lock();
+        try {
+            Grid grid = grids[zoom];
+            if (grid != null) {
+                grid.lastUsed = useClock.incrementAndGet();
+                return grid;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // Only building a grid takes the write lock
+        lock.writeLock().lock();
+        try {
+            Grid grid = grids[zoom];
+            if (grid == null) {
+                grid = new Grid(zoom, Math.min(size, 1 << 20));
+                for (int i = 0; i < size; i++) {
+                    grid.add(xs[i], ys[i]);
+                }
+                grids[zoom] = grid;
+                if (++gridCount > MAX_GRIDS) {
+                    evictLeastRecentlyUsed(zoom);
+                }
+            }
+            grid.lastUsed = useClock.incrementAndGet();
+            return grid;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Called with the write lock held
+    private void evictLeastRecentlyUsed(int keptZoom) {
+        int oldest = -1;
+        for (int zoom = 0; zoom < grids.length; zoom++) {
+            if (zoom != keptZoom && grids[zoom] != null
+                    && (oldest < 0 || grids[zoom].lastUsed < grids[oldest].lastUsed)) {
+                oldest = zoom;
+            }
+        }
+        grids[oldest] = null;
+        gridCount--;
+    }
+
+    private static int toFixed(double world) {
+        return (int) Math.max(0, Math.min(FIXED_SCALE - 1, world * FIXED_SCALE));
+    }
+
+    private static float[] gaussianKernel(int radius) {
+        int size = 2 * radius + 1;
+        float[] kernel = new float[size * size];
+        double sigma = radius / 3.0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                double dx = x - radius;
+                double dy = y - radius;
+                kernel[y * size + x] = (float) Math.exp(-(dx * dx + dy * dy) / (2 * sigma * sigma));
+            }
+        }
+        return kernel;
+    }
+
+    /**
+     * 256 colors from transparent through green and yellow to red, in ARGB.
+     */
+    private static int[] colorRamp() {
+        int[] stops = {0x0000ff00, 0xb000ff00, 0xd0ffff00, 0xf0ff0000};
+        float[] positions = {0f, 0.2f, 0.6f, 1f};
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            float t = i / 255f;
+            int stop = 1;
+            while (stop < positions.length - 1 && t > positions[stop]) {
+                stop++;
+            }
+            float f = (t - positions[stop - 1]) / (positions[stop] - positions[stop - 1]);
+            colors[i] = mix(stops[stop - 1], stops[stop], f);
+        }
+        colors[0] = 0;
+        return colors;
+    }
+
+    private static int mix(int from, int to, float f) {
+        int color = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int a = (from >>> shift) & 0xff;
+            int b = (to >>> shift) & 0xff;
+            color |= Math.round(a + (b - a) * f) << shift;
+        }
+        return color;
+    }
+}
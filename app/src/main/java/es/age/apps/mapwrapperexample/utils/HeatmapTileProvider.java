@@ -0,0 +1,213 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileOverlay;
+import com.google.android.gms.maps.model.TileOverlayOptions;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Heatmap layer of a large point set, drawn as a {@link TileOverlay}.
+ * <p>
+ * Tiles are rasterized by a {@link HeatmapRasterizer} directly on the map's tile threads, which
+ * already bound how many are drawn at once, so no thread of {@link MapExecutors#background()}
+ * is held waiting. Encoded PNGs are kept in a byte bounded LRU. When points are added, only the
+ * cached tiles they touch are dropped before the map is asked to reload its tiles, every other
+ * tile comes back from the cache. Tiles are also redrawn when the densest bin of their zoom
+ * changes, since the colors are relative to it.
+ */
+public class HeatmapTileProvider implements TileProvider, MapHost.Layer {
+
+    public static final int DEFAULT_CACHE_BYTES = 4 * 1024 * 1024;
+
+    // Above this many new points the whole cache is dropped instead of the tiles they touch
+    private static final int MAX_INCREMENTAL_POINTS = 10000;
+
+    private String TAG = "HeatmapTileProvider";
+
+    private final HeatmapRasterizer rasterizer;
+    private final LruCache<Long, RenderedTile> cache;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private TileOverlay overlay;
+
+    // Increased after points are added and before the tiles they touch are dropped, so a tile
+    // drawn from the older points and cached after the drop can be told apart
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private static final class RenderedTile {
+        // Null for a tile without color
+        final byte[] png;
+        final int maxCount;
+        // Generation of the points when drawing started
+        final int generation;
+
+        RenderedTile(byte[] png, int maxCount, int generation) {
+            this.png = png;
+            this.maxCount = maxCount;
+            this.generation = generation;
+        }
+    }
+
+    public HeatmapTileProvider() {
+        this(new HeatmapRasterizer(), DEFAULT_CACHE_BYTES);
+    }
+
+    public HeatmapTileProvider(HeatmapRasterizer rasterizer, int cacheBytes) {
+        this.rasterizer = rasterizer;
+        cache = new LruCache<Long, RenderedTile>(cacheBytes) {
+            @Override
+            protected int sizeOf(Long key, RenderedTile value) {
+                return value.png == null ? 16 : value.png.length;
+            }
+        };
+    }
+
+    /**
+     * Adds the heatmap to the map. Must be called from the main thread.
+     */
+    public TileOverlay addTo(GoogleMap googleMap) {
+        overlay = googleMap.addTileOverlay(new TileOverlayOptions().tileProvider(this));
+        return overlay;
+    }
+
+    /**
+     * Removes the heatmap from the map. Must be called from the main thread.
+     */
+    public void remove() {
+        onDetach();
+        cache.evictAll();
+    }
+
+    @Override
+    public void onAttach(GoogleMap map, MapCameraDispatcher cameraDispatcher) {
+        addTo(map);
+    }
+
+    /**
+     * Removes the heatmap from the map, keeping the points and the rendered tiles for the next
+     * map it is attached to.
+     */
+    @Override
+    public void onDetach() {
+        if (overlay != null) {
+            overlay.remove();
+            overlay = null;
+        }
+    }
+
+    /**
+     * Adds points in the background, then redraws the tiles they touch. The arrays must not
+     * be modified until they are added.
+     */
+    public void addPoints(final double[] latitudes, final double[] longitudes, final int size) {
+        MapExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                rasterizer.addPoints(latitudes, longitudes, size);
+                generation.incrementAndGet();
+                invalidate(latitudes, longitudes, size);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (overlay != null) {
+                            long start = FrameMonitor.begin(JankStats.OP_OVERLAY_UPDATE);
+                            overlay.clearTileCache();
+                            FrameMonitor.end(JankStats.OP_OVERLAY_UPDATE, start);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        if (zoom > HeatmapRasterizer.MAX_ZOOM) {
+            return NO_TILE;
+        }
+        long key = TilePack.key(zoom, x, y);
+        RenderedTile tile = cache.get(key);
+        if (tile == null || tile.maxCount != rasterizer.getMaxCount(zoom)) {
+            // Drawn on the map's tile thread, the rasterizer renders tiles concurrently
+            try {
+                tile = render(x, y, zoom);
+            } catch (RuntimeException e) {
+                Log.d(TAG, "getTile: " + e);
+                return NO_TILE;
+            }
+            cache.put(key, tile);
+            if (tile.generation != generation.get()) {
+                // Points were added while drawing, and their invalidation may have run before
+                // the put: do not keep a tile that may miss them. The map reloads it anyway.
+                synchronized (cache) {
+                    if (cache.get(key) == tile) {
+                        cache.remove(key);
+                    }
+                }
+            }
+        }
+        if (tile.png == null) {
+            return NO_TILE;
+        }
+        return new Tile(HeatmapRasterizer.TILE_SIZE, HeatmapRasterizer.TILE_SIZE, tile.png);
+    }
+
+    private RenderedTile render(int x, int y, int zoom) {
+        int drawnGeneration = generation.get();
+        int maxCount = rasterizer.getMaxCount(zoom);
+        int[] pixels = rasterizer.render(zoom, x, y);
+        if (pixels == null) {
+            return new RenderedTile(null, maxCount, drawnGeneration);
+        }
+        Bitmap bitmap = Bitmap.createBitmap(pixels, HeatmapRasterizer.TILE_SIZE,
+                HeatmapRasterizer.TILE_SIZE, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(16 * 1024);
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+        bitmap.recycle();
+        return new RenderedTile(output.toByteArray(), maxCount, drawnGeneration);
+    }
+
+    private void invalidate(double[] latitudes, double[] longitudes, int size) {
+        if (size > MAX_INCREMENTAL_POINTS) {
+            cache.evictAll();
+            return;
+        }
+        // Only the zooms with cached tiles matter
+        final Map<Long, RenderedTile> cached = cache.snapshot();
+        HashSet<Integer> zooms = new HashSet<>();
+        for (Long key : cached.keySet()) {
+            zooms.add((int) (key >>> 58));
+        }
+        final HashSet<Long> stale = new HashSet<>();
+        HeatmapRasterizer.TileVisitor visitor = new HeatmapRasterizer.TileVisitor() {
+            @Override
+            public void visit(int zoom, int x, int y) {
+                long key = TilePack.key(zoom, x, y);
+                if (cached.containsKey(key)) {
+                    stale.add(key);
+                }
+            }
+        };
+        for (int zoom : zooms) {
+            for (int i = 0; i < size; i++) {
+                rasterizer.affectedTiles(latitudes[i], longitudes[i], zoom, visitor);
+            }
+        }
+        for (Long key : stale) {
+            cache.remove(key);
+        }
+        Log.d(TAG, "invalidate: " + stale.size() + " of " + cached.size() + " tiles");
+    }
+}
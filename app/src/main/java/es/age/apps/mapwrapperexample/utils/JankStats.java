@@ -0,0 +1,221 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Aggregated statistics of slow frames and the wrapper operations that ran during them, fed
+ * by a {@link FrameMonitor}.
+ * <p>
+ * A frame is slow when it took longer than one and a half frame intervals. Every slow frame is
+ * counted against each operation that ran during it, and its time over budget is charged to the
+ * operation that ran the longest. The last slow frames are kept in a ring buffer. Can be read
+ * from any thread.
+ */
+public class JankStats {
+
+    public static final int OP_MARKER_BATCH = 0;
+    public static final int OP_OVERLAY_UPDATE = 1;
+    public static final int OP_CAMERA_MOVE = 2;
+    public static final int OP_LOCATION_CALLBACK = 3;
+    public static final int OPERATION_COUNT = 4;
+
+    /**
+     * No timed operation ran during the frame.
+     */
+    public static final int OP_NONE = -1;
+
+    public static final long DEFAULT_FRAME_NANOS = 16666667L;
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private static final String[] OPERATION_NAMES =
+            {"markerBatch", "overlayUpdate", "cameraMove", "locationCallback"};
+
+    private final long frameNanos;
+    private final long slowFrameNanos;
+
+    // Ring buffer of the last slow frames
+    private final long[] slowTimes;
+    private final long[] slowDurations;
+    private final int[] slowOperations;
+    private final int[] slowDominant;
+    private int next;
+    private int stored;
+
+    private long frameCount;
+    private long slowFrameCount;
+    private long droppedFrameCount;
+    private final long[] operationSlowFrames = new long[OPERATION_COUNT];
+    private final long[] operationJankNanos = new long[OPERATION_COUNT];
+    private long unattributedJankNanos;
+
+    public JankStats() {
+        this(DEFAULT_FRAME_NANOS, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param frameNanos expected interval between frames
+     * @param capacity   number of slow frames kept
+     */
+    public JankStats(long frameNanos, int capacity) {
+        this.frameNanos = frameNanos;
+        slowFrameNanos = frameNanos * 3 / 2;
+        slowTimes = new long[capacity];
+        slowDurations = new long[capacity];
+        slowOperations = new int[capacity];
+        slowDominant = new int[capacity];
+    }
+
+    public static String operationName(int operation) {
+        return operation >= 0 && operation < OPERATION_COUNT ? OPERATION_NAMES[operation] : "none";
+    }
+
+    /**
+     * Adds a frame.
+     *
+     * @param operations bit {@code 1 << op} is set for every operation that ran in the frame
+     * @param dominant   operation that ran the longest, or {@link #OP_NONE}
+     */
+    public synchronized void onFrame(long timeNanos, long durationNanos, int operations,
+                                     int dominant) {
+        frameCount++;
+        if (durationNanos <= slowFrameNanos) {
+            return;
+        }
+        slowFrameCount++;
+        // Rounded to the nearest number of vsyncs
+        droppedFrameCount += (durationNanos + frameNanos / 2) / frameNanos - 1;
+        for (int op = 0; op < OPERATION_COUNT; op++) {
+            if ((operations & (1 << op)) != 0) {
+                operationSlowFrames[op]++;
+            }
+        }
+        long jank = durationNanos - frameNanos;
+        if (dominant >= 0 && dominant < OPERATION_COUNT) {
+            operationJankNanos[dominant] += jank;
+        } else {
+            unattributedJankNanos += jank;
+        }
+
+        slowTimes[next] = timeNanos;
+        slowDurations[next] = durationNanos;
+        slowOperations[next] = operations;
+        slowDominant[next] = dominant;
+        next = (next + 1) % slowTimes.length;
+        stored = Math.min(stored + 1, slowTimes.length);
+    }
+
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    public synchronized long getSlowFrameCount() {
+        return slowFrameCount;
+    }
+
+    /**
+     * Vsyncs missed by the slow frames.
+     */
+    public synchronized long getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    /**
+     * Slow frames during which the operation ran.
+     */
+    public synchronized long getSlowFrameCount(int operation) {
+        return operationSlowFrames[operation];
+    }
+
+    /**
+     * Time over budget of the slow frames in which the operation ran the longest.
+     */
+    public synchronized long getJankNanos(int operation) {
+        return operation == OP_NONE ? unattributedJankNanos : operationJankNanos[operation];
+    }
+
+    /**
+     * Operation charged with the most time over budget, or {@link #OP_NONE}.
+     */
+    public synchronized int getWorstOperation() {
+        int worst = OP_NONE;
+        long most = 0;
+        for (int op = 0; op < OPERATION_COUNT; op++) {
+            if (operationJankNanos[op] > most) {
+                most = operationJankNanos[op];
+                worst = op;
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * The slow frames kept, oldest first.
+     */
+    public synchronized List<SlowFrame> getSlowFrames() {
+        List<SlowFrame> frames = new ArrayList<>(stored);
+        int start = (next - stored + slowTimes.length) % slowTimes.length;
+        for (int i = 0; i < stored; i++) {
+            int index = (start + i) % slowTimes.length;
+            frames.add(new SlowFrame(slowTimes[index], slowDurations[index],
+                    slowOperations[index], slowDominant[index]));
+        }
+        return frames;
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        stored = 0;
+        frameCount = 0;
+        slowFrameCount = 0;
+        droppedFrameCount = 0;
+        unattributedJankNanos = 0;
+        for (int op = 0; op < OPERATION_COUNT; op++) {
+            operationSlowFrames[op] = 0;
+            operationJankNanos[op] = 0;
+        }
+    }
+
+    /**
+     * A slow frame, as returned by {@link #getSlowFrames}.
+     */
+    public static final class SlowFrame {
+        public final long timeNanos;
+        public final long durationNanos;
+        public final int operations;
+        public final int dominantOperation;
+
+        SlowFrame(long timeNanos, long durationNanos, int operations, int dominantOperation) {
+            this.timeNanos = timeNanos;
+            this.durationNanos = durationNanos;
+            this.operations = operations;
+            this.dominantOperation = dominantOperation;
+        }
+
+        public boolean hasOperation(int operation) {
+            return (operations & (1 << operation)) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "SlowFrame[%.1fms, %s, ops=%s]",
+                    durationNanos / 1e6, operationName(dominantOperation),
+                    Integer.toBinaryString(operations));
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("JankStats[frames=").append(frameCount)
+                .append(", slow=").append(slowFrameCount)
+                .append(", dropped=").append(droppedFrameCount);
+        for (int op = 0; op < OPERATION_COUNT; op++) {
+            builder.append(", ").append(OPERATION_NAMES[op]).append('=')
+                    .append(operationSlowFrames[op]).append('/')
+                    .append(operationJankNanos[op] / 1000000).append("ms");
+        }
+        return builder.append(", none=").append(unattributedJankNanos / 1000000).append("ms]")
+                .toString();
+    }
+}
@@ -0,0 +1,88 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Location;
+
+/**
+ * Persists the last good fix, so a map can open on it before the location client connects.
+ * <p>
+ * The fix is kept in {@link SharedPreferences} with its time and accuracy. Saving is throttled:
+ * a new fix is only written when it is more accurate than the saved one, or far enough or long
+ * enough after it, and the write is asynchronous.
+ */
+public class LastLocationCache {
+
+    private static final String PREFERENCES = "last_location";
+    private static final String KEY_LATITUDE = "latitude";
+    private static final String KEY_LONGITUDE = "longitude";
+    private static final String KEY_TIME = "time";
+    private static final String KEY_ACCURACY = "accuracy";
+
+    public static final String PROVIDER = "cache";
+
+    // Fixes less accurate than this are never saved
+    private static final float MAX_ACCURACY_M = 200;
+    private static final long MIN_SAVE_INTERVAL_MS = 60 * 1000;
+    private static final double MIN_SAVE_DISTANCE_M = 100;
+
+    private final SharedPreferences preferences;
+    private Location saved;
+
+    public LastLocationCache(Context context) {
+        preferences = context.getApplicationContext()
+                .getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the saved fix, or null if none was saved yet.
+     */
+    public Location get() {
+        if (saved == null && preferences.contains(KEY_LATITUDE)) {
+            Location location = new Location(PROVIDER);
+            location.setLatitude(Double.longBitsToDouble(preferences.getLong(KEY_LATITUDE, 0)));
+            location.setLongitude(Double.longBitsToDouble(preferences.getLong(KEY_LONGITUDE, 0)));
+            location.setTime(preferences.getLong(KEY_TIME, 0));
+            location.setAccuracy(preferences.getFloat(KEY_ACCURACY, 0));
+            saved = location;
+        }
+        return saved;
+    }
+
+    /**
+     * Saves the fix if it is good enough and different enough from the saved one. Returns
+     * whether it was saved.
+     */
+    public boolean save(Location location) {
+        if (location == null || !location.hasAccuracy()
+                || location.getAccuracy() > MAX_ACCURACY_M) {
+            return false;
+        }
+        Location current = get();
+        if (current != null) {
+            if (location.getTime() <= current.getTime()) {
+                return false;
+            }
+            boolean moreAccurate = location.getAccuracy() < current.getAccuracy();
+            boolean later = location.getTime() - current.getTime() >= MIN_SAVE_INTERVAL_MS;
+            boolean farther = GeoUtils.distance(current.getLatitude(), current.getLongitude(),
+                    location.getLatitude(), location.getLongitude()) >= MIN_SAVE_DISTANCE_M;
+            if (!moreAccurate && !later && !farther) {
+                return false;
+            }
+        }
+        saved = new Location(location);
+        preferences.edit()
+                .putLong(KEY_LATITUDE, Double.doubleToRawLongBits(location.getLatitude()))
+                .putLong(KEY_LONGITUDE, Double.doubleToRawLongBits(location.getLongitude()))
+                .putLong(KEY_TIME, location.getTime())
+                .putFloat(KEY_ACCURACY, location.getAccuracy())
+                .apply();
+        return true;
+    }
+
+    public void clear() {
+        saved = null;
+        preferences.edit().clear().apply();
+    }
+}
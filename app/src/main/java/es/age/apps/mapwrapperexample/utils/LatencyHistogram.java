@@ -0,0 +1,146 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations that can be recorded from any thread without locking or allocating.
+ * <p>
+ * Durations are counted in log linear buckets of microseconds: every power of two is split
+ * into {@link #SUB_BUCKETS} equal buckets, so percentiles are within 12.5% of the recorded
+ * values from 1 microsecond up to about 19 hours. Recording is a few atomic increments.
+ * Read the values with {@link #snapshot}.
+ */
+public class LatencyHistogram {
+
+    public static final int SUB_BUCKETS = 8;
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int MAX_EXPONENT = 36;
+    private static final long MAX_MICROS = (1L << (MAX_EXPONENT + 1)) - 1;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a duration in nanoseconds, negative durations are ignored.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        buckets.incrementAndGet(bucketOf(nanos / 1000));
+        sumNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = maxNanos.get();
+        } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+    }
+
+    /**
+     * Records the time elapsed since a {@link System#nanoTime} value.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Copies the current values. With {@code reset}, the values are cleared as they are copied,
+     * so every recorded duration goes to exactly one snapshot.
+     */
+    public Snapshot snapshot(boolean reset) {
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = reset ? buckets.getAndSet(i, 0) : buckets.get(i);
+            count += counts[i];
+        }
+        long sum = reset ? sumNanos.getAndSet(0) : sumNanos.get();
+        long max = reset ? maxNanos.getAndSet(0) : maxNanos.get();
+        return new Snapshot(counts, count, sum, max);
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        long value = Math.min(micros, MAX_MICROS);
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Largest value in microseconds that falls into the bucket
+    static long bucketUpperMicros(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + sub) * width + width - 1;
+    }
+
+    /**
+     * Values of a histogram at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sumNanos;
+        private final long maxNanos;
+
+        Snapshot(long[] counts, long count, long sumNanos, long maxNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.sumNanos = sumNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSumNanos() {
+            return sumNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0 : sumNanos / count;
+        }
+
+        /**
+         * Duration below which the given fraction of the values are, 0 when empty.
+         */
+        public long getPercentileNanos(double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // The bucket bound may be above the largest value recorded
+                    return Math.min(maxNanos, bucketUpperMicros(i) * 1000 + 999);
+                }
+            }
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "count=%d, mean=%.2fms, p50=%.2fms, p90=%.2fms, "
+                            + "p99=%.2fms, max=%.2fms", count, getMeanNanos() / 1e6,
+                    getPercentileNanos(0.5) / 1e6, getPercentileNanos(0.9) / 1e6,
+                    getPercentileNanos(0.99) / 1e6, maxNanos / 1e6);
+        }
+    }
+}
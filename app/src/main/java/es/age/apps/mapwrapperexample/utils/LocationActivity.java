@@ -3,22 +3,26 @@ package es.age.apps.mapwrapperexample.utils;
 import android.Manifest;
 import android.app.Activity;
 import android.content.Intent;
-import android.content.pm.PackageManager;
 import android.location.Location;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.location.LocationServices;
-import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.TileOverlay;
+import com.google.android.gms.maps.model.TileOverlayOptions;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 /**
@@ -29,21 +33,113 @@ public abstract class LocationActivity extends AppCompatActivity implements Goog
 
     private static final int LOCATION_PERMISSION_REQUEST_CODE = 1;
 
+    // Shared by every map screen, like its caches
+    private static ReverseGeocoder reverseGeocoder;
+
     private String TAG = "LocationActivity";
 
     private GoogleApiClient mGoogleApiClient;
     private boolean mPermissionDenied = false;
+    private boolean mPermissionRequested = false;
+    private boolean myLocationEnabled = false;
+
+    private final StartupTrace startupTrace = new StartupTrace();
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
 
     private OnGoogleAPIConnectedListener onGoogleAPIConnectedListener;
 
     private GoogleMap googleMap;
+    private MapCameraDispatcher cameraDispatcher;
+    private CameraScheduler cameraScheduler;
+    private ViewportMarkerRenderer markerRenderer;
+    private MarkerMotionEngine markerMotionEngine;
+    private TrackPolyline trackPolyline;
 
     private Location currentLocation;
+    private LastLocationCache lastLocationCache;
+    // Whether the camera has been moved to a fresh fix, not only to the cached one
+    private boolean locationDisplayed = false;
+    // Whether the map opened on the camera of the previous map screen
+    private boolean cameraRestored = false;
+
+    private DeviceStateMonitor deviceState;
+    private final DeviceStateMonitor.OnDeviceStateChangedListener deviceStateListener =
+            new DeviceStateMonitor.OnDeviceStateChangedListener() {
+                @Override
+                public void onDeviceStateChanged(DeviceStateMonitor state, int changed) {
+                    Log.d(TAG, "onDeviceStateChanged: " + state);
+                    // Also when the user turns it on from the settings screen or dialog
+                    if ((changed & DeviceStateMonitor.CHANGED_GPS) != 0 && state.isGpsEnabled()
+                            && !myLocationEnabled) {
+                        enableMyLocation();
+                    }
+                }
+            };
+
+    private SharedLocationClient sharedClient;
+    private boolean clientAcquired = false;
+    private LocationUpdateEngine locationEngine;
+    // Engine this screen takes its fixes from: the shared one, or a private one while a trace
+    // is replayed, so the replay never pauses or mixes with the live fixes of other screens
+    private LocationUpdateEngine fixEngine;
+    private final CopyOnWriteArrayList<LocationUpdateEngine.OnLocationUpdateListener>
+            locationListeners = new CopyOnWriteArrayList<>();
+
+    // Registered on the shared engine while the activity uses the client
+    private final LocationUpdateEngine.OnLocationUpdateListener engineListener =
+            new LocationUpdateEngine.OnLocationUpdateListener() {
+                @Override
+                public void onLocationUpdate(Location location) {
+                    recordPhase(StartupTrace.PHASE_FIRST_FIX, MetricsRegistry.LATENCY_FIRST_FIX);
+                    currentLocation = location;
+                    lastLocationCache.save(location);
+                    if (!locationDisplayed && googleMap != null) {
+                        // getLastLocation had nothing, the camera is still on the cached fix
+                        locationDisplayed = true;
+                        cameraScheduler.animateTo(cameraPositionOf(location),
+                                CameraScheduler.PRIORITY_FOLLOW);
+                    }
+                    for (LocationUpdateEngine.OnLocationUpdateListener listener
+                            : locationListeners) {
+                        listener.onLocationUpdate(location);
+                    }
+                }
+            };
+
+    private TrackRecorder trackRecorder;
+    private final LocationUpdateEngine.OnLocationUpdateListener trackListener =
+            new LocationUpdateEngine.OnLocationUpdateListener() {
+                @Override
+                public void onLocationUpdate(Location location) {
+                    trackRecorder.append(location.getLatitude(), location.getLongitude(),
+                            location.getTime());
+                }
+            };
+
+    private GeofenceEngine geofenceEngine;
+    private final LocationUpdateEngine.OnLocationUpdateListener geofenceListener =
+            new LocationUpdateEngine.OnLocationUpdateListener() {
+                @Override
+                public void onLocationUpdate(Location location) {
+                    geofenceEngine.process(location.getLatitude(), location.getLongitude(),
+                            location.getTime());
+                }
+            };
+
+    private ReplayLocationSource replaySource;
+    private FrameMonitor frameMonitor;
+    private MapHost mapHost;
+    private int mapOpenState;
+    private boolean started = false;
 
     private double defaultLatitude = 0;
     private double defaultLongitude = 0;
 
     private boolean gpsNeeded = false;
+    private boolean offlineCapable = false;
+    private final List<OfflineTileProvider> offlineTileProviders = new ArrayList<>();
+    // Cancelled in onDestroy, so no marker is added to the map of a destroyed screen
+    private final List<MarkerBatch<?>> markerBatches = new ArrayList<>();
 
     // OnConnected Interface
     public interface OnGoogleAPIConnectedListener {
@@ -53,12 +149,52 @@ public abstract class LocationActivity extends AppCompatActivity implements Goog
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-
-        if (LocationUtils.checkPlayServices(this)) {
-            LocationUtils.checkNetworkConnection(this);
-            buildGoogleApiClient();
+        // Ends in onLocationMapReady, subclasses inflate the map after this method returns
+        startupTrace.begin(StartupTrace.PHASE_MAP);
+        startupTrace.begin(StartupTrace.PHASE_FIRST_FIX);
+
+        lastLocationCache = new LastLocationCache(this);
+        deviceState = DeviceStateMonitor.getInstance(this);
+        sharedClient = SharedLocationClient.getInstance(this);
+        locationEngine = sharedClient.getLocationEngine();
+        fixEngine = locationEngine;
+        // The engine outlives the activities, start from the fix the previous screen had
+        currentLocation = locationEngine.getLastLocation();
+
+        // The startup phases do not depend on each other, so they overlap: the client connects
+        // while the checks run and the subclass inflates the map
+        buildGoogleApiClient();
+        startupTrace.begin(StartupTrace.PHASE_API_CONNECT);
+        acquireClient();
+
+        startupTrace.begin(StartupTrace.PHASE_PLAY_SERVICES);
+        boolean playServicesAvailable = LocationUtils.checkPlayServices(this);
+        recordPhase(StartupTrace.PHASE_PLAY_SERVICES, MetricsRegistry.LATENCY_PLAY_SERVICES_CHECK);
+        if (playServicesAvailable) {
+            checkNetworkConnection();
+            // Ask for the permission now instead of waiting for the map
+            startupTrace.begin(StartupTrace.PHASE_PERMISSION);
+            enableMyLocation();
         }
+    }
 
+    /**
+     * Timestamps of the startup phases of this screen.
+     */
+    public StartupTrace getStartupTrace() {
+        return startupTrace;
+    }
+
+    /**
+     * Ends a startup phase and records its duration the first time it ends, returns the
+     * duration or -1
+     */
+    private long recordPhase(String phase, String metric) {
+        long nanos = startupTrace.end(phase);
+        if (nanos >= 0) {
+            metrics.histogram(metric).record(nanos);
+        }
+        return nanos;
     }
 
 
@@ -68,9 +204,322 @@ public abstract class LocationActivity extends AppCompatActivity implements Goog
 
     public void onLocationMapReady(GoogleMap mapInActivity) {
         googleMap = mapInActivity;
+        long mapReadyNanos = recordPhase(StartupTrace.PHASE_MAP, MetricsRegistry.LATENCY_MAP_READY);
+        if (mapHost != null) {
+            mapHost.recordOpen(mapOpenState, mapReadyNanos);
+        }
+        startupTrace.begin(StartupTrace.PHASE_FIRST_CAMERA);
+        cameraDispatcher = new MapCameraDispatcher(googleMap);
+        cameraDispatcher.addOnCameraIdleListener(new GoogleMap.OnCameraIdleListener() {
+            @Override
+            public void onCameraIdle() {
+                cameraDispatcher.removeOnCameraIdleListener(this);
+                startupTrace.end(StartupTrace.PHASE_FIRST_CAMERA);
+                Log.d(TAG, "onCameraIdle: " + startupTrace);
+            }
+        });
+        // Every camera move of the wrapper and the subclasses goes through the scheduler, the
+        // ones of the first frame are merged into one
+        cameraScheduler = new CameraScheduler(cameraDispatcher);
+        markerRenderer = new ViewportMarkerRenderer(cameraDispatcher);
+        markerMotionEngine = new MarkerMotionEngine(cameraDispatcher);
+        Location cached = lastLocationCache.get();
+        if (cached != null && currentLocation == null) {
+            currentLocation = cached;
+        }
+        CameraPosition hostCamera = mapHost != null ? mapHost.getCameraPosition() : null;
+        cameraRestored = hostCamera != null;
+        if (hostCamera != null) {
+            // Open where the previous map screen was left
+            cameraScheduler.moveTo(hostCamera, CameraScheduler.PRIORITY_RESTORE);
+        } else if (cached != null) {
+            // Open on the last known fix right away, refined once a fresh fix arrives
+            cameraScheduler.moveTo(cameraPositionOf(cached), CameraScheduler.PRIORITY_RESTORE);
+        }
+        if (mapHost != null && started) {
+            mapHost.attach(this, googleMap, cameraDispatcher);
+        }
         enableMyLocation();
     }
 
+    /**
+     * Camera events of the map, null until onLocationMapReady is called.
+     */
+    public MapCameraDispatcher getCameraDispatcher() {
+        return cameraDispatcher;
+    }
+
+    /**
+     * Moves the camera, null until onLocationMapReady is called. Use it instead of moving the
+     * camera of the map directly, so the moves of the wrapper and the app do not cancel each
+     * other.
+     */
+    public CameraScheduler getCameraScheduler() {
+        return cameraScheduler;
+    }
+
+    /**
+     * Whether onLocationMapReady moved the camera to where the previous map screen was left,
+     * see {@link #setMapHostEnabled}. Subclasses skip their own initial camera move then, it
+     * would win over the restored camera.
+     */
+    public boolean isCameraRestored() {
+        return cameraRestored;
+    }
+
+    /**
+     * Renderer that only draws the markers around the visible region, null until
+     * onLocationMapReady is called.
+     */
+    public ViewportMarkerRenderer getMarkerRenderer() {
+        return markerRenderer;
+    }
+
+    /**
+     * Moves live markers smoothly from one frame callback, null until onLocationMapReady is
+     * called.
+     */
+    public MarkerMotionEngine getMarkerMotionEngine() {
+        return markerMotionEngine;
+    }
+
+
+    /**
+     * Adds a marker for every item without blocking the main thread, see {@link MarkerBatch}.
+     * Returns null if the map is not ready yet. Batches still running when the activity is
+     * destroyed are cancelled.
+     */
+    public <T> MarkerBatch<T> addMarkers(List<T> items, MarkerBatch.OptionsFactory<T> factory,
+                                         MarkerBatch.Listener listener) {
+        if (googleMap == null) {
+            Log.d(TAG, "addMarkers: map not ready");
+            return null;
+        }
+        for (int i = markerBatches.size() - 1; i >= 0; i--) {
+            if (markerBatches.get(i).isDone()) {
+                markerBatches.remove(i);
+            }
+        }
+        MarkerBatch<T> batch = MarkerBatch.start(googleMap, items, factory, listener);
+        markerBatches.add(batch);
+        return batch;
+    }
+
+    /**
+     * Listen to the location updates streamed while the activity is started.
+     */
+    public void addOnLocationUpdateListener(LocationUpdateEngine.OnLocationUpdateListener listener) {
+        locationListeners.addIfAbsent(listener);
+    }
+
+    public void removeOnLocationUpdateListener(LocationUpdateEngine.OnLocationUpdateListener listener) {
+        locationListeners.remove(listener);
+    }
+
+    /**
+     * Records every location update into segment files in the given directory, see
+     * {@link TrackRecorder}. Read them back with {@link TrackReader}.
+     */
+    public void startTrackRecording(File directory) {
+        stopTrackRecording();
+        trackRecorder = new TrackRecorder(directory);
+        trackRecorder.start();
+        locationListeners.addIfAbsent(trackListener);
+    }
+
+    public void stopTrackRecording() {
+        if (trackRecorder == null) {
+            return;
+        }
+        locationListeners.remove(trackListener);
+        final TrackRecorder recorder = trackRecorder;
+        trackRecorder = null;
+        // Closing waits for the writer thread, keep it off the main thread
+        MapExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    recorder.close();
+                } catch (InterruptedException e) {
+                    Log.d(TAG, "stopTrackRecording: interrupted");
+                }
+                Log.d(TAG, "stopTrackRecording: " + recorder.getRecordedCount() + " fixes, "
+                        + recorder.getDroppedCount() + " dropped, error " + recorder.getError());
+            }
+        });
+    }
+
+    /**
+     * Draws the track recorded in the given directory, simplified for the zoom of the camera.
+     * Returns null if the map is not ready yet.
+     */
+    public TrackPolyline showTrack(File directory) {
+        if (googleMap == null) {
+            Log.d(TAG, "showTrack: map not ready");
+            return null;
+        }
+        if (trackPolyline == null) {
+            trackPolyline = new TrackPolyline(this, cameraDispatcher);
+        }
+        trackPolyline.loadTrack(directory);
+        return trackPolyline;
+    }
+
+    /**
+     * Geofences evaluated on every location update, see {@link GeofenceEngine}. Created on the
+     * first call.
+     */
+    public GeofenceEngine getGeofenceEngine() {
+        if (geofenceEngine == null) {
+            geofenceEngine = new GeofenceEngine();
+            locationListeners.addIfAbsent(geofenceListener);
+        }
+        return geofenceEngine;
+    }
+
+    /**
+     * Draws the tiles of a {@link TilePack} over the map, served without network. When
+     * replacing the base map, only the tiles of the pack are shown. Returns null if the map is
+     * not ready yet.
+     */
+    public TileOverlay addOfflineTiles(File packFile, boolean replaceBaseMap) {
+        if (googleMap == null) {
+            Log.d(TAG, "addOfflineTiles: map not ready");
+            return null;
+        }
+        if (replaceBaseMap) {
+            googleMap.setMapType(GoogleMap.MAP_TYPE_NONE);
+        }
+        OfflineTileProvider provider = new OfflineTileProvider(packFile);
+        offlineTileProviders.add(provider);
+        return googleMap.addTileOverlay(new TileOverlayOptions().tileProvider(provider));
+    }
+
+    /**
+     * Adds an empty heatmap layer to the map, fill it with
+     * {@link HeatmapTileProvider#addPoints}. Returns null if the map is not ready yet.
+     */
+    public HeatmapTileProvider addHeatmap() {
+        if (googleMap == null) {
+            Log.d(TAG, "addHeatmap: map not ready");
+            return null;
+        }
+        HeatmapTileProvider heatmap = new HeatmapTileProvider();
+        heatmap.addTo(googleMap);
+        return heatmap;
+    }
+
+    /**
+     * Replays a recorded trace through the location pipeline in place of the live fixes, see
+     * {@link TraceReplayer}. The filter, the geofences, the track and every listener get the
+     * replayed fixes. Live updates resume once the trace ends or {@link #stopReplay} is called.
+     * The replay goes through an engine of its own: other screens sharing the location client
+     * keep their live fixes, and this one does not get them until the replay is over.
+     */
+    public void startReplay(LocationTrace trace, double speedUp, int burstSize) {
+        stopReplay();
+        LocationUpdateEngine replayEngine = new LocationUpdateEngine(this);
+        replayEngine.setLocationFilter(new LocationFilter());
+        setFixEngine(replayEngine);
+        final ReplayLocationSource source = new ReplayLocationSource(replayEngine);
+        replaySource = source;
+        source.start(trace, speedUp, burstSize,
+                new ReplayLocationSource.OnReplayFinishedListener() {
+                    @Override
+                    public void onReplayFinished(TraceReplayer.Report report) {
+                        Log.d(TAG, "onReplayFinished: " + report);
+                        if (replaySource == source) {
+                            replaySource = null;
+                            setFixEngine(locationEngine);
+                        }
+                    }
+                });
+    }
+
+    public void stopReplay() {
+        if (replaySource != null) {
+            replaySource.stop();
+        }
+    }
+
+    private void setFixEngine(LocationUpdateEngine engine) {
+        if (clientAcquired) {
+            fixEngine.removeOnLocationUpdateListener(engineListener);
+            engine.addOnLocationUpdateListener(engineListener);
+        }
+        fixEngine = engine;
+    }
+
+    /**
+     * Set in onCreate to measure the frames of the screen while it is visible and tag the slow
+     * ones with the wrapper operation running at the time, see {@link FrameMonitor}.
+     */
+    public void setFrameMonitorEnabled(boolean enabled) {
+        if (enabled && frameMonitor == null) {
+            frameMonitor = new FrameMonitor();
+        } else if (!enabled && frameMonitor != null) {
+            frameMonitor.stop();
+            frameMonitor = null;
+        }
+    }
+
+    /**
+     * Addresses of positions, cached by cell on memory and disk, see {@link ReverseGeocoder}.
+     * Listeners are called on the main thread.
+     */
+    public ReverseGeocoder getReverseGeocoder() {
+        if (reverseGeocoder == null) {
+            reverseGeocoder = new ReverseGeocoder(new GeocoderBackend(this),
+                    new File(getCacheDir(), "geocoder"), MapExecutors.mainThread());
+        }
+        return reverseGeocoder;
+    }
+
+    /**
+     * Set in onCreate to keep the map state of the screen in the process wide {@link MapHost}:
+     * the map opens where the previous map screen was left, with the layers kept in the host,
+     * and the open time is recorded as cold, prewarmed or warm.
+     */
+    public void setMapHostEnabled(boolean enabled) {
+        if (enabled && mapHost == null) {
+            mapHost = MapHost.getInstance();
+            mapOpenState = mapHost.getOpenState();
+        } else if (!enabled && mapHost != null) {
+            mapHost.detach(this);
+            mapHost = null;
+        }
+    }
+
+    /**
+     * Host of the layers kept between map screens, null unless enabled. Look a layer up before
+     * building it again:
+     * <pre>
+     * HeatmapTileProvider heatmap = (HeatmapTileProvider) host.getLayer("heatmap");
+     * if (heatmap == null) {
+     *     heatmap = new HeatmapTileProvider();
+     *     heatmap.addPoints(latitudes, longitudes, size);
+     *     host.putLayer("heatmap", heatmap);
+     * }
+     * </pre>
+     */
+    public MapHost getMapHost() {
+        return mapHost;
+    }
+
+    /**
+     * Jank statistics of the screen, null unless the frame monitor is enabled.
+     */
+    public JankStats getJankStats() {
+        return frameMonitor == null ? null : frameMonitor.getStats();
+    }
+
+    /**
+     * Set in onCreate when the screen works without network, for example with offline tiles,
+     * so no network error is shown at startup.
+     */
+    public void setOfflineCapable(boolean offlineCapable) {
+        this.offlineCapable = offlineCapable;
+    }
 
     public void setDefaultLocation(double latitude, double longitude) {
         defaultLatitude = latitude;
@@ -81,23 +530,40 @@ public abstract class LocationActivity extends AppCompatActivity implements Goog
         this.gpsNeeded = gpsNeeded;
     }
 
+    /**
+     * Network, GPS and permission state, cached while the activity is started.
+     */
+    public DeviceStateMonitor getDeviceState() {
+        return deviceState;
+    }
+
     /**
      * Enables the My Location layer if the fine location permission has been granted.
      */
     public void enableMyLocation() {
         Log.d(TAG, "enableMyLocation: googleMap");
+        if (myLocationEnabled) {
+            return;
+        }
 
-        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
-                != PackageManager.PERMISSION_GRANTED) {
-            // Permission to access the location is missing.
-            PermissionUtils.requestPermission(this, LOCATION_PERMISSION_REQUEST_CODE,
-                    Manifest.permission.ACCESS_FINE_LOCATION, true);
-        } else if (googleMap != null) {
+        if (!deviceState.isLocationPermissionGranted()) {
+            // Permission to access the location is missing, unless it is being asked already.
+            if (!mPermissionRequested) {
+                mPermissionRequested = true;
+                PermissionUtils.requestPermission(this, LOCATION_PERMISSION_REQUEST_CODE,
+                        Manifest.permission.ACCESS_FINE_LOCATION, true);
+            }
+            return;
+        }
+        startupTrace.end(StartupTrace.PHASE_PERMISSION);
+        if (googleMap != null) {
             // Access to the location has been granted to the app.
 
             // Check if location is enabled
-            if (LocationUtils.isGPSConnected(LocationActivity.this)) {
+            if (deviceState.isGpsEnabled()) {
+                myLocationEnabled = true;
                 googleMap.setMyLocationEnabled(true);
+                startLocationUpdates();
                 displayLocation();
             } else {
                 // Show request GPS enabled
@@ -113,6 +579,8 @@ public abstract class LocationActivity extends AppCompatActivity implements Goog
         if (requestCode != LOCATION_PERMISSION_REQUEST_CODE) {
             return;
         }
+        mPermissionRequested = false;
+        deviceState.refreshLocationPermission();
 
         if (PermissionUtils.isPermissionGranted(permissions, grantResults,
                 Manifest.permission.ACCESS_FINE_LOCATION)) {
@@ -120,6 +588,7 @@ public abstract class LocationActivity extends AppCompatActivity implements Goog
             enableMyLocation();
         } else {
             // Display the missing permission error dialog when the fragments resume.
+            startupTrace.end(StartupTrace.PHASE_PERMISSION);
             mPermissionDenied = true;
         }
     }
@@ -144,31 +613,54 @@ public abstract class LocationActivity extends AppCompatActivity implements Goog
 
 
     /**
-     * Creating google api client object
+     * Getting the google api client object, shared by every LocationActivity
      */
     protected synchronized void buildGoogleApiClient() {
         Log.d(TAG, "buildGoogleApiClient: ");
-        // Create an instance of GoogleAPIClient.
-        mGoogleApiClient = new GoogleApiClient.Builder(this)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .addApi(LocationServices.API).build();
+        mGoogleApiClient = sharedClient.getClient();
+    }
+
+    /**
+     * Becomes a user of the shared client and starts getting its fixes
+     */
+    private void acquireClient() {
+        if (!clientAcquired) {
+            clientAcquired = true;
+            deviceState.addOnDeviceStateChangedListener(deviceStateListener);
+            deviceState.acquire();
+            sharedClient.acquire(this, this);
+            fixEngine.addOnLocationUpdateListener(engineListener);
+        }
+    }
+
+    /**
+     * Stops getting fixes, the shared client disconnects once no activity uses it
+     */
+    private void releaseClient() {
+        if (clientAcquired) {
+            clientAcquired = false;
+            fixEngine.removeOnLocationUpdateListener(engineListener);
+            sharedClient.release(this, this);
+            deviceState.removeOnDeviceStateChangedListener(deviceStateListener);
+            deviceState.release();
+        }
     }
 
     @Override
     public void onConnected(@Nullable Bundle bundle) {
         Log.d(TAG, "onConnected: ");
+        recordPhase(StartupTrace.PHASE_API_CONNECT, MetricsRegistry.LATENCY_API_CONNECT);
         if (onGoogleAPIConnectedListener != null) {
             onGoogleAPIConnectedListener.onConnected();
         }
+        startLocationUpdates();
         displayLocation();
     }
 
     @Override
     public void onConnectionSuspended(int i) {
-        if (mGoogleApiClient != null) {
-            mGoogleApiClient.connect();
-        }
+        // The shared client reconnects by itself
+        Log.d(TAG, "onConnectionSuspended: " + i);
     }
 
     @Override
@@ -178,15 +670,98 @@ public abstract class LocationActivity extends AppCompatActivity implements Goog
 
 
     protected void onStart() {
-        mGoogleApiClient.connect();
+        // The first time the client is already acquired in onCreate
+        acquireClient();
+        if (frameMonitor != null) {
+            frameMonitor.start();
+        }
+        started = true;
+        if (mapHost != null && googleMap != null) {
+            // Back from another map screen, take the layers back
+            mapHost.attach(this, googleMap, cameraDispatcher);
+        }
         super.onStart();
     }
 
     protected void onStop() {
-        mGoogleApiClient.disconnect();
+        releaseClient();
+        if (frameMonitor != null) {
+            frameMonitor.stop();
+            Log.d(TAG, "onStop: " + frameMonitor);
+        }
+        started = false;
+        if (mapHost != null) {
+            mapHost.detach(this);
+            Log.d(TAG, "onStop: " + mapHost);
+        }
         super.onStop();
     }
 
+    @Override
+    protected void onDestroy() {
+        if (cameraScheduler != null) {
+            Log.d(TAG, "onDestroy: " + cameraScheduler);
+            cameraScheduler.destroy();
+        }
+        if (markerRenderer != null) {
+            markerRenderer.destroy();
+        }
+        for (MarkerBatch<?> batch : markerBatches) {
+            batch.cancel();
+        }
+        markerBatches.clear();
+        if (markerMotionEngine != null) {
+            Log.d(TAG, "onDestroy: " + markerMotionEngine);
+            markerMotionEngine.destroy();
+        }
+        if (trackPolyline != null) {
+            trackPolyline.destroy();
+        }
+        stopTrackRecording();
+        stopReplay();
+        // Live updates are not resumed for a destroyed activity
+        replaySource = null;
+        releaseClient();
+        for (OfflineTileProvider provider : offlineTileProviders) {
+            Log.d(TAG, "onDestroy: " + provider);
+            provider.close();
+        }
+        // The icon cache is shared by every map screen, its counters help sizing it
+        Log.d(TAG, "onDestroy: " + MarkerIconCache.getInstance(this));
+        Log.d(TAG, "onDestroy: " + metrics.snapshot(false));
+        super.onDestroy();
+    }
+
+
+    /**
+     * Shows the error dialog if there is no network, once the subclass had the chance to call
+     * setOfflineCapable. Posted to the main thread rather than run on the background pool: the
+     * connection state is a cached read from {@link DeviceStateMonitor}, so the post only waits
+     * for onCreate of the subclass to return
+     */
+    private void checkNetworkConnection() {
+        startupTrace.begin(StartupTrace.PHASE_NETWORK);
+        MapExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                startupTrace.end(StartupTrace.PHASE_NETWORK);
+                if (!deviceState.isNetworkConnected() && !offlineCapable && !isFinishing()) {
+                    LocationUtils.showErrorConectionDialog(LocationActivity.this);
+                }
+            }
+        });
+    }
+
+    /**
+     * Start streaming location updates once the client is connected and the permission granted
+     */
+    private void startLocationUpdates() {
+        if (mGoogleApiClient != null && mGoogleApiClient.isConnected()
+                && deviceState.isLocationPermissionGranted()) {
+            locationEngine.start(mGoogleApiClient);
+        }
+    }
+
 
     /**
      * Method to display the location on UI
@@ -198,27 +773,32 @@ public abstract class LocationActivity extends AppCompatActivity implements Goog
                     .getLastLocation(mGoogleApiClient);
 
 
+            // A cached or default location gives way to anything else
+            int priority = CameraScheduler.PRIORITY_RESTORE;
             if (lastLocation != null) {
                 currentLocation = lastLocation;
-            } else {
+                lastLocationCache.save(lastLocation);
+                locationDisplayed = true;
+                priority = CameraScheduler.PRIORITY_FOLLOW;
+            } else if (currentLocation == null) {
                 currentLocation = new Location("DefaultLocation");
                 currentLocation.setLatitude(defaultLatitude);
                 currentLocation.setLongitude(defaultLongitude);
             }
 
-            CameraPosition position = CameraPosition.builder()
-                    .target(new LatLng(currentLocation.getLatitude(),
-                            currentLocation.getLongitude()))
-                    .zoom(13f)
-                    .bearing(0.0f)
-                    .tilt(0.0f)
-                    .build();
-
-            googleMap.animateCamera(CameraUpdateFactory
-                    .newCameraPosition(position), null);
+            cameraScheduler.animateTo(cameraPositionOf(currentLocation), priority);
         }
     }
 
+    private CameraPosition cameraPositionOf(Location location) {
+        return CameraPosition.builder()
+                .target(new LatLng(location.getLatitude(), location.getLongitude()))
+                .zoom(13f)
+                .bearing(0.0f)
+                .tilt(0.0f)
+                .build();
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         switch (requestCode) {
@@ -227,7 +807,10 @@ public abstract class LocationActivity extends AppCompatActivity implements Goog
                 switch (resultCode) {
                     case Activity.RESULT_OK:
                         Log.i(TAG, "User agreed to make required location settings changes.");
-                        enableMyLocation();
+                        // Otherwise the provider broadcast enables it once it arrives
+                        if (deviceState.isGpsEnabled()) {
+                            enableMyLocation();
+                        }
                         break;
                     case Activity.RESULT_CANCELED:
                         Log.i(TAG, "User chose not to make required location settings changes.");
@@ -235,7 +818,7 @@ public abstract class LocationActivity extends AppCompatActivity implements Goog
                 }
                 break;
             case LocationUtils.REQUEST_GPS_SETTINGS:
-                if (LocationUtils.isGPSConnected(this)) {
+                if (deviceState.isGpsEnabled()) {
                     enableMyLocation();
                 }
         }
@@ -0,0 +1,263 @@
+package es.age.apps.mapwrapperexample.utils;
+
+/**
+ * Smooths location fixes with a constant velocity Kalman filter and drops the outliers.
+ * <p>
+ * A fix is rejected when its accuracy is too poor, when it goes back in time, when reaching it
+ * from the recent fixes needs an impossible speed, or when it falls far outside what the filter
+ * expects. After a few rejections in a row the filter restarts from the new fix, so a real jump
+ * (leaving a tunnel...) is not ignored forever.
+ * <p>
+ * State is kept in primitive fields and a ring buffer of the last accepted fixes, so
+ * {@link #process} does not allocate. Plain Java so it can be tested on the JVM. Not thread
+ * safe.
+ */
+public class LocationFilter {
+
+    public static final int RESULT_ACCEPTED = 0;
+    public static final int RESULT_REJECTED_ACCURACY = 1;
+    public static final int RESULT_REJECTED_TIME = 2;
+    public static final int RESULT_REJECTED_SPEED = 3;
+    public static final int RESULT_REJECTED_INNOVATION = 4;
+    /**
+     * Accepted, but too far from the previous state, so the filter restarted from this fix.
+     */
+    public static final int RESULT_RESET = 5;
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * GeoUtils.EARTH_RADIUS_M;
+
+    // Distance from the origin of the local frame after which it is moved
+    private static final double MAX_ORIGIN_DISTANCE_M = 50000;
+
+    private static final int HISTORY_SIZE = 8;
+
+    private static final int MAX_CONSECUTIVE_REJECTIONS = 5;
+
+    private final float maxAccuracyM;
+    private final float maxSpeedMs;
+    private final double accelerationNoise;
+    private final double gateSigmas;
+
+    private boolean initialized;
+    private int consecutiveRejections;
+
+    // Local frame in meters around an origin, x to the east and y to the north
+    private double originLat;
+    private double originLon;
+    private double metersPerDegreeLon;
+
+    // State and covariance, shared by both axes since fixes have a circular accuracy
+    private double x;
+    private double y;
+    private double vx;
+    private double vy;
+    private double p00;
+    private double p01;
+    private double p11;
+    private long timeMs;
+
+    // Ring buffer of the last accepted raw fixes
+    private final double[] historyX = new double[HISTORY_SIZE];
+    private final double[] historyY = new double[HISTORY_SIZE];
+    private final long[] historyTime = new long[HISTORY_SIZE];
+    private final float[] historyAccuracy = new float[HISTORY_SIZE];
+    private int historyStart;
+    private int historySize;
+
+    public LocationFilter() {
+        this(100, 70, 2, 4);
+    }
+
+    /**
+     * @param maxAccuracyM      fixes less accurate than this are dropped
+     * @param maxSpeedMs        fastest plausible speed between fixes
+     * @param accelerationNoise expected acceleration in m/s², how fast the filter follows turns
+     * @param gateSigmas        fixes further than this many standard deviations are outliers
+     */
+    public LocationFilter(float maxAccuracyM, float maxSpeedMs, double accelerationNoise,
+                          double gateSigmas) {
+        this.maxAccuracyM = maxAccuracyM;
+        this.maxSpeedMs = maxSpeedMs;
+        this.accelerationNoise = accelerationNoise;
+        this.gateSigmas = gateSigmas;
+    }
+
+    /**
+     * Feeds a fix to the filter.
+     *
+     * @param accuracy reported accuracy in meters, or 0 if unknown
+     * @return one of the RESULT_ constants
+     */
+    public int process(double latitude, double longitude, float accuracy, long fixTimeMs) {
+        float fixAccuracy = accuracy > 0 ? accuracy : maxAccuracyM / 2;
+        if (fixAccuracy > maxAccuracyM) {
+            return reject(RESULT_REJECTED_ACCURACY);
+        }
+        if (!initialized) {
+            reset(latitude, longitude, fixAccuracy, fixTimeMs);
+            return RESULT_ACCEPTED;
+        }
+        if (fixTimeMs <= timeMs) {
+            return reject(RESULT_REJECTED_TIME);
+        }
+        if (consecutiveRejections >= MAX_CONSECUTIVE_REJECTIONS) {
+            reset(latitude, longitude, fixAccuracy, fixTimeMs);
+            return RESULT_RESET;
+        }
+
+        double zx = (longitude - originLon) * metersPerDegreeLon;
+        double zy = (latitude - originLat) * METERS_PER_DEGREE;
+
+        // Speed needed to reach the fix from the last accepted one, giving both their accuracy
+        int last = (historyStart + historySize - 1) % HISTORY_SIZE;
+        double dx = zx - historyX[last];
+        double dy = zy - historyY[last];
+        double slack = fixAccuracy + historyAccuracy[last];
+        double distance = Math.sqrt(dx * dx + dy * dy) - slack;
+        if (distance > 0 && distance * 1000 / (fixTimeMs - historyTime[last]) > maxSpeedMs) {
+            return reject(RESULT_REJECTED_SPEED);
+        }
+
+        predict((fixTimeMs - timeMs) / 1000.0);
+
+        double r = (double) fixAccuracy * fixAccuracy;
+        double s = p00 + r;
+        double ix = zx - x;
+        double iy = zy - y;
+        if ((ix * ix + iy * iy) / s > gateSigmas * gateSigmas) {
+            return reject(RESULT_REJECTED_INNOVATION);
+        }
+
+        double k0 = p00 / s;
+        double k1 = p01 / s;
+        x += k0 * ix;
+        y += k0 * iy;
+        vx += k1 * ix;
+        vy += k1 * iy;
+        double n00 = (1 - k0) * p00;
+        double n01 = (1 - k0) * p01;
+        double n11 = p11 - k1 * p01;
+        p00 = n00;
+        p01 = n01;
+        p11 = n11;
+        timeMs = fixTimeMs;
+        consecutiveRejections = 0;
+        record(zx, zy, fixTimeMs, fixAccuracy);
+
+        if (x * x + y * y > MAX_ORIGIN_DISTANCE_M * MAX_ORIGIN_DISTANCE_M) {
+            moveOrigin();
+        }
+        return RESULT_ACCEPTED;
+    }
+
+    public static boolean isAccepted(int result) {
+        return result == RESULT_ACCEPTED || result == RESULT_RESET;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    public void clear() {
+        initialized = false;
+        consecutiveRejections = 0;
+        historySize = 0;
+    }
+
+    public double getLatitude() {
+        return originLat + y / METERS_PER_DEGREE;
+    }
+
+    public double getLongitude() {
+        return originLon + x / metersPerDegreeLon;
+    }
+
+    /**
+     * Estimated speed in m/s.
+     */
+    public float getSpeed() {
+        return (float) Math.sqrt(vx * vx + vy * vy);
+    }
+
+    /**
+     * Estimated standard deviation of the position in meters.
+     */
+    public float getAccuracy() {
+        return (float) Math.sqrt(p00);
+    }
+
+    public long getTime() {
+        return timeMs;
+    }
+
+    private void predict(double dt) {
+        double q = accelerationNoise * accelerationNoise;
+        double dt2 = dt * dt;
+        x += vx * dt;
+        y += vy * dt;
+        // P = F P F' + Q with F = [1 dt; 0 1] and Q from a random acceleration
+        p00 += 2 * dt * p01 + dt2 * p11 + q * dt2 * dt2 / 4;
+        p01 += dt * p11 + q * dt2 * dt / 2;
+        p11 += q * dt2;
+    }
+
+    private int reject(int result) {
+        if (initialized) {
+            consecutiveRejections++;
+        }
+        return result;
+    }
+
+    private void reset(double latitude, double longitude, float accuracy, long fixTimeMs) {
+        originLat = latitude;
+        originLon = longitude;
+        metersPerDegreeLon = METERS_PER_DEGREE * Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+        x = 0;
+        y = 0;
+        vx = 0;
+        vy = 0;
+        p00 = (double) accuracy * accuracy;
+        p01 = 0;
+        // Unknown speed, allow for a few m/s
+        p11 = 25;
+        timeMs = fixTimeMs;
+        initialized = true;
+        consecutiveRejections = 0;
+        historySize = 0;
+        record(0, 0, fixTimeMs, accuracy);
+    }
+
+    private void moveOrigin() {
+        double latitude = getLatitude();
+        double longitude = getLongitude();
+        double oldMetersPerDegreeLon = metersPerDegreeLon;
+        double shiftX = x;
+        double shiftY = y;
+        originLat = latitude;
+        originLon = longitude;
+        metersPerDegreeLon = METERS_PER_DEGREE * Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+        x = 0;
+        y = 0;
+        double scale = metersPerDegreeLon / oldMetersPerDegreeLon;
+        for (int i = 0; i < historySize; i++) {
+            int index = (historyStart + i) % HISTORY_SIZE;
+            historyX[index] = (historyX[index] - shiftX) * scale;
+            historyY[index] -= shiftY;
+        }
+    }
+
+    private void record(double fixX, double fixY, long fixTimeMs, float accuracy) {
+        int index;
+        if (historySize < HISTORY_SIZE) {
+            index = (historyStart + historySize) % HISTORY_SIZE;
+            historySize++;
+        } else {
+            index = historyStart;
+            historyStart = (historyStart + 1) % HISTORY_SIZE;
+        }
+        historyX[index] = fixX;
+        historyY[index] = fixY;
+        historyTime[index] = fixTimeMs;
+        historyAccuracy[index] = accuracy;
+    }
+}
@@ -0,0 +1,339 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * A recorded sequence of fixes in primitive arrays, read from a CSV file, a GPX file or the
+ * segments of a {@link TrackRecorder}. Replay it with {@link TraceReplayer}.
+ * <p>
+ * Accuracy is 0 when the source does not have it, as {@link LocationFilter} expects. Fixes
+ * without a time are taken one second after the previous one.
+ */
+public class LocationTrace {
+
+    private static final long MISSING_TIME_STEP_MS = 1000;
+
+    // yyyy-MM-ddTHH:mm:ss, optional fraction and zone
+    private static final Pattern ISO_TIME = Pattern.compile(
+            "(\\d{4})-(\\d\\d)-(\\d\\d)T(\\d\\d):(\\d\\d):(\\d\\d)"
+                    + "(\\.\\d+)?(Z|[+-]\\d\\d:?\\d\\d)?");
+
+    private double[] latitudes = new double[256];
+    private double[] longitudes = new double[256];
+    private float[] accuracies = new float[256];
+    private long[] times = new long[256];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    public float getAccuracy(int index) {
+        return accuracies[index];
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    /**
+     * Time between the first and the last fix.
+     */
+    public long getDurationMs() {
+        return size == 0 ? 0 : times[size - 1] - times[0];
+    }
+
+    /**
+     * Appends a fix, {@code timeMs} must not go back in time.
+     */
+    public void add(double latitude, double longitude, float accuracy, long timeMs) {
+        if (size > 0 && timeMs < times[size - 1]) {
+            throw new IllegalArgumentException("Fix before the previous one: " + timeMs);
+        }
+        if (size == times.length) {
+            int capacity = size * 2;
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            accuracies = Arrays.copyOf(accuracies, capacity);
+            times = Arrays.copyOf(times, capacity);
+        }
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        accuracies[size] = accuracy;
+        times[size] = timeMs;
+        size++;
+    }
+
+    private void addWithoutTime(double latitude, double longitude, float accuracy) {
+        add(latitude, longitude, accuracy, size == 0 ? 0 : times[size - 1] + MISSING_TIME_STEP_MS);
+    }
+
+    /**
+     * Reads a trace file by its type: a directory of track segments, a .gpx or a .csv file.
+     */
+    public static LocationTrace read(File file) throws IOException {
+        if (file.isDirectory()) {
+            return readTrack(file);
+        }
+        String name = file.getName().toLowerCase(Locale.US);
+        InputStream input = new FileInputStream(file);
+        try {
+            if (name.endsWith(".gpx")) {
+                return readGpx(input);
+            }
+            if (name.endsWith(".csv")) {
+                return readCsv(new InputStreamReader(input, "UTF-8"));
+            }
+        } finally {
+            input.close();
+        }
+        throw new IOException("Unknown trace format: " + file);
+    }
+
+    /**
+     * Reads the segments written by a {@link TrackRecorder}, which have no accuracy.
+     */
+    public static LocationTrace readTrack(File directory) throws IOException {
+        LocationTrace trace = new LocationTrace();
+        TrackReader reader = new TrackReader(directory);
+        try {
+            while (reader.next()) {
+                trace.add(reader.getLatitude(), reader.getLongitude(), 0, reader.getTime());
+            }
+        } finally {
+            reader.close();
+        }
+        return trace;
+    }
+
+    /**
+     * Reads comma separated fixes. A header line names the columns: {@code lat} or
+     * {@code latitude}, {@code lon}, {@code lng} or {@code longitude}, and optionally
+     * {@code time} or {@code timestamp} and {@code accuracy}. Without a header the columns are
+     * time, latitude, longitude and accuracy. Times are epoch milliseconds, epoch seconds, or
+     * ISO 8601 dates.
+     */
+    public static LocationTrace readCsv(Reader source) throws IOException {
+        LocationTrace trace = new LocationTrace();
+        BufferedReader reader = new BufferedReader(source);
+        int timeColumn = 0;
+        int latColumn = 1;
+        int lonColumn = 2;
+        int accuracyColumn = 3;
+        String line;
+        int lineNumber = 0;
+        boolean firstRow = true;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split(",", -1);
+            boolean header = firstRow && !startsLikeNumber(columns[0])
+                    && !startsLikeNumber(columns[columns.length - 1]);
+            firstRow = false;
+            if (header) {
+                timeColumn = latColumn = lonColumn = accuracyColumn = -1;
+                for (int i = 0; i < columns.length; i++) {
+                    String column = columns[i].trim().toLowerCase(Locale.US);
+                    if (column.equals("time") || column.equals("timestamp")) {
+                        timeColumn = i;
+                    } else if (column.equals("lat") || column.equals("latitude")) {
+                        latColumn = i;
+                    } else if (column.equals("lon") || column.equals("lng")
+                            || column.equals("longitude")) {
+                        lonColumn = i;
+                    } else if (column.equals("accuracy")) {
+                        accuracyColumn = i;
+                    }
+                }
+                if (latColumn < 0 || lonColumn < 0) {
+                    throw new IOException("No latitude and longitude columns: " + line);
+                }
+                continue;
+            }
+            try {
+                double latitude = Double.parseDouble(columns[latColumn].trim());
+                double longitude = Double.parseDouble(columns[lonColumn].trim());
+                float accuracy = column(columns, accuracyColumn).isEmpty() ? 0
+                        : Float.parseFloat(column(columns, accuracyColumn));
+                String time = column(columns, timeColumn);
+                if (time.isEmpty()) {
+                    trace.addWithoutTime(latitude, longitude, accuracy);
+                } else {
+                    trace.add(latitude, longitude, accuracy, parseTime(time));
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Bad fix at line " + lineNumber + ": " + line, e);
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Reads the track points of a GPX file, or its route and way points if it has none.
+     * Accuracy comes from {@code hdop} when present, counted as 5 meters per unit.
+     */
+    public static LocationTrace readGpx(InputStream input) throws IOException {
+        GpxHandler handler = new GpxHandler();
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(input, handler);
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        } catch (SAXException e) {
+            throw new IOException("Bad GPX: " + e.getMessage(), e);
+        }
+        if (handler.tracks.size() > 0) {
+            return handler.tracks;
+        }
+        return handler.routes.size() > 0 ? handler.routes : handler.waypoints;
+    }
+
+    private static final class GpxHandler extends DefaultHandler {
+        final LocationTrace tracks = new LocationTrace();
+        final LocationTrace routes = new LocationTrace();
+        final LocationTrace waypoints = new LocationTrace();
+
+        private final StringBuilder text = new StringBuilder();
+        private boolean inPoint;
+        private double latitude;
+        private double longitude;
+        private float accuracy;
+        private String time;
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes attributes) throws SAXException {
+            String name = name(localName, qName);
+            if (name.equals("trkpt") || name.equals("rtept") || name.equals("wpt")) {
+                try {
+                    latitude = Double.parseDouble(attributes.getValue("lat"));
+                    longitude = Double.parseDouble(attributes.getValue("lon"));
+                } catch (RuntimeException e) {
+                    throw new SAXException("Point without a position");
+                }
+                accuracy = 0;
+                time = null;
+                inPoint = true;
+            }
+            text.setLength(0);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+                throws SAXException {
+            String name = name(localName, qName);
+            if (!inPoint) {
+                return;
+            }
+            try {
+                if (name.equals("time")) {
+                    time = text.toString().trim();
+                } else if (name.equals("hdop")) {
+                    accuracy = Float.parseFloat(text.toString().trim()) * 5;
+                } else if (name.equals("trkpt") || name.equals("rtept") || name.equals("wpt")) {
+                    inPoint = false;
+                    LocationTrace trace = name.equals("trkpt") ? tracks
+                            : name.equals("rtept") ? routes : waypoints;
+                    if (time == null) {
+                        trace.addWithoutTime(latitude, longitude, accuracy);
+                    } else {
+                        trace.add(latitude, longitude, accuracy, parseTime(time));
+                    }
+                }
+            } catch (RuntimeException e) {
+                throw new SAXException("Bad point: " + e.getMessage());
+            }
+        }
+
+        private static String name(String localName, String qName) {
+            String name = localName == null || localName.isEmpty() ? qName : localName;
+            int colon = name.indexOf(':');
+            return colon < 0 ? name : name.substring(colon + 1);
+        }
+    }
+
+    private static String column(String[] columns, int index) {
+        return index < 0 || index >= columns.length ? "" : columns[index].trim();
+    }
+
+    private static boolean startsLikeNumber(String value) {
+        String trimmed = value.trim();
+        if (trimmed.isEmpty()) {
+            return true;
+        }
+        char c = trimmed.charAt(0);
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.';
+    }
+
+    /**
+     * Parses epoch milliseconds, epoch seconds (with a fraction or below 10^11) or an ISO 8601
+     * date in UTC or with an offset.
+     */
+    static long parseTime(String value) {
+        Matcher matcher = ISO_TIME.matcher(value);
+        if (matcher.matches()) {
+            Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.US);
+            calendar.clear();
+            calendar.set(Integer.parseInt(matcher.group(1)),
+                    Integer.parseInt(matcher.group(2)) - 1, Integer.parseInt(matcher.group(3)),
+                    Integer.parseInt(matcher.group(4)), Integer.parseInt(matcher.group(5)),
+                    Integer.parseInt(matcher.group(6)));
+            long time = calendar.getTimeInMillis();
+            if (matcher.group(7) != null) {
+                time += Math.round(Double.parseDouble(matcher.group(7)) * 1000);
+            }
+            String zone = matcher.group(8);
+            if (zone != null && !zone.equals("Z")) {
+                String digits = zone.replace(":", "");
+                int minutes = Integer.parseInt(digits.substring(1, 3)) * 60
+                        + Integer.parseInt(digits.substring(3, 5));
+                time -= (zone.charAt(0) == '-' ? -minutes : minutes) * 60000L;
+            }
+            return time;
+        }
+        double number = Double.parseDouble(value);
+        if (value.indexOf('.') >= 0 || number < 1e11) {
+            return Math.round(number * 1000);
+        }
+        return (long) number;
+    }
+
+    @Override
+    public String toString() {
+        return "LocationTrace[fixes=" + size + ", duration=" + getDurationMs() + "ms]";
+    }
+}
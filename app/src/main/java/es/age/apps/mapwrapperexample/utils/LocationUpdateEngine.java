@@ -0,0 +1,182 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.Location;
+import android.os.BatteryManager;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.LocationListener;
+import com.google.android.gms.location.LocationServices;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Streams location updates from the FusedLocationApi and hands every fix to its listeners.
+ * <p>
+ * The update interval and priority follow a {@link LocationUpdatePolicy}: high accuracy GPS
+ * while moving, balanced power when standing still, low power when the battery is low. The
+ * request is only rebuilt when the policy changes mode. When a {@link LocationFilter} is set,
+ * listeners only get the fixes it accepts, with the smoothed position. Must be used from the
+ * main thread.
+ */
+public class LocationUpdateEngine implements LocationListener {
+
+    private String TAG = "LocationUpdateEngine";
+
+    public interface OnLocationUpdateListener {
+        public void onLocationUpdate(Location location);
+    }
+
+    private final Context context;
+    private final LocationUpdatePolicy policy = new LocationUpdatePolicy();
+    private final CopyOnWriteArrayList<OnLocationUpdateListener> listeners =
+            new CopyOnWriteArrayList<>();
+
+    private final MetricsRegistry.Counter fixCount =
+            MetricsRegistry.getInstance().counter(MetricsRegistry.COUNT_FIXES);
+    private final MetricsRegistry.Counter rejectedCount =
+            MetricsRegistry.getInstance().counter(MetricsRegistry.COUNT_FIXES_REJECTED);
+
+    private LocationFilter filter;
+    private GoogleApiClient client;
+    private boolean started = false;
+    private Location lastLocation;
+
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onBatteryChanged(intent);
+        }
+    };
+
+    public LocationUpdateEngine(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public void addOnLocationUpdateListener(OnLocationUpdateListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeOnLocationUpdateListener(OnLocationUpdateListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets the filter applied to the fixes before they reach the listeners, null for raw fixes.
+     */
+    public void setLocationFilter(LocationFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Starts the updates on a connected client. The location permission must be granted.
+     */
+    public void start(GoogleApiClient client) {
+        if (started || client == null || !client.isConnected()) {
+            return;
+        }
+        this.client = client;
+        started = true;
+        // The battery intent is sticky, registering returns the current state right away
+        Intent battery = context.registerReceiver(batteryReceiver,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            onBatteryChanged(battery);
+        }
+        requestUpdates();
+    }
+
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        context.unregisterReceiver(batteryReceiver);
+        if (client.isConnected()) {
+            LocationServices.FusedLocationApi.removeLocationUpdates(client, this);
+        }
+        client = null;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Last fix received, or null.
+     */
+    public Location getLastLocation() {
+        return lastLocation;
+    }
+
+    public LocationUpdatePolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public void onLocationChanged(Location location) {
+        long start = FrameMonitor.begin(JankStats.OP_LOCATION_CALLBACK);
+        dispatch(location);
+        FrameMonitor.end(JankStats.OP_LOCATION_CALLBACK, start);
+    }
+
+    private void dispatch(Location location) {
+        fixCount.increment();
+        if (policy.onFix(location.getLatitude(), location.getLongitude(), location.getTime(),
+                location.hasSpeed() ? location.getSpeed() : -1,
+                location.hasAccuracy() ? location.getAccuracy() : -1)) {
+            requestUpdates();
+        }
+        if (filter != null) {
+            int result = filter.process(location.getLatitude(), location.getLongitude(),
+                    location.hasAccuracy() ? location.getAccuracy() : 0, location.getTime());
+            if (!LocationFilter.isAccepted(result)) {
+                rejectedCount.increment();
+                Log.d(TAG, "onLocationChanged: fix rejected (" + result + ")");
+                return;
+            }
+            // The fix belongs to us, reuse it for the smoothed position instead of a copy
+            location.setLatitude(filter.getLatitude());
+            location.setLongitude(filter.getLongitude());
+        }
+        lastLocation = location;
+        for (OnLocationUpdateListener listener : listeners) {
+            listener.onLocationUpdate(location);
+        }
+    }
+
+    private void onBatteryChanged(Intent intent) {
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        if (level < 0 || scale <= 0) {
+            return;
+        }
+        boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL;
+        if (policy.onBatteryChanged(level / (float) scale, charging) && started) {
+            requestUpdates();
+        }
+    }
+
+    private void requestUpdates() {
+        if (!started || !client.isConnected()) {
+            return;
+        }
+        Log.d(TAG, "requestUpdates: mode " + policy.getMode() + ", interval "
+                + policy.getIntervalMs() + "ms, priority " + policy.getPriority());
+        try {
+            // Requesting again with the same listener replaces the previous request
+            LocationServices.FusedLocationApi.requestLocationUpdates(client,
+                    LocationUtils.createLocationRequest(policy.getIntervalMs(),
+                            policy.getFastestIntervalMs(), policy.getPriority()), this);
+        } catch (SecurityException e) {
+            Log.d(TAG, "requestUpdates: location permission missing");
+            stop();
+        }
+    }
+}
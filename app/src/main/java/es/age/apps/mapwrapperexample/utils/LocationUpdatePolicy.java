@@ -0,0 +1,158 @@
+package es.age.apps.mapwrapperexample.utils;
+
+/**
+ * Decides how often and how precisely to ask for location updates, from the measured speed
+ * and accuracy of the last fixes and from the battery state.
+ * <p>
+ * The policy switches between a few discrete modes, and only slows down after several slow
+ * fixes in a row, so the request is not rebuilt on every fix. Plain Java so it can be tested
+ * on the JVM. Not thread safe.
+ */
+public class LocationUpdatePolicy {
+
+    // Same values as the LocationRequest priorities
+    public static final int PRIORITY_HIGH_ACCURACY = 100;
+    public static final int PRIORITY_BALANCED_POWER_ACCURACY = 102;
+    public static final int PRIORITY_LOW_POWER = 104;
+
+    /**
+     * Moving fast (driving), frequent high accuracy fixes.
+     */
+    public static final int MODE_FAST = 0;
+    /**
+     * Walking or cycling.
+     */
+    public static final int MODE_MOVING = 1;
+    /**
+     * Not moving, network based fixes are enough.
+     */
+    public static final int MODE_IDLE = 2;
+    /**
+     * Battery low and not charging.
+     */
+    public static final int MODE_SAVER = 3;
+
+    private static final long[] INTERVALS_MS = {2000, 5000, 30000, 60000};
+    private static final long[] FASTEST_INTERVALS_MS = {1000, 2000, 10000, 30000};
+    private static final int[] PRIORITIES = {PRIORITY_HIGH_ACCURACY, PRIORITY_HIGH_ACCURACY,
+            PRIORITY_BALANCED_POWER_ACCURACY, PRIORITY_LOW_POWER};
+
+    private static final float FAST_SPEED_MS = 8;
+    private static final float MOVING_SPEED_MS = 0.8f;
+    private static final float POOR_ACCURACY_M = 50;
+    private static final float LOW_BATTERY = 0.15f;
+
+    // Slower fixes needed in a row before switching to a slower mode
+    private static final int SLOWDOWN_FIXES = 3;
+
+    private int mode = MODE_MOVING;
+    private int slowerFixes;
+
+    private float batteryLevel = 1;
+    private boolean charging = true;
+
+    private boolean hasLastFix;
+    private double lastLatitude;
+    private double lastLongitude;
+    private long lastTimeMs;
+
+    /**
+     * @param level    battery level between 0 and 1
+     * @param charging whether the device is plugged in
+     * @return true if the mode changed
+     */
+    public boolean onBatteryChanged(float level, boolean charging) {
+        this.batteryLevel = level;
+        this.charging = charging;
+        if (isBatteryLow()) {
+            return setMode(MODE_SAVER);
+        }
+        if (mode == MODE_SAVER) {
+            // Start again from the default and let the next fixes pick the mode
+            return setMode(MODE_MOVING);
+        }
+        return false;
+    }
+
+    /**
+     * Feeds a new fix to the policy.
+     *
+     * @param speed    reported speed in m/s, or a negative value if unknown
+     * @param accuracy reported accuracy in meters, or a negative value if unknown
+     * @return true if the mode changed
+     */
+    public boolean onFix(double latitude, double longitude, long timeMs, float speed,
+                         float accuracy) {
+        float measuredSpeed = speed;
+        if (measuredSpeed < 0 && hasLastFix && timeMs > lastTimeMs) {
+            measuredSpeed = (float) (GeoUtils.distance(lastLatitude, lastLongitude, latitude,
+                    longitude) * 1000 / (timeMs - lastTimeMs));
+        }
+        hasLastFix = true;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastTimeMs = timeMs;
+
+        if (isBatteryLow()) {
+            return setMode(MODE_SAVER);
+        }
+
+        int wanted;
+        if (measuredSpeed >= FAST_SPEED_MS) {
+            wanted = MODE_FAST;
+        } else if (measuredSpeed >= MOVING_SPEED_MS) {
+            wanted = MODE_MOVING;
+        } else if (accuracy > POOR_ACCURACY_M && mode != MODE_IDLE) {
+            // Not enough precision to tell whether we stopped
+            wanted = MODE_MOVING;
+        } else {
+            wanted = MODE_IDLE;
+        }
+        if (charging && wanted == MODE_IDLE) {
+            // Power is free, stay precise
+            wanted = MODE_MOVING;
+        }
+
+        if (wanted < mode || mode == MODE_SAVER) {
+            slowerFixes = 0;
+            return setMode(wanted);
+        }
+        if (wanted > mode) {
+            if (++slowerFixes >= SLOWDOWN_FIXES) {
+                slowerFixes = 0;
+                return setMode(wanted);
+            }
+            return false;
+        }
+        slowerFixes = 0;
+        return false;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public long getIntervalMs() {
+        return INTERVALS_MS[mode];
+    }
+
+    public long getFastestIntervalMs() {
+        return FASTEST_INTERVALS_MS[mode];
+    }
+
+    public int getPriority() {
+        return PRIORITIES[mode];
+    }
+
+    private boolean isBatteryLow() {
+        return !charging && batteryLevel <= LOW_BATTERY;
+    }
+
+    private boolean setMode(int mode) {
+        if (this.mode == mode) {
+            return false;
+        }
+        this.mode = mode;
+        return true;
+    }
+}
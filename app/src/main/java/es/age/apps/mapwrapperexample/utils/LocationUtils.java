@@ -100,7 +100,8 @@ public class LocationUtils {
 
 
     /**
-     * Check internet connection
+     * Check internet connection. Queries the system on every call, read the cached state of
+     * {@link DeviceStateMonitor} instead on hot paths.
      */
     public static boolean isConnected(Context ctx) {
         ConnectivityManager conMgr = (ConnectivityManager) ctx
@@ -117,7 +118,8 @@ public class LocationUtils {
 
 
     /**
-     * Check gps connection
+     * Check gps connection. Queries the system on every call, read the cached state of
+     * {@link DeviceStateMonitor} instead on hot paths.
      */
     public static boolean isGPSConnected(Context ctx) {
         LocationManager locationManager = (LocationManager) ctx.getSystemService(Context.LOCATION_SERVICE);
@@ -126,16 +128,27 @@ public class LocationUtils {
     }
 
 
+    /**
+     * Build a location request with the given intervals and one of the LocationRequest priorities
+     */
+    public static LocationRequest createLocationRequest(long intervalMs, long fastestIntervalMs,
+                                                        int priority) {
+        LocationRequest locationRequest = new LocationRequest();
+        locationRequest.setInterval(intervalMs);
+        locationRequest.setFastestInterval(fastestIntervalMs);
+        locationRequest.setPriority(priority);
+        return locationRequest;
+    }
+
+
     /**
      * Reques user location using FusedLocationAPI, so the user doesn´t have to go to settings
      */
     public static boolean requestLocation(GoogleApiClient client, final AppCompatActivity activity, final boolean cancelable) {
         if (activity != null) {
             Log.d(TAG, "requestLocation: ");
-            LocationRequest mLocationRequest = new LocationRequest();
-            mLocationRequest.setInterval(10000);
-            mLocationRequest.setFastestInterval(5000);
-            mLocationRequest.setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
+            LocationRequest mLocationRequest = createLocationRequest(10000, 5000,
+                    LocationRequest.PRIORITY_HIGH_ACCURACY);
 
             LocationSettingsRequest.Builder builder = new LocationSettingsRequest.Builder();
             builder.addLocationRequest(mLocationRequest);
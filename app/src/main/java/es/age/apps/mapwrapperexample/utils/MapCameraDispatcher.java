@@ -0,0 +1,116 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * GoogleMap only accepts one listener per camera event, this class takes that slot and fans
+ * the events out to every part of the wrapper that needs them.
+ * <p>
+ * {@link LocationActivity} creates one per map in {@code onLocationMapReady}, register through
+ * it instead of calling {@code setOnCameraIdleListener} on the map. The time from the start of
+ * a camera animation to the next idle event is recorded in the {@link MetricsRegistry}.
+ */
+public class MapCameraDispatcher implements GoogleMap.OnCameraIdleListener,
+        GoogleMap.OnCameraMoveStartedListener, GoogleMap.OnCameraMoveListener {
+
+    private final GoogleMap googleMap;
+
+    private final CopyOnWriteArrayList<GoogleMap.OnCameraIdleListener> idleListeners =
+            new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<GoogleMap.OnCameraMoveStartedListener> moveStartedListeners =
+            new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<GoogleMap.OnCameraMoveListener> moveListeners =
+            new CopyOnWriteArrayList<>();
+
+    private final LatencyHistogram animationLatency =
+            MetricsRegistry.getInstance().histogram(MetricsRegistry.LATENCY_CAMERA_ANIMATION);
+    private final MetricsRegistry.Counter gestureCount =
+            MetricsRegistry.getInstance().counter(MetricsRegistry.COUNT_CAMERA_GESTURES);
+    // Start of the animation in progress, -1 while idle or moved by a gesture
+    private long animationStartNanos = -1;
+
+    public MapCameraDispatcher(GoogleMap googleMap) {
+        this.googleMap = googleMap;
+        googleMap.setOnCameraIdleListener(this);
+        googleMap.setOnCameraMoveStartedListener(this);
+        googleMap.setOnCameraMoveListener(this);
+    }
+
+    public GoogleMap getMap() {
+        return googleMap;
+    }
+
+    /**
+     * Returns the bounds of the visible region of the map.
+     */
+    public GeoBounds getVisibleBounds() {
+        LatLngBounds bounds = googleMap.getProjection().getVisibleRegion().latLngBounds;
+        return new GeoBounds(bounds.southwest.latitude, bounds.southwest.longitude,
+                bounds.northeast.latitude, bounds.northeast.longitude);
+    }
+
+    public void addOnCameraIdleListener(GoogleMap.OnCameraIdleListener listener) {
+        idleListeners.addIfAbsent(listener);
+    }
+
+    public void removeOnCameraIdleListener(GoogleMap.OnCameraIdleListener listener) {
+        idleListeners.remove(listener);
+    }
+
+    public void addOnCameraMoveStartedListener(GoogleMap.OnCameraMoveStartedListener listener) {
+        moveStartedListeners.addIfAbsent(listener);
+    }
+
+    public void removeOnCameraMoveStartedListener(GoogleMap.OnCameraMoveStartedListener listener) {
+        moveStartedListeners.remove(listener);
+    }
+
+    public void addOnCameraMoveListener(GoogleMap.OnCameraMoveListener listener) {
+        moveListeners.addIfAbsent(listener);
+    }
+
+    public void removeOnCameraMoveListener(GoogleMap.OnCameraMoveListener listener) {
+        moveListeners.remove(listener);
+    }
+
+    @Override
+    public void onCameraIdle() {
+        if (animationStartNanos >= 0) {
+            animationLatency.recordSince(animationStartNanos);
+            animationStartNanos = -1;
+        }
+        FrameMonitor.setActive(JankStats.OP_CAMERA_MOVE, false);
+        long start = FrameMonitor.begin(JankStats.OP_CAMERA_MOVE);
+        for (GoogleMap.OnCameraIdleListener listener : idleListeners) {
+            listener.onCameraIdle();
+        }
+        FrameMonitor.end(JankStats.OP_CAMERA_MOVE, start);
+    }
+
+    @Override
+    public void onCameraMoveStarted(int reason) {
+        if (reason == REASON_GESTURE) {
+            gestureCount.increment();
+            animationStartNanos = -1;
+        } else if (animationStartNanos < 0) {
+            // An animation replacing another one is timed from the first
+            animationStartNanos = System.nanoTime();
+        }
+        FrameMonitor.setActive(JankStats.OP_CAMERA_MOVE, true);
+        for (GoogleMap.OnCameraMoveStartedListener listener : moveStartedListeners) {
+            listener.onCameraMoveStarted(reason);
+        }
+    }
+
+    @Override
+    public void onCameraMove() {
+        long start = FrameMonitor.begin(JankStats.OP_CAMERA_MOVE);
+        for (GoogleMap.OnCameraMoveListener listener : moveListeners) {
+            listener.onCameraMove();
+        }
+        FrameMonitor.end(JankStats.OP_CAMERA_MOVE, start);
+    }
+}
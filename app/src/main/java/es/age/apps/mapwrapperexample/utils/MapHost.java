@@ -0,0 +1,202 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.MapsInitializer;
+import com.google.android.gms.maps.model.CameraPosition;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Process wide host that keeps the map state warm between map screens.
+ * <p>
+ * {@link #prewarm} initializes the maps SDK once the main thread is idle after the app starts,
+ * so the first map screen does not pay for it. A {@code GoogleMap} is bound to the view of its
+ * screen and cannot be carried to the next one, so the host keeps what can be: the last camera
+ * position, and {@link Layer}s that keep their data and are attached to whichever map is in the
+ * foreground. The time to the map ready callback is recorded per {@code OPEN_*} state in the
+ * {@link MetricsRegistry}, to compare warm and cold opens. Must be used from the main thread.
+ */
+public class MapHost {
+
+    /**
+     * First map of the process, the SDK is not initialized yet.
+     */
+    public static final int OPEN_COLD = 0;
+    /**
+     * First map of the process, the SDK has been initialized by {@link #prewarm}.
+     */
+    public static final int OPEN_PREWARMED = 1;
+    /**
+     * A map has been shown before in this process.
+     */
+    public static final int OPEN_WARM = 2;
+
+    private static final String[] OPEN_METRICS = {MetricsRegistry.LATENCY_MAP_READY_COLD,
+            MetricsRegistry.LATENCY_MAP_READY_PREWARMED, MetricsRegistry.LATENCY_MAP_READY_WARM};
+
+    private static MapHost instance;
+
+    private String TAG = "MapHost";
+
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
+    private final LinkedHashMap<String, Layer> layers = new LinkedHashMap<>();
+
+    private boolean prewarmRequested = false;
+    private boolean prewarmed = false;
+    private int mapCount = 0;
+
+    private Object owner;
+    private GoogleMap googleMap;
+    private MapCameraDispatcher cameraDispatcher;
+    private CameraPosition cameraPosition;
+
+    /**
+     * Map content kept by the host between screens.
+     */
+    public interface Layer {
+        /**
+         * Draws the layer on a map, from the data it kept.
+         */
+        public void onAttach(GoogleMap map, MapCameraDispatcher cameraDispatcher);
+
+        /**
+         * Removes the layer from the map it was attached to, keeping its data.
+         */
+        public void onDetach();
+    }
+
+    public static synchronized MapHost getInstance() {
+        if (instance == null) {
+            instance = new MapHost();
+        }
+        return instance;
+    }
+
+    /**
+     * Initializes the maps SDK the next time the main thread is idle. Call it from
+     * {@code Application.onCreate}.
+     */
+    public void prewarm(Context context) {
+        if (prewarmRequested) {
+            return;
+        }
+        prewarmRequested = true;
+        final Context applicationContext = context.getApplicationContext();
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                long start = System.nanoTime();
+                MapsInitializer.initialize(applicationContext);
+                metrics.histogram(MetricsRegistry.LATENCY_MAPS_INITIALIZE).recordSince(start);
+                prewarmed = true;
+                Log.d(TAG, "prewarm: " + (System.nanoTime() - start) / 1000000 + "ms");
+                return false;
+            }
+        });
+    }
+
+    /**
+     * State of a map screen opening now, one of the {@code OPEN_*} constants.
+     */
+    public int getOpenState() {
+        if (mapCount > 0) {
+            return OPEN_WARM;
+        }
+        return prewarmed ? OPEN_PREWARMED : OPEN_COLD;
+    }
+
+    /**
+     * Records the time a map screen took to get its map, for the state it opened in.
+     */
+    public void recordOpen(int openState, long nanos) {
+        mapCount++;
+        if (nanos >= 0) {
+            metrics.histogram(OPEN_METRICS[openState]).record(nanos);
+        }
+    }
+
+    /**
+     * Camera position of the last map detached, or null.
+     */
+    public CameraPosition getCameraPosition() {
+        return cameraPosition;
+    }
+
+    public Layer getLayer(String key) {
+        return layers.get(key);
+    }
+
+    /**
+     * Keeps a layer under the given key, replacing the previous one, and draws it on the map
+     * attached if any.
+     */
+    public void putLayer(String key, Layer layer) {
+        removeLayer(key);
+        layers.put(key, layer);
+        if (googleMap != null) {
+            layer.onAttach(googleMap, cameraDispatcher);
+        }
+    }
+
+    public void removeLayer(String key) {
+        Layer layer = layers.remove(key);
+        if (layer != null && googleMap != null) {
+            layer.onDetach();
+        }
+    }
+
+    /**
+     * Draws the layers on the map of the owner, moving them from the map attached before if
+     * any. Screens attach their map while they are started.
+     */
+    public void attach(Object owner, GoogleMap map, MapCameraDispatcher cameraDispatcher) {
+        if (this.owner == owner) {
+            return;
+        }
+        if (this.owner != null) {
+            detach(this.owner);
+        }
+        this.owner = owner;
+        googleMap = map;
+        this.cameraDispatcher = cameraDispatcher;
+        for (Layer layer : layers.values()) {
+            layer.onAttach(map, cameraDispatcher);
+        }
+    }
+
+    /**
+     * Saves the camera position and removes the layers from the map of the owner, if it is the
+     * one attached.
+     */
+    public void detach(Object owner) {
+        if (this.owner != owner) {
+            return;
+        }
+        cameraPosition = googleMap.getCameraPosition();
+        for (Layer layer : layers.values()) {
+            layer.onDetach();
+        }
+        this.owner = null;
+        googleMap = null;
+        cameraDispatcher = null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("MapHost[maps=").append(mapCount)
+                .append(", prewarmed=").append(prewarmed)
+                .append(", attached=").append(owner != null)
+                .append(", layers=").append(layers.keySet());
+        // The saving of a warm open is the difference of these
+        for (String name : OPEN_METRICS) {
+            builder.append(", ").append(name).append("={")
+                    .append(metrics.histogram(name).snapshot(false)).append('}');
+        }
+        return builder.append(']').toString();
+    }
+}
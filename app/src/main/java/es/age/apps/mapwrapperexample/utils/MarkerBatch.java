@@ -0,0 +1,228 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.util.Log;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adds many markers to a map without blocking the main thread.
+ * <p>
+ * {@link MarkerOptions} (and their icons) are built on {@link MapExecutors#background()}, then
+ * added on the main thread from {@link FrameClock} callbacks, as many per frame as fit in the
+ * frame budget. Start a batch with {@link #start} and observe it with a {@link Listener}. The
+ * duration of the batches and of their frames is recorded in the {@link MetricsRegistry}.
+ *
+ * @param <T> type of the items turned into markers
+ */
+public class MarkerBatch<T> implements FrameClock.FrameCallback {
+
+    /**
+     * Time spent adding markers per frame, leaving the rest of the 16ms frame to the map.
+     */
+    public static final long DEFAULT_FRAME_BUDGET_NANOS = 4000000L;
+
+    private String TAG = "MarkerBatch";
+
+    private static final LatencyHistogram batchLatency =
+            MetricsRegistry.getInstance().histogram(MetricsRegistry.LATENCY_MARKER_BATCH);
+    private static final LatencyHistogram frameLatency =
+            MetricsRegistry.getInstance().histogram(MetricsRegistry.LATENCY_MARKER_FRAME);
+    private static final MetricsRegistry.Counter addedCount =
+            MetricsRegistry.getInstance().counter(MetricsRegistry.COUNT_MARKERS_ADDED);
+
+    /**
+     * Builds the options for one item, called on a background thread.
+     */
+    public interface OptionsFactory<T> {
+        public MarkerOptions create(T item);
+    }
+
+    /**
+     * Progress of a batch, called on the main thread.
+     */
+    public interface Listener {
+        public void onProgress(MarkerBatch<?> batch, int added, int total);
+
+        public void onComplete(MarkerBatch<?> batch, List<Marker> markers);
+
+        /**
+         * Called when the batch is cancelled, the markers added so far stay on the map.
+         */
+        public void onCancelled(MarkerBatch<?> batch, List<Marker> markers);
+
+        /**
+         * Called when the factory threw, the markers added so far stay on the map.
+         */
+        public void onFailed(MarkerBatch<?> batch, Throwable error, List<Marker> markers);
+    }
+
+    private final GoogleMap googleMap;
+    private final List<T> items;
+    private final OptionsFactory<T> factory;
+    private final Listener listener;
+    private final long frameBudgetNanos;
+
+    private final MarkerOptions[] options;
+    private final ArrayList<Marker> markers;
+
+    // Written by the background thread, the volatile write publishes the options before it
+    private volatile int prepared;
+    private volatile boolean cancelled;
+    // Set by the background thread when the factory throws, before the options stop coming
+    private volatile Throwable error;
+
+    private int added;
+    private int frames;
+    private long startNanos;
+    private boolean finished;
+
+    /**
+     * Starts adding a marker for every item. Must be called on the main thread.
+     *
+     * @param listener may be null
+     */
+    public static <T> MarkerBatch<T> start(GoogleMap googleMap, List<T> items,
+                                           OptionsFactory<T> factory, Listener listener) {
+        return start(googleMap, items, factory, listener, DEFAULT_FRAME_BUDGET_NANOS);
+    }
+
+    public static <T> MarkerBatch<T> start(GoogleMap googleMap, List<T> items,
+                                           OptionsFactory<T> factory, Listener listener,
+                                           long frameBudgetNanos) {
+        MarkerBatch<T> batch = new MarkerBatch<>(googleMap, items, factory, listener,
+                frameBudgetNanos);
+        batch.start();
+        return batch;
+    }
+
+    private MarkerBatch(GoogleMap googleMap, List<T> items, OptionsFactory<T> factory,
+                        Listener listener, long frameBudgetNanos) {
+        this.googleMap = googleMap;
+        this.items = new ArrayList<>(items);
+        this.factory = factory;
+        this.listener = listener;
+        this.frameBudgetNanos = frameBudgetNanos;
+        this.options = new MarkerOptions[this.items.size()];
+        this.markers = new ArrayList<>(this.items.size());
+    }
+
+    private void start() {
+        startNanos = System.nanoTime();
+        MapExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < options.length && !cancelled; i++) {
+                        options[i] = factory.create(items.get(i));
+                        prepared = i + 1;
+                    }
+                } catch (RuntimeException e) {
+                    // Reported on the main thread by the next frame
+                    error = e;
+                }
+            }
+        });
+        FrameClock.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (finished) {
+            return;
+        }
+        frames++;
+        // Read before prepared, so the options prepared before a failure are still added
+        Throwable failure = error;
+        int available = prepared;
+        int before = added;
+        long frameStart = System.nanoTime();
+        long monitorStart = FrameMonitor.begin(JankStats.OP_MARKER_BATCH);
+        while (added < available && System.nanoTime() - frameStart < frameBudgetNanos) {
+            markers.add(googleMap.addMarker(options[added]));
+            options[added] = null;
+            added++;
+        }
+        FrameMonitor.end(JankStats.OP_MARKER_BATCH, monitorStart);
+        if (added != before) {
+            frameLatency.recordSince(frameStart);
+            addedCount.add(added - before);
+        }
+
+        if (added != before && listener != null) {
+            listener.onProgress(this, added, options.length);
+        }
+        if (added == options.length) {
+            finish();
+            batchLatency.recordSince(startNanos);
+            Log.d(TAG, "added " + added + " markers in " + frames + " frames, "
+                    + (System.nanoTime() - startNanos) / 1000000 + "ms");
+            if (listener != null) {
+                listener.onComplete(this, markers);
+            }
+        } else if (failure != null && added == available) {
+            finish();
+            Log.e(TAG, "failed after adding " + added + " of " + options.length + " markers",
+                    failure);
+            if (listener != null) {
+                listener.onFailed(this, failure, markers);
+            }
+        } else {
+            FrameClock.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Stops the batch, markers already added stay on the map. Must be called on the main
+     * thread.
+     */
+    public void cancel() {
+        if (finished) {
+            return;
+        }
+        cancelled = true;
+        finish();
+        if (listener != null) {
+            listener.onCancelled(this, markers);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * The exception thrown by the factory, null unless the batch failed.
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isDone() {
+        return finished;
+    }
+
+    public int getAdded() {
+        return added;
+    }
+
+    public int getTotal() {
+        return options.length;
+    }
+
+    /**
+     * Markers added so far.
+     */
+    public List<Marker> getMarkers() {
+        return markers;
+    }
+
+    private void finish() {
+        finished = true;
+        FrameClock.getInstance().removeFrameCallback(this);
+    }
+}
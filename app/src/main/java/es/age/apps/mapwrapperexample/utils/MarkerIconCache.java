@@ -0,0 +1,182 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.LruCache;
+
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+
+/**
+ * Process wide cache of rendered marker icons, so the same icon is only drawn and handed to
+ * {@link BitmapDescriptorFactory} once.
+ * <p>
+ * Icons are keyed by color, label and size, bounded by the size in bytes of their bitmaps and
+ * evicted least recently used first. Safe to use from any thread, which lets icons be built
+ * on the background threads that prepare markers.
+ */
+public class MarkerIconCache {
+
+    public static final int CLUSTER_COLOR = 0xff3f51b5;
+
+    public static final int CLUSTER_SIZE_DP = 40;
+
+    private static final int[] CLUSTER_BUCKETS = {10, 20, 50, 100, 200, 500, 1000};
+
+    private static MarkerIconCache instance;
+
+    private final float density;
+    private final LruCache<Key, Icon> cache;
+
+    private static final class Key {
+        final int color;
+        final String label;
+        final int sizeDp;
+
+        Key(int color, String label, int sizeDp) {
+            this.color = color;
+            this.label = label;
+            this.sizeDp = sizeDp;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return color == other.color && sizeDp == other.sizeDp && label.equals(other.label);
+        }
+
+        @Override
+        public int hashCode() {
+            return (color * 31 + sizeDp) * 31 + label.hashCode();
+        }
+    }
+
+    private static final class Icon {
+        final BitmapDescriptor descriptor;
+        final int byteCount;
+
+        Icon(BitmapDescriptor descriptor, int byteCount) {
+            this.descriptor = descriptor;
+            this.byteCount = byteCount;
+        }
+    }
+
+    /**
+     * Returns the shared cache, bounded to 1/32 of the heap.
+     */
+    public static synchronized MarkerIconCache getInstance(Context context) {
+        if (instance == null) {
+            long maxBytes = Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 32);
+            instance = new MarkerIconCache(context.getApplicationContext(), (int) maxBytes);
+        }
+        return instance;
+    }
+
+    public MarkerIconCache(Context context, int maxBytes) {
+        density = context.getResources().getDisplayMetrics().density;
+        cache = new LruCache<Key, Icon>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Icon icon) {
+                return icon.byteCount;
+            }
+        };
+    }
+
+    /**
+     * Returns a round icon of the given color with the label drawn in its center.
+     */
+    public BitmapDescriptor getIcon(int color, String label, int sizeDp) {
+        Key key = new Key(color, label, sizeDp);
+        Icon icon = cache.get(key);
+        if (icon == null) {
+            // Two threads may render the same icon at once, the last one wins, which is harmless
+            Bitmap bitmap = render(color, label, sizeDp);
+            icon = new Icon(BitmapDescriptorFactory.fromBitmap(bitmap),
+                    bitmap.getRowBytes() * bitmap.getHeight());
+            cache.put(key, icon);
+        }
+        return icon.descriptor;
+    }
+
+    /**
+     * Returns the icon for a cluster of the given size. Large counts are bucketed ("50+") so a
+     * few icons serve every cluster.
+     */
+    public BitmapDescriptor getClusterIcon(int count) {
+        return getIcon(CLUSTER_COLOR, clusterLabel(count), CLUSTER_SIZE_DP);
+    }
+
+    public int getHitCount() {
+        return cache.hitCount();
+    }
+
+    public int getMissCount() {
+        return cache.missCount();
+    }
+
+    public int getEvictionCount() {
+        return cache.evictionCount();
+    }
+
+    public int getSizeBytes() {
+        return cache.size();
+    }
+
+    public int getMaxSizeBytes() {
+        return cache.maxSize();
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    @Override
+    public String toString() {
+        return "MarkerIconCache[hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + ", bytes=" + getSizeBytes() + "/"
+                + getMaxSizeBytes() + "]";
+    }
+
+    static String clusterLabel(int count) {
+        if (count < CLUSTER_BUCKETS[0]) {
+            return String.valueOf(count);
+        }
+        int bucket = CLUSTER_BUCKETS[0];
+        for (int size : CLUSTER_BUCKETS) {
+            if (count >= size) {
+                bucket = size;
+            }
+        }
+        return bucket + "+";
+    }
+
+    private Bitmap render(int color, String label, int sizeDp) {
+        int size = Math.max(1, Math.round(sizeDp * density));
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        float radius = size / 2f;
+
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.WHITE);
+        canvas.drawCircle(radius, radius, radius, paint);
+        paint.setColor(color);
+        canvas.drawCircle(radius, radius, radius * 0.85f, paint);
+
+        if (label.length() > 0) {
+            paint.setColor(Color.WHITE);
+            paint.setTextAlign(Paint.Align.CENTER);
+            paint.setTextSize(size * (label.length() > 3 ? 0.3f : 0.4f));
+            Rect textBounds = new Rect();
+            paint.getTextBounds(label, 0, label.length(), textBounds);
+            canvas.drawText(label, radius, radius + textBounds.height() / 2f, paint);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,325 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+
+import java.util.Arrays;
+
+/**
+ * Moves many markers smoothly with a single frame callback, for example the vehicles of a
+ * fleet.
+ * <p>
+ * Each marker is a slot in primitive arrays holding where its current move starts and ends and
+ * when. While any marker is moving, one {@link FrameClock} callback interpolates all of them.
+ * {@link Marker#setPosition} is only called when the marker is in view and has moved at least
+ * {@link #DEFAULT_MIN_MOVE_DP} on screen since it was last drawn. At the end of a move the
+ * marker is always put on its final position. {@link LocationActivity} creates one per map in
+ * {@code onLocationMapReady}. Must be used from the main thread.
+ */
+public class MarkerMotionEngine implements FrameClock.FrameCallback,
+        GoogleMap.OnCameraMoveListener, GoogleMap.OnCameraIdleListener {
+
+    public static final long DEFAULT_DURATION_MS = 1000;
+
+    /**
+     * Movement on screen below which a marker is not redrawn.
+     */
+    public static final double DEFAULT_MIN_MOVE_DP = 1;
+
+    // Fraction of the visible region added on every side, so markers entering the view are
+    // already in place
+    private static final double VIEWPORT_MARGIN = 0.1;
+
+    private static final int MISSING = -1;
+
+    private final MapCameraDispatcher cameraDispatcher;
+    private final GoogleMap googleMap;
+
+    private final IntIntMap slotOfId = new IntIntMap();
+    private int count;
+    private int[] ids = new int[16];
+    private Marker[] markers = new Marker[16];
+    private double[] startLatitudes = new double[16];
+    private double[] startLongitudes = new double[16];
+    private double[] endLatitudes = new double[16];
+    private double[] endLongitudes = new double[16];
+    private long[] startNanos = new long[16];
+    private long[] durationNanos = new long[16];
+    private boolean[] moving = new boolean[16];
+    // Normalized world coordinates of the position last set on the marker
+    private double[] drawnX = new double[16];
+    private double[] drawnY = new double[16];
+    private int movingCount;
+
+    private double minMoveDp = DEFAULT_MIN_MOVE_DP;
+    private boolean rotateToHeading = false;
+    private boolean framePosted = false;
+
+    // Refreshed when the camera moves
+    private boolean cameraDirty = true;
+    private GeoBounds visibleBounds;
+    private double worldSizeDp;
+
+    private long frameCount;
+    private long positionUpdates;
+    private long offScreenSkips;
+    private long belowThresholdSkips;
+
+    public MarkerMotionEngine(MapCameraDispatcher cameraDispatcher) {
+        this.cameraDispatcher = cameraDispatcher;
+        this.googleMap = cameraDispatcher.getMap();
+        cameraDispatcher.addOnCameraMoveListener(this);
+        cameraDispatcher.addOnCameraIdleListener(this);
+    }
+
+    public void setMinMoveDp(double minMoveDp) {
+        this.minMoveDp = minMoveDp;
+    }
+
+    /**
+     * Turns the markers towards where they are going at the start of every move, a flat marker
+     * icon is expected.
+     */
+    public void setRotateToHeading(boolean rotateToHeading) {
+        this.rotateToHeading = rotateToHeading;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getMovingCount() {
+        return movingCount;
+    }
+
+    /**
+     * Starts managing a marker already on the map at the given position, or replaces the
+     * marker of the id.
+     */
+    public void add(int id, Marker marker, double latitude, double longitude) {
+        int slot = slotOfId.get(id, MISSING);
+        if (slot == MISSING) {
+            ensureCapacity(count + 1);
+            slot = count++;
+            ids[slot] = id;
+            slotOfId.put(id, slot, MISSING);
+        } else if (moving[slot]) {
+            moving[slot] = false;
+            movingCount--;
+        }
+        markers[slot] = marker;
+        endLatitudes[slot] = latitude;
+        endLongitudes[slot] = longitude;
+        drawnX[slot] = GeoUtils.lonToX(longitude);
+        drawnY[slot] = GeoUtils.latToY(latitude);
+    }
+
+    public void moveTo(int id, double latitude, double longitude) {
+        moveTo(id, latitude, longitude, DEFAULT_DURATION_MS);
+    }
+
+    /**
+     * Moves a marker from where it is now, mid move included, to the position in the given
+     * time. Returns false if there is no marker with the id.
+     */
+    public boolean moveTo(int id, double latitude, double longitude, long durationMs) {
+        int slot = slotOfId.get(id, MISSING);
+        if (slot == MISSING) {
+            return false;
+        }
+        long now = System.nanoTime();
+        double fraction = fractionAt(slot, now);
+        double fromLatitude = interpolateLatitude(slot, fraction);
+        double fromLongitude = interpolateLongitude(slot, fraction);
+        startLatitudes[slot] = fromLatitude;
+        startLongitudes[slot] = fromLongitude;
+        endLatitudes[slot] = latitude;
+        endLongitudes[slot] = longitude;
+        startNanos[slot] = now;
+        durationNanos[slot] = Math.max(1, durationMs * 1000000L);
+        if (rotateToHeading && (fromLatitude != latitude || fromLongitude != longitude)) {
+            markers[slot].setRotation((float) GeoUtils.bearing(fromLatitude, fromLongitude,
+                    latitude, longitude));
+        }
+        if (!moving[slot]) {
+            moving[slot] = true;
+            movingCount++;
+        }
+        if (!framePosted) {
+            framePosted = true;
+            FrameClock.getInstance().postFrameCallback(this);
+        }
+        return true;
+    }
+
+    /**
+     * Stops managing a marker, it stays on the map where it is. Returns it, or null if there is
+     * no marker with the id.
+     */
+    public Marker remove(int id) {
+        int slot = slotOfId.remove(id, MISSING);
+        if (slot == MISSING) {
+            return null;
+        }
+        Marker marker = markers[slot];
+        if (moving[slot]) {
+            movingCount--;
+        }
+        // The last slot takes the place of the removed one
+        int last = --count;
+        if (slot != last) {
+            ids[slot] = ids[last];
+            markers[slot] = markers[last];
+            startLatitudes[slot] = startLatitudes[last];
+            startLongitudes[slot] = startLongitudes[last];
+            endLatitudes[slot] = endLatitudes[last];
+            endLongitudes[slot] = endLongitudes[last];
+            startNanos[slot] = startNanos[last];
+            durationNanos[slot] = durationNanos[last];
+            moving[slot] = moving[last];
+            drawnX[slot] = drawnX[last];
+            drawnY[slot] = drawnY[last];
+            slotOfId.put(ids[slot], slot, MISSING);
+        }
+        markers[last] = null;
+        moving[last] = false;
+        return marker;
+    }
+
+    /**
+     * Stops managing every marker, they stay on the map.
+     */
+    public void clear() {
+        Arrays.fill(markers, 0, count, null);
+        Arrays.fill(moving, 0, count, false);
+        slotOfId.clear();
+        count = 0;
+        movingCount = 0;
+    }
+
+    public void destroy() {
+        clear();
+        // Also when no frame is posted, so the clock never keeps a destroyed engine
+        framePosted = false;
+        FrameClock.getInstance().removeFrameCallback(this);
+        cameraDispatcher.removeOnCameraMoveListener(this);
+        cameraDispatcher.removeOnCameraIdleListener(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        framePosted = false;
+        if (movingCount == 0) {
+            return;
+        }
+        long start = FrameMonitor.begin(JankStats.OP_OVERLAY_UPDATE);
+        frameCount++;
+        if (cameraDirty) {
+            cameraDirty = false;
+            visibleBounds = cameraDispatcher.getVisibleBounds().pad(VIEWPORT_MARGIN);
+            worldSizeDp = GeoUtils.worldSize(googleMap.getCameraPosition().zoom);
+        }
+        double minMove = minMoveDp / worldSizeDp;
+        for (int slot = 0; slot < count; slot++) {
+            if (!moving[slot]) {
+                continue;
+            }
+            double fraction = fractionAt(slot, frameTimeNanos);
+            boolean finished = fraction >= 1;
+            double latitude = interpolateLatitude(slot, fraction);
+            double longitude = interpolateLongitude(slot, fraction);
+            if (finished) {
+                moving[slot] = false;
+                movingCount--;
+            } else if (!visibleBounds.contains(latitude, longitude)) {
+                offScreenSkips++;
+                continue;
+            }
+            double x = GeoUtils.lonToX(longitude);
+            double y = GeoUtils.latToY(latitude);
+            double dx = Math.abs(x - drawnX[slot]);
+            // The shorter way around the world
+            dx = Math.min(dx, 1 - dx);
+            if (dx < minMove && Math.abs(y - drawnY[slot]) < minMove
+                    && (!finished || (dx == 0 && y == drawnY[slot]))) {
+                belowThresholdSkips++;
+                continue;
+            }
+            drawnX[slot] = x;
+            drawnY[slot] = y;
+            markers[slot].setPosition(new LatLng(latitude, longitude));
+            positionUpdates++;
+        }
+        FrameMonitor.end(JankStats.OP_OVERLAY_UPDATE, start);
+        if (movingCount > 0) {
+            framePosted = true;
+            FrameClock.getInstance().postFrameCallback(this);
+        }
+    }
+
+    private double fractionAt(int slot, long nanos) {
+        if (!moving[slot]) {
+            return 1;
+        }
+        double fraction = (double) (nanos - startNanos[slot]) / durationNanos[slot];
+        return Math.max(0, Math.min(1, fraction));
+    }
+
+    private double interpolateLatitude(int slot, double fraction) {
+        if (fraction >= 1) {
+            return endLatitudes[slot];
+        }
+        return startLatitudes[slot] + (endLatitudes[slot] - startLatitudes[slot]) * fraction;
+    }
+
+    private double interpolateLongitude(int slot, double fraction) {
+        if (fraction >= 1) {
+            return endLongitudes[slot];
+        }
+        double delta = endLongitudes[slot] - startLongitudes[slot];
+        // Across the antimeridian the short way
+        if (delta > 180) {
+            delta -= 360;
+        } else if (delta < -180) {
+            delta += 360;
+        }
+        return GeoBounds.wrapLongitude(startLongitudes[slot] + delta * fraction);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int size = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, size);
+        markers = Arrays.copyOf(markers, size);
+        startLatitudes = Arrays.copyOf(startLatitudes, size);
+        startLongitudes = Arrays.copyOf(startLongitudes, size);
+        endLatitudes = Arrays.copyOf(endLatitudes, size);
+        endLongitudes = Arrays.copyOf(endLongitudes, size);
+        startNanos = Arrays.copyOf(startNanos, size);
+        durationNanos = Arrays.copyOf(durationNanos, size);
+        moving = Arrays.copyOf(moving, size);
+        drawnX = Arrays.copyOf(drawnX, size);
+        drawnY = Arrays.copyOf(drawnY, size);
+    }
+
+    @Override
+    public void onCameraMove() {
+        cameraDirty = true;
+    }
+
+    @Override
+    public void onCameraIdle() {
+        cameraDirty = true;
+    }
+
+    @Override
+    public String toString() {
+        return "MarkerMotionEngine[markers=" + count + ", moving=" + movingCount
+                + ", frames=" + frameCount + ", updates=" + positionUpdates
+                + ", offScreen=" + offScreenSkips + ", belowThreshold=" + belowThresholdSkips
+                + "]";
+    }
+}
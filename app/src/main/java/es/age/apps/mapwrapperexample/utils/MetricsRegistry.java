@@ -0,0 +1,193 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named counters and {@link LatencyHistogram}s of the map wrapper, shared by the whole process.
+ * <p>
+ * Looking a metric up by name registers it on first use. Recording into a counter or a
+ * histogram never locks nor allocates, so metrics can be kept on the main thread and in frame
+ * callbacks; hold on to the returned object in hot paths. {@link #snapshot} copies every
+ * metric, for example to ship them to a telemetry backend as {@link Snapshot#toJson}.
+ */
+public class MetricsRegistry {
+
+    public static final String LATENCY_PLAY_SERVICES_CHECK = "startup.playServicesCheck";
+    public static final String LATENCY_API_CONNECT = "startup.apiConnect";
+    public static final String LATENCY_MAP_READY = "startup.mapReady";
+    public static final String LATENCY_MAP_READY_COLD = "startup.mapReady.cold";
+    public static final String LATENCY_MAP_READY_PREWARMED = "startup.mapReady.prewarmed";
+    public static final String LATENCY_MAP_READY_WARM = "startup.mapReady.warm";
+    public static final String LATENCY_MAPS_INITIALIZE = "startup.mapsInitialize";
+    public static final String LATENCY_FIRST_FIX = "startup.firstFix";
+    public static final String LATENCY_CAMERA_ANIMATION = "camera.animation";
+    public static final String LATENCY_MARKER_BATCH = "markers.batch";
+    public static final String LATENCY_MARKER_FRAME = "markers.frame";
+    public static final String LATENCY_FRAME = "frames.interval";
+
+    public static final String COUNT_FIXES = "location.fixes";
+    public static final String COUNT_FIXES_REJECTED = "location.fixesRejected";
+    public static final String COUNT_CAMERA_GESTURES = "camera.gestures";
+    public static final String COUNT_MARKERS_ADDED = "markers.added";
+
+    private static MetricsRegistry instance;
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms =
+            new ConcurrentHashMap<>();
+
+    public static synchronized MetricsRegistry getInstance() {
+        if (instance == null) {
+            instance = new MetricsRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * A monotonic count.
+     */
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Copies every metric. With {@code reset}, histograms are cleared as they are copied, for
+     * exporting one interval at a time; counters keep counting, export their difference.
+     */
+    public Snapshot snapshot(boolean reset) {
+        TreeMap<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().get());
+        }
+        TreeMap<String, LatencyHistogram.Snapshot> histogramValues = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            histogramValues.put(entry.getKey(), entry.getValue().snapshot(reset));
+        }
+        return new Snapshot(System.currentTimeMillis(), counterValues, histogramValues);
+    }
+
+    /**
+     * Values of every metric at one point in time, sorted by name.
+     */
+    public static final class Snapshot {
+        public final long timeMs;
+        public final Map<String, Long> counters;
+        public final Map<String, LatencyHistogram.Snapshot> histograms;
+
+        Snapshot(long timeMs, Map<String, Long> counters,
+                 Map<String, LatencyHistogram.Snapshot> histograms) {
+            this.timeMs = timeMs;
+            this.counters = Collections.unmodifiableMap(counters);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+
+        /**
+         * The snapshot as a JSON object. Durations are in microseconds:
+         * <pre>
+         * {"time":1475402400000,"counters":{"location.fixes":12},
+         *  "histograms":{"startup.apiConnect":{"count":1,"mean":8300,"p50":8191,...}}}
+         * </pre>
+         */
+        public String toJson() {
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"time\":").append(timeMs).append(",\"counters\":{");
+            boolean first = true;
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendName(json, entry.getKey()).append(entry.getValue());
+            }
+            json.append("},\"histograms\":{");
+            first = true;
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry : histograms.entrySet()) {
+                LatencyHistogram.Snapshot histogram = entry.getValue();
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendName(json, entry.getKey())
+                        .append("{\"count\":").append(histogram.getCount())
+                        .append(",\"mean\":").append(histogram.getMeanNanos() / 1000)
+                        .append(",\"p50\":").append(histogram.getPercentileNanos(0.5) / 1000)
+                        .append(",\"p90\":").append(histogram.getPercentileNanos(0.9) / 1000)
+                        .append(",\"p99\":").append(histogram.getPercentileNanos(0.99) / 1000)
+                        .append(",\"max\":").append(histogram.getMaxNanos() / 1000)
+                        .append('}');
+            }
+            return json.append("}}").toString();
+        }
+
+        private static StringBuilder appendName(StringBuilder json, String name) {
+            json.append('"');
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            return json.append("\":");
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("MetricsRegistry[");
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                builder.append(entry.getKey()).append('=').append(entry.getValue()).append(", ");
+            }
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry : histograms.entrySet()) {
+                builder.append(entry.getKey()).append("={").append(entry.getValue())
+                        .append("}, ");
+            }
+            if (builder.charAt(builder.length() - 1) == ' ') {
+                builder.setLength(builder.length() - 2);
+            }
+            return builder.append(']').toString();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Serves map tiles from a local {@link TilePack}, so the map works without network.
+ * <p>
+ * The pack is opened on the first request, on the map's tile thread, and read through memory
+ * mapped I/O. The most recently served tiles are kept in a byte bounded LRU, so panning back
+ * and forth does not copy them again. Tiles missing from the pack are returned as
+ * {@link TileProvider#NO_TILE}, letting the base map show through.
+ */
+public class OfflineTileProvider implements TileProvider {
+
+    public static final int DEFAULT_CACHE_BYTES = 4 * 1024 * 1024;
+
+    private String TAG = "OfflineTileProvider";
+
+    private final File packFile;
+    private final LruCache<Long, byte[]> cache;
+
+    private TilePack pack;
+    private boolean failed = false;
+
+    public OfflineTileProvider(File packFile) {
+        this(packFile, DEFAULT_CACHE_BYTES);
+    }
+
+    public OfflineTileProvider(File packFile, int cacheBytes) {
+        this.packFile = packFile;
+        cache = new LruCache<Long, byte[]>(cacheBytes) {
+            @Override
+            protected int sizeOf(Long key, byte[] value) {
+                return value.length;
+            }
+        };
+    }
+
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        TilePack tilePack = getPack();
+        if (tilePack == null) {
+            return NO_TILE;
+        }
+        long key = TilePack.key(zoom, x, y);
+        byte[] data = cache.get(key);
+        if (data == null) {
+            data = tilePack.getTile(zoom, x, y);
+            if (data == null) {
+                return NO_TILE;
+            }
+            cache.put(key, data);
+        }
+        return new Tile(tilePack.getTileSize(), tilePack.getTileSize(), data);
+    }
+
+    /**
+     * Closes the pack, tiles requested afterwards are missing.
+     */
+    public synchronized void close() {
+        cache.evictAll();
+        failed = true;
+        if (pack != null) {
+            try {
+                pack.close();
+            } catch (IOException e) {
+                Log.d(TAG, "close: " + e.getMessage());
+            }
+            pack = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OfflineTileProvider[" + packFile.getName() + ", hits=" + cache.hitCount()
+                + ", misses=" + cache.missCount() + ", bytes=" + cache.size() + "]";
+    }
+
+    private synchronized TilePack getPack() {
+        if (pack == null && !failed) {
+            try {
+                pack = new TilePack(packFile);
+                Log.d(TAG, "getPack: " + pack.getTileCount() + " tiles in " + packFile);
+            } catch (IOException e) {
+                Log.d(TAG, "getPack: " + e.getMessage());
+                failed = true;
+            }
+        }
+        return pack;
+    }
+}
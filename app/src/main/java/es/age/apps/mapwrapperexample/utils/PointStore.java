@@ -0,0 +1,352 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ConcurrentModificationException;
+
+/**
+ * Columnar storage for large point sets: latitude, longitude, time, an app defined attribute and
+ * the id of every point live in parallel primitive arrays, so a million points are a few dozen
+ * arrays instead of a million objects.
+ * <p>
+ * Columns grow one chunk at a time, without copying what is already stored. Every point gets an
+ * id that stays the same for as long as it is stored. Removing a point only marks its row; the
+ * rows are compacted, moving points without changing their ids, by {@link #compact} or when a
+ * new chunk would otherwise be needed. A {@link Cursor} reads the columns in place, and
+ * {@link LatLng}s are only built by {@link #toLatLng} for the points being drawn. Not thread
+ * safe.
+ */
+public class PointStore {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    // Id column of a removed row
+    private static final int REMOVED = -1;
+    // Compact instead of growing once this fraction of the rows is removed
+    private static final int COMPACT_DIVISOR = 4;
+
+    private final int chunkSize;
+    private final int chunkShift;
+    private final int chunkMask;
+
+    private double[][] latitudes = new double[4][];
+    private double[][] longitudes = new double[4][];
+    private long[][] times = new long[4][];
+    private int[][] attributes = new int[4][];
+    private int[][] ids = new int[4][];
+    private int chunkCount;
+
+    // Rows in use, removed ones included
+    private int rowCount;
+    private int removedCount;
+    private int nextId;
+    private final IntIntMap rowOfId = new IntIntMap();
+    // Changes when rows move, so cursors notice
+    private int compactions;
+
+    public PointStore() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize points per chunk, a power of two
+     */
+    public PointStore(int chunkSize) {
+        if (chunkSize <= 0 || (chunkSize & (chunkSize - 1)) != 0) {
+            throw new IllegalArgumentException("Chunk size must be a power of two: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+        chunkMask = chunkSize - 1;
+    }
+
+    /**
+     * Number of points stored.
+     */
+    public int size() {
+        return rowCount - removedCount;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public boolean contains(int id) {
+        return rowOfId.containsKey(id);
+    }
+
+    public int add(double latitude, double longitude) {
+        return add(latitude, longitude, 0, 0);
+    }
+
+    /**
+     * Stores a point and returns its id.
+     */
+    public int add(double latitude, double longitude, long timeMs, int attribute) {
+        if (rowCount == chunkCount << chunkShift) {
+            if (removedCount >= rowCount / COMPACT_DIVISOR && removedCount > 0) {
+                compact();
+            } else {
+                addChunk();
+            }
+        }
+        int id = nextId++;
+        int row = rowCount++;
+        int chunk = row >>> chunkShift;
+        int offset = row & chunkMask;
+        latitudes[chunk][offset] = latitude;
+        longitudes[chunk][offset] = longitude;
+        times[chunk][offset] = timeMs;
+        attributes[chunk][offset] = attribute;
+        ids[chunk][offset] = id;
+        rowOfId.put(id, row, REMOVED);
+        return id;
+    }
+
+    /**
+     * Moves a point, returns false if there is no point with the id.
+     */
+    public boolean move(int id, double latitude, double longitude) {
+        int row = rowOfId.get(id, REMOVED);
+        if (row == REMOVED) {
+            return false;
+        }
+        latitudes[row >>> chunkShift][row & chunkMask] = latitude;
+        longitudes[row >>> chunkShift][row & chunkMask] = longitude;
+        return true;
+    }
+
+    public boolean setAttribute(int id, int attribute) {
+        int row = rowOfId.get(id, REMOVED);
+        if (row == REMOVED) {
+            return false;
+        }
+        attributes[row >>> chunkShift][row & chunkMask] = attribute;
+        return true;
+    }
+
+    public boolean remove(int id) {
+        int row = rowOfId.remove(id, REMOVED);
+        if (row == REMOVED) {
+            return false;
+        }
+        ids[row >>> chunkShift][row & chunkMask] = REMOVED;
+        removedCount++;
+        return true;
+    }
+
+    public void clear() {
+        rowCount = 0;
+        removedCount = 0;
+        rowOfId.clear();
+        compactions++;
+    }
+
+    public double getLatitude(int id) {
+        int row = rowOf(id);
+        return latitudes[row >>> chunkShift][row & chunkMask];
+    }
+
+    public double getLongitude(int id) {
+        int row = rowOf(id);
+        return longitudes[row >>> chunkShift][row & chunkMask];
+    }
+
+    public long getTime(int id) {
+        int row = rowOf(id);
+        return times[row >>> chunkShift][row & chunkMask];
+    }
+
+    public int getAttribute(int id) {
+        int row = rowOf(id);
+        return attributes[row >>> chunkShift][row & chunkMask];
+    }
+
+    /**
+     * Position of a point for the map, allocates a new {@link LatLng}: only call it for the
+     * points being drawn.
+     */
+    public LatLng toLatLng(int id) {
+        int row = rowOf(id);
+        return new LatLng(latitudes[row >>> chunkShift][row & chunkMask],
+                longitudes[row >>> chunkShift][row & chunkMask]);
+    }
+
+    private int rowOf(int id) {
+        int row = rowOfId.get(id, REMOVED);
+        if (row == REMOVED) {
+            throw new IllegalArgumentException("No point with id " + id);
+        }
+        return row;
+    }
+
+    /**
+     * Moves the points down over the removed rows, keeping their ids and their order, and frees
+     * the chunks left empty but one.
+     */
+    public void compact() {
+        if (removedCount == 0) {
+            return;
+        }
+        int write = 0;
+        for (int read = 0; read < rowCount; read++) {
+            int readChunk = read >>> chunkShift;
+            int readOffset = read & chunkMask;
+            int id = ids[readChunk][readOffset];
+            if (id == REMOVED) {
+                continue;
+            }
+            if (write != read) {
+                int writeChunk = write >>> chunkShift;
+                int writeOffset = write & chunkMask;
+                latitudes[writeChunk][writeOffset] = latitudes[readChunk][readOffset];
+                longitudes[writeChunk][writeOffset] = longitudes[readChunk][readOffset];
+                times[writeChunk][writeOffset] = times[readChunk][readOffset];
+                attributes[writeChunk][writeOffset] = attributes[readChunk][readOffset];
+                ids[writeChunk][writeOffset] = id;
+                rowOfId.put(id, write, REMOVED);
+            }
+            write++;
+        }
+        rowCount = write;
+        removedCount = 0;
+        compactions++;
+        int usedChunks = (rowCount + chunkMask) >>> chunkShift;
+        while (chunkCount > usedChunks + 1) {
+            chunkCount--;
+            latitudes[chunkCount] = null;
+            longitudes[chunkCount] = null;
+            times[chunkCount] = null;
+            attributes[chunkCount] = null;
+            ids[chunkCount] = null;
+        }
+    }
+
+    private void addChunk() {
+        if (chunkCount == ids.length) {
+            int capacity = chunkCount * 2;
+            latitudes = copyOf(latitudes, capacity);
+            longitudes = copyOf(longitudes, capacity);
+            times = copyOf(times, capacity);
+            attributes = copyOf(attributes, capacity);
+            ids = copyOf(ids, capacity);
+        }
+        latitudes[chunkCount] = new double[chunkSize];
+        longitudes[chunkCount] = new double[chunkSize];
+        times[chunkCount] = new long[chunkSize];
+        attributes[chunkCount] = new int[chunkSize];
+        ids[chunkCount] = new int[chunkSize];
+        chunkCount++;
+    }
+
+    private static double[][] copyOf(double[][] chunks, int capacity) {
+        double[][] copy = new double[capacity][];
+        System.arraycopy(chunks, 0, copy, 0, chunks.length);
+        return copy;
+    }
+
+    private static long[][] copyOf(long[][] chunks, int capacity) {
+        long[][] copy = new long[capacity][];
+        System.arraycopy(chunks, 0, copy, 0, chunks.length);
+        return copy;
+    }
+
+    private static int[][] copyOf(int[][] chunks, int capacity) {
+        int[][] copy = new int[capacity][];
+        System.arraycopy(chunks, 0, copy, 0, chunks.length);
+        return copy;
+    }
+
+    /**
+     * Copies the ids and positions of every point into the arrays, which must hold
+     * {@link #size()} values, for example for {@link SpatialIndex#bulkLoad}. Returns the number
+     * of points copied.
+     */
+    public int copyTo(int[] outIds, double[] outLatitudes, double[] outLongitudes) {
+        int count = 0;
+        for (int row = 0; row < rowCount; row++) {
+            int chunk = row >>> chunkShift;
+            int offset = row & chunkMask;
+            if (ids[chunk][offset] != REMOVED) {
+                outIds[count] = ids[chunk][offset];
+                outLatitudes[count] = latitudes[chunk][offset];
+                outLongitudes[count] = longitudes[chunk][offset];
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A cursor on the points, in the order they were added. Points can be moved and removed
+     * while iterating; adding one may compact the rows, which makes the cursor throw.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Reads the point it is on straight from the columns. Reuse one with {@link #reset}.
+     */
+    public final class Cursor {
+        private int row = -1;
+        private int chunk;
+        private int offset;
+        private int expectedCompactions = compactions;
+
+        public void reset() {
+            row = -1;
+            expectedCompactions = compactions;
+        }
+
+        /**
+         * Moves to the next point, returns false after the last one.
+         */
+        public boolean moveToNext() {
+            if (expectedCompactions != compactions) {
+                throw new ConcurrentModificationException("Points moved by a compaction");
+            }
+            while (++row < rowCount) {
+                chunk = row >>> chunkShift;
+                offset = row & chunkMask;
+                if (ids[chunk][offset] != REMOVED) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public int getId() {
+            return ids[chunk][offset];
+        }
+
+        public double getLatitude() {
+            return latitudes[chunk][offset];
+        }
+
+        public double getLongitude() {
+            return longitudes[chunk][offset];
+        }
+
+        public long getTime() {
+            return times[chunk][offset];
+        }
+
+        public int getAttribute() {
+            return attributes[chunk][offset];
+        }
+
+        /**
+         * Allocates, see {@link PointStore#toLatLng}.
+         */
+        public LatLng toLatLng() {
+            return new LatLng(latitudes[chunk][offset], longitudes[chunk][offset]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PointStore[size=" + size() + ", removed=" + removedCount + ", chunks=" + chunkCount
+                + "x" + chunkSize + "]";
+    }
+}
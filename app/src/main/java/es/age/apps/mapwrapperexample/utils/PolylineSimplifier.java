@@ -0,0 +1,180 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.util.Arrays;
+
+/**
+ * Douglas-Peucker simplification of a polyline for every zoom level, with the tolerance given
+ * in screen pixels.
+ * <p>
+ * The points are projected to world coordinates once, and a single Douglas-Peucker pass
+ * records for every point the largest tolerance at which it is still kept. The level of
+ * detail of a zoom is then a linear filter over that array instead of a new simplification,
+ * and each level is cached the first time it is asked for. Levels are nested: a point kept at
+ * a zoom is kept at every higher zoom. The pass is iterative on primitive arrays, so it can
+ * run on a background thread on tracks of hundreds of thousands of points.
+ */
+public class PolylineSimplifier {
+
+    public static final int MAX_ZOOM = 21;
+
+    public static final double DEFAULT_TOLERANCE_PX = 1.5;
+
+    private final int size;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] x;
+    private final double[] y;
+    // Largest tolerance, in world units, at which each point is kept
+    private final float[] importance;
+
+    private final double tolerancePx;
+    private final float density;
+    private final int[][] levels = new int[MAX_ZOOM + 1][];
+
+    /**
+     * @param tolerancePx maximum distance in pixels between the simplified and the original line
+     * @param density     pixels per dp of the screen the line is drawn on
+     */
+    public PolylineSimplifier(double[] latitudes, double[] longitudes, int size,
+                              double tolerancePx, float density) {
+        this.size = size;
+        this.latitudes = Arrays.copyOf(latitudes, size);
+        this.longitudes = Arrays.copyOf(longitudes, size);
+        this.tolerancePx = tolerancePx;
+        this.density = density;
+        x = new double[size];
+        y = new double[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = GeoUtils.lonToX(longitudes[i]);
+            y[i] = GeoUtils.latToY(latitudes[i]);
+        }
+        importance = new float[size];
+        computeImportance();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    public double getX(int index) {
+        return x[index];
+    }
+
+    public double getY(int index) {
+        return y[index];
+    }
+
+    /**
+     * Tolerance in world units of a tolerance in pixels at the given zoom.
+     */
+    public static double worldTolerance(double zoom, double tolerancePx, float density) {
+        return tolerancePx / (GeoUtils.worldSize(zoom) * density);
+    }
+
+    /**
+     * Returns the indices of the points kept at the given zoom, in order. The array is cached
+     * and shared, do not modify it.
+     */
+    public int[] getLevel(int zoom) {
+        zoom = Math.max(0, Math.min(MAX_ZOOM, zoom));
+        synchronized (levels) {
+            if (levels[zoom] == null) {
+                levels[zoom] = simplify(worldTolerance(zoom, tolerancePx, density));
+            }
+            return levels[zoom];
+        }
+    }
+
+    /**
+     * Returns the indices of the points kept with a tolerance in world units, in order.
+     */
+    public int[] simplify(double tolerance) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (importance[i] > tolerance) {
+                count++;
+            }
+        }
+        int[] indices = new int[count];
+        int next = 0;
+        for (int i = 0; i < size; i++) {
+            if (importance[i] > tolerance) {
+                indices[next++] = i;
+            }
+        }
+        return indices;
+    }
+
+    private void computeImportance() {
+        if (size == 0) {
+            return;
+        }
+        importance[0] = Float.POSITIVE_INFINITY;
+        importance[size - 1] = Float.POSITIVE_INFINITY;
+        // Pending ranges and the importance of the point that split them
+        int[] starts = new int[64];
+        int[] ends = new int[64];
+        float[] limits = new float[64];
+        int top = 0;
+        starts[0] = 0;
+        ends[0] = size - 1;
+        limits[0] = Float.POSITIVE_INFINITY;
+        top++;
+        while (top > 0) {
+            top--;
+            int start = starts[top];
+            int end = ends[top];
+            float limit = limits[top];
+            if (end - start < 2) {
+                continue;
+            }
+            int farthest = -1;
+            double maxDistance = -1;
+            for (int i = start + 1; i < end; i++) {
+                double distance = segmentDistanceSquared(i, start, end);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+            // A point can not outlive the point whose split created its range
+            float value = Math.min(limit, (float) Math.sqrt(maxDistance));
+            importance[farthest] = value;
+            if (top + 2 > starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+                ends = Arrays.copyOf(ends, ends.length * 2);
+                limits = Arrays.copyOf(limits, limits.length * 2);
+            }
+            starts[top] = start;
+            ends[top] = farthest;
+            limits[top] = value;
+            top++;
+            starts[top] = farthest;
+            ends[top] = end;
+            limits[top] = value;
+            top++;
+        }
+    }
+
+    private double segmentDistanceSquared(int point, int start, int end) {
+        double dx = x[end] - x[start];
+        double dy = y[end] - y[start];
+        double px = x[point] - x[start];
+        double py = y[point] - y[start];
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared > 0) {
+            double t = Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+            px -= t * dx;
+            py -= t * dy;
+        }
+        return px * px + py * py;
+    }
+}
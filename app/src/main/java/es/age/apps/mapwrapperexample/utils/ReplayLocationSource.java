@@ -0,0 +1,127 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Feeds a recorded {@link LocationTrace} into a {@link LocationUpdateEngine} as if the fixes
+ * came from the FusedLocationApi, so the filter, the update policy and every listener handle
+ * them like live ones.
+ * <p>
+ * A {@link TraceReplayer} paces the fixes on its own thread and every fix is handed to the
+ * engine on the main thread. The latency in the report therefore includes the wait in the main
+ * thread queue, the same wait a live fix has. Must be used from the main thread.
+ */
+public class ReplayLocationSource {
+
+    public static final String PROVIDER = "replay";
+
+    private String TAG = "ReplayLocationSource";
+
+    public interface OnReplayFinishedListener {
+        public void onReplayFinished(TraceReplayer.Report report);
+    }
+
+    private final LocationUpdateEngine engine;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private TraceReplayer replayer;
+    private boolean running = false;
+
+    public ReplayLocationSource(LocationUpdateEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Starts replaying the trace, see {@link TraceReplayer#setSpeedUp} and
+     * {@link TraceReplayer#setBurstSize}. The listener is called on the main thread after the
+     * last fix has reached the engine, or after {@link #stop}. May be null.
+     */
+    public void start(LocationTrace trace, double speedUp, int burstSize,
+                      final OnReplayFinishedListener listener) {
+        stop();
+        EngineSink sink = new EngineSink();
+        final TraceReplayer current = new TraceReplayer(trace, sink);
+        // Set before the thread starts, so the replay thread sees it
+        sink.owner = current;
+        current.setSpeedUp(speedUp);
+        current.setBurstSize(burstSize);
+        current.setAsynchronous(true);
+        replayer = current;
+        running = true;
+        Log.d(TAG, "start: " + trace + " at " + speedUp + "x, bursts of " + burstSize);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    current.run();
+                } catch (InterruptedException e) {
+                    Log.d(TAG, "run: interrupted");
+                }
+                // Queued behind the fixes still waiting for the main thread
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (replayer == current) {
+                            running = false;
+                        }
+                        TraceReplayer.Report report = current.getReport();
+                        Log.d(TAG, "finished: " + report);
+                        if (listener != null) {
+                            listener.onReplayFinished(report);
+                        }
+                    }
+                });
+            }
+        }, "TraceReplayer");
+        thread.start();
+    }
+
+    /**
+     * Stops delivering fixes, the ones already posted still reach the engine.
+     */
+    public void stop() {
+        if (replayer != null) {
+            replayer.stop();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Report of the current or last replay, or null if none was started.
+     */
+    public TraceReplayer.Report getReport() {
+        return replayer == null ? null : replayer.getReport();
+    }
+
+    // Hands every fix to the engine on the main thread
+    private class EngineSink implements TraceReplayer.FixSink {
+        TraceReplayer owner;
+
+        @Override
+        public void onFix(final int index, final double latitude, final double longitude,
+                          final float accuracy, final long timeMs) {
+            final TraceReplayer current = owner;
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Location location = new Location(PROVIDER);
+                    location.setLatitude(latitude);
+                    location.setLongitude(longitude);
+                    location.setTime(timeMs);
+                    if (accuracy > 0) {
+                        location.setAccuracy(accuracy);
+                    }
+                    engine.onLocationChanged(location);
+                    current.complete(index);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Addresses of positions, cached by geohash cell so nearby fixes and markers share one lookup.
+ * <p>
+ * Positions are quantized to a geohash of {@link #DEFAULT_PRECISION} characters, a cell of
+ * about 150m, and the cell is the cache key. Addresses are kept in a memory LRU and in a
+ * directory with one small file per cell, pruned to a maximum number of files. Lookups of a cell
+ * already being looked up wait for that lookup instead of starting another one. The disk and the
+ * {@link Backend} are only used on a small pool of lookup threads, and listeners are called on
+ * the callback executor. Positions without an address are cached too; failed lookups, the
+ * backend throwing any exception, are not.
+ */
+public class ReverseGeocoder {
+
+    public static final int DEFAULT_PRECISION = 7;
+    public static final int DEFAULT_MEMORY_ENTRIES = 256;
+    public static final int DEFAULT_DISK_ENTRIES = 4096;
+
+    private static final int THREADS = 2;
+    // Stored for a position without an address
+    private static final String NO_ADDRESS = "";
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Source of the addresses, for example the platform geocoder.
+     */
+    public interface Backend {
+        /**
+         * Looks an address up, blocking.
+         *
+         * @return the address, or null if the position has none
+         * @throws IOException if the lookup failed and may succeed later
+         */
+        public String lookup(double latitude, double longitude) throws IOException;
+    }
+
+    public interface OnAddressListener {
+        /**
+         * @param address the address, or null if there is none or the lookup failed
+         */
+        public void onAddress(String address);
+    }
+
+    private final Backend backend;
+    private final File directory;
+    private final Executor callbackExecutor;
+    private final int precision;
+    private final int maxDiskEntries;
+    private final ExecutorService executor;
+
+    // Guarded by this, like the lookups in progress
+    private final LinkedHashMap<String, String> memory;
+    private final HashMap<String, List<OnAddressListener>> inFlight = new HashMap<>();
+
+    // Only used on the lookup threads, guarded by the directory
+    private int diskEntries = -1;
+
+    private final AtomicInteger memoryHits = new AtomicInteger();
+    private final AtomicInteger diskHits = new AtomicInteger();
+    private final AtomicInteger backendLookups = new AtomicInteger();
+    private final AtomicInteger coalesced = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * @param directory        directory of the disk cache, null to only keep addresses in memory
+     * @param callbackExecutor executor the listeners are called on
+     */
+    public ReverseGeocoder(Backend backend, File directory, Executor callbackExecutor) {
+        this(backend, directory, callbackExecutor, DEFAULT_PRECISION, DEFAULT_MEMORY_ENTRIES,
+                DEFAULT_DISK_ENTRIES);
+    }
+
+    public ReverseGeocoder(Backend backend, File directory, Executor callbackExecutor,
+                           int precision, final int maxMemoryEntries, int maxDiskEntries) {
+        this.backend = backend;
+        this.directory = directory;
+        this.callbackExecutor = callbackExecutor;
+        this.precision = precision;
+        this.maxDiskEntries = maxDiskEntries;
+        memory = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxMemoryEntries;
+            }
+        };
+        executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "geocoder-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Cache key of a position.
+     */
+    public String keyOf(double latitude, double longitude) {
+        return GeoUtils.geohash(latitude, longitude, precision);
+    }
+
+    /**
+     * Address of the cell of the position if it is in memory, without waiting. Returns null
+     * when it is not, or when the position has no address.
+     */
+    public synchronized String getCached(double latitude, double longitude) {
+        return toAddress(memory.get(keyOf(latitude, longitude)));
+    }
+
+    /**
+     * Looks the address of the cell of the position up, from memory, the disk or the backend,
+     * and passes it to the listener on the callback executor.
+     */
+    public void lookup(final double latitude, final double longitude,
+                       final OnAddressListener listener) {
+        final String key = keyOf(latitude, longitude);
+        synchronized (this) {
+            final String cached = memory.get(key);
+            if (cached != null) {
+                memoryHits.incrementAndGet();
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onAddress(toAddress(cached));
+                    }
+                });
+                return;
+            }
+            List<OnAddressListener> waiting = inFlight.get(key);
+            if (waiting != null) {
+                coalesced.incrementAndGet();
+                waiting.add(listener);
+                return;
+            }
+            waiting = new ArrayList<>(2);
+            waiting.add(listener);
+            inFlight.put(key, waiting);
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                resolve(key, latitude, longitude);
+            }
+        });
+    }
+
+    // Runs on a lookup thread
+    private void resolve(String key, double latitude, double longitude) {
+        String stored = null;
+        try {
+            stored = readDisk(key);
+            if (stored != null) {
+                diskHits.incrementAndGet();
+            } else {
+                backendLookups.incrementAndGet();
+                String address = backend.lookup(latitude, longitude);
+                stored = address == null ? NO_ADDRESS : address;
+                writeDisk(key, stored);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not cached, the next lookup of the cell tries again
+            stored = null;
+            failures.incrementAndGet();
+        } finally {
+            // Whatever happened, the lookups waiting for the cell get an answer
+            notifyWaiting(key, stored);
+        }
+    }
+
+    private void notifyWaiting(String key, String stored) {
+        final List<OnAddressListener> waiting;
+        synchronized (this) {
+            if (stored != null) {
+                memory.put(key, stored);
+            }
+            waiting = inFlight.remove(key);
+        }
+        final String address = toAddress(stored);
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (OnAddressListener listener : waiting) {
+                    listener.onAddress(address);
+                }
+            }
+        });
+    }
+
+    private static String toAddress(String stored) {
+        return stored == null || stored.isEmpty() ? null : stored;
+    }
+
+    private String readDisk(String key) {
+        if (directory == null) {
+            return null;
+        }
+        File file = new File(directory, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] bytes = new byte[(int) file.length()];
+                int read = 0;
+                while (read < bytes.length) {
+                    int count = in.read(bytes, read, bytes.length - read);
+                    if (count < 0) {
+                        return null;
+                    }
+                    read += count;
+                }
+                // Read entries count as recently used when pruning
+                file.setLastModified(System.currentTimeMillis());
+                return new String(bytes, CHARSET);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, String stored) {
+        if (directory == null) {
+            return;
+        }
+        synchronized (directory) {
+            if (diskEntries < 0) {
+                directory.mkdirs();
+                String[] names = directory.list();
+                diskEntries = names == null ? 0 : names.length;
+            }
+            // Written to a temporary file first, so a reader never sees half an entry
+            File file = new File(directory, key);
+            File temporary = new File(directory, key + ".tmp");
+            try {
+                OutputStream out = new FileOutputStream(temporary);
+                try {
+                    out.write(stored.getBytes(CHARSET));
+                } finally {
+                    out.close();
+                }
+                boolean existed = file.exists();
+                if (!temporary.renameTo(file)) {
+                    temporary.delete();
+                    return;
+                }
+                if (!existed && ++diskEntries > maxDiskEntries) {
+                    prune();
+                }
+            } catch (IOException e) {
+                temporary.delete();
+            }
+        }
+    }
+
+    // Deletes the least recently used quarter of the entries
+    private void prune() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long left = a.lastModified();
+                long right = b.lastModified();
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+        int remove = files.length - maxDiskEntries * 3 / 4;
+        for (int i = 0; i < remove; i++) {
+            files[i].delete();
+        }
+        String[] names = directory.list();
+        diskEntries = names == null ? 0 : names.length;
+    }
+
+    /**
+     * Stops the lookup threads, lookups in progress are not reported.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        int memoryEntries;
+        synchronized (this) {
+            memoryEntries = memory.size();
+        }
+        return "ReverseGeocoder[memory=" + memoryEntries + ", memoryHits=" + memoryHits
+                + ", diskHits=" + diskHits + ", lookups=" + backendLookups
+                + ", coalesced=" + coalesced + ", failures=" + failures + "]";
+    }
+}
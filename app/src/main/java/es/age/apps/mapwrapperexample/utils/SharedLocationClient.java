@@ -0,0 +1,151 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.LocationServices;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process wide location client shared by every {@link LocationActivity}.
+ * <p>
+ * Holds one {@link GoogleApiClient} and one {@link LocationUpdateEngine}, so going from one map
+ * screen to another keeps the connection, the last fix and the filter state. Users call
+ * {@link #acquire} when they need the client and {@link #release} when they are done. The
+ * client stays connected for {@link #KEEP_WARM_MS} after the last user leaves, so a screen that
+ * opens right after another one gets a connected client. Must be used from the main thread.
+ */
+public class SharedLocationClient implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+
+    public static final long KEEP_WARM_MS = 10 * 1000;
+
+    private static SharedLocationClient instance;
+
+    private String TAG = "SharedLocationClient";
+
+    private final GoogleApiClient client;
+    private final LocationUpdateEngine locationEngine;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final CopyOnWriteArrayList<GoogleApiClient.ConnectionCallbacks> connectionCallbacks =
+            new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<GoogleApiClient.OnConnectionFailedListener> failedListeners =
+            new CopyOnWriteArrayList<>();
+
+    private int users = 0;
+
+    private final Runnable disconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (users == 0) {
+                Log.d(TAG, "disconnect: no users left");
+                locationEngine.stop();
+                client.disconnect();
+            }
+        }
+    };
+
+    public static synchronized SharedLocationClient getInstance(Context context) {
+        if (instance == null) {
+            instance = new SharedLocationClient(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SharedLocationClient(Context context) {
+        client = new GoogleApiClient.Builder(context)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .addApi(LocationServices.API).build();
+        locationEngine = new LocationUpdateEngine(context);
+        // Smooth the fixes so the camera and the markers do not jump around
+        locationEngine.setLocationFilter(new LocationFilter());
+    }
+
+    public GoogleApiClient getClient() {
+        return client;
+    }
+
+    public LocationUpdateEngine getLocationEngine() {
+        return locationEngine;
+    }
+
+    public int getUserCount() {
+        return users;
+    }
+
+    /**
+     * Adds a user and connects the client if needed. The callbacks get onConnected once the
+     * client is connected, right after this call if it already is.
+     */
+    public void acquire(final GoogleApiClient.ConnectionCallbacks callbacks,
+                        GoogleApiClient.OnConnectionFailedListener failedListener) {
+        users++;
+        handler.removeCallbacks(disconnectRunnable);
+        connectionCallbacks.addIfAbsent(callbacks);
+        failedListeners.addIfAbsent(failedListener);
+        if (client.isConnected()) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (connectionCallbacks.contains(callbacks) && client.isConnected()) {
+                        callbacks.onConnected(null);
+                    }
+                }
+            });
+        } else if (!client.isConnecting()) {
+            client.connect();
+        }
+    }
+
+    /**
+     * Removes a user. The client is disconnected if no user comes back in
+     * {@link #KEEP_WARM_MS}.
+     */
+    public void release(GoogleApiClient.ConnectionCallbacks callbacks,
+                        GoogleApiClient.OnConnectionFailedListener failedListener) {
+        if (users == 0) {
+            return;
+        }
+        users--;
+        connectionCallbacks.remove(callbacks);
+        failedListeners.remove(failedListener);
+        if (users == 0) {
+            handler.postDelayed(disconnectRunnable, KEEP_WARM_MS);
+        }
+    }
+
+    @Override
+    public void onConnected(@Nullable Bundle bundle) {
+        Log.d(TAG, "onConnected: " + users + " users");
+        for (GoogleApiClient.ConnectionCallbacks callbacks : connectionCallbacks) {
+            callbacks.onConnected(bundle);
+        }
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        for (GoogleApiClient.ConnectionCallbacks callbacks : connectionCallbacks) {
+            callbacks.onConnectionSuspended(cause);
+        }
+        if (users > 0) {
+            client.connect();
+        }
+    }
+
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
+        for (GoogleApiClient.OnConnectionFailedListener listener : failedListeners) {
+            listener.onConnectionFailed(connectionResult);
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.util.Arrays;
+
+/**
+ * Point index for viewport and nearest neighbour queries, a bucket quadtree over latitude and
+ * longitude.
+ * <p>
+ * Points and tree nodes live in parallel primitive arrays instead of one object per point, so
+ * memory stays around 40 bytes per point and queries do not allocate. Points are identified by
+ * caller supplied int ids. All methods are synchronized.
+ */
+public class SpatialIndex {
+
+    private static final int LEAF_CAPACITY = 32;
+
+    private static final int MAX_DEPTH = 24;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Receives the points found by {@link #query}.
+     */
+    public interface PointVisitor {
+        public void visit(int id, double latitude, double longitude);
+    }
+
+    // Points by slot
+    private double[] latitudes;
+    private double[] longitudes;
+    private int[] ids;
+    private int[] nextInLeaf;
+    private int end;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private final IntIntMap slotsById;
+
+    // Nodes, the four children of a node are allocated together as one block
+    private double[] minLat;
+    private double[] minLon;
+    private double[] maxLat;
+    private double[] maxLon;
+    private int[] firstChild;
+    private int[] head;
+    private int[] count;
+    private int nodeEnd;
+    private int[] freeBlocks = new int[16];
+    private int freeBlockCount;
+
+    // Scratch space reused between queries
+    private int[] stack = new int[4 * MAX_DEPTH + 4];
+    private final int[] path = new int[MAX_DEPTH + 1];
+    private double[] nodeHeapKeys = new double[64];
+    private int[] nodeHeapValues = new int[64];
+    private double[] resultHeapKeys = new double[16];
+    private int[] resultHeapValues = new int[16];
+
+    public SpatialIndex() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public SpatialIndex(int expectedSize) {
+        int capacity = Math.max(INITIAL_CAPACITY, expectedSize);
+        slotsById = new IntIntMap(capacity);
+        allocatePoints(capacity);
+        allocateNodes(Math.max(16, capacity / LEAF_CAPACITY * 2));
+        clear();
+    }
+
+    public synchronized int size() {
+        return slotsById.size();
+    }
+
+    public synchronized boolean contains(int id) {
+        return slotsById.containsKey(id);
+    }
+
+    public synchronized void clear() {
+        slotsById.clear();
+        end = 0;
+        freeCount = 0;
+        nodeEnd = 1;
+        freeBlockCount = 0;
+        resetNode(0, -90, -180, 90, 180);
+    }
+
+    /**
+     * Replaces the content of the index with the first {@code size} points of the arrays. Storage
+     * is sized once for the whole set, so this is the fastest way to load a large data set.
+     */
+    public synchronized void bulkLoad(int[] pointIds, double[] pointLatitudes,
+                                      double[] pointLongitudes, int size) {
+        clear();
+        ensurePointCapacity(size);
+        ensureNodeCapacity(size / LEAF_CAPACITY * 2);
+        for (int i = 0; i < size; i++) {
+            insertLocked(pointIds[i], pointLatitudes[i], pointLongitudes[i]);
+        }
+    }
+
+    /**
+     * Adds a point, or moves it if the id is already in the index.
+     */
+    public synchronized void insert(int id, double latitude, double longitude) {
+        insertLocked(id, latitude, longitude);
+    }
+
+    /**
+     * Removes a point, returns false if the id was not in the index.
+     */
+    public synchronized boolean remove(int id) {
+        int slot = slotsById.remove(id, -1);
+        if (slot < 0) {
+            return false;
+        }
+        double lat = latitudes[slot];
+        double lon = longitudes[slot];
+
+        int node = 0;
+        int depth = 0;
+        while (true) {
+            path[depth] = node;
+            count[node]--;
+            if (firstChild[node] < 0) {
+                break;
+            }
+            node = firstChild[node] + quadrant(node, lat, lon);
+            depth++;
+        }
+        unlinkFromLeaf(node, slot);
+        if (depth > 0) {
+            collapse(path[depth - 1]);
+        }
+
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        return true;
+    }
+
+    /**
+     * Visits every point inside the bounds. {@code west} may be greater than {@code east} when
+     * the bounds cross the antimeridian. Returns the number of points visited.
+     */
+    public synchronized int query(double south, double west, double north, double east,
+                                  PointVisitor visitor) {
+        if (west > east) {
+            return queryLocked(south, west, north, 180, visitor)
+                    + queryLocked(south, -180, north, east, visitor);
+        }
+        return queryLocked(south, west, north, east, visitor);
+    }
+
+    /**
+     * Counts the points inside the bounds, see {@link #query}.
+     */
+    public synchronized int count(double south, double west, double north, double east) {
+        return query(south, west, north, east, null);
+    }
+
+    /**
+     * Finds the {@code k} points closest to the given position, nearest first.
+     * <p>
+     * Distances use an equirectangular approximation around the query point, which is accurate
+     * for the few kilometers a map viewport covers. The antimeridian is not wrapped.
+     *
+     * @param outIds       receives the ids, must hold at least {@code k} values
+     * @param outDistances receives the distances in meters, may be null
+     * @return the number of points found, less than {@code k} if the index is smaller
+     */
+    public synchronized int nearest(double latitude, double longitude, int k, int[] outIds,
+                                    double[] outDistances) {
+        if (k <= 0 || slotsById.size() == 0) {
+            return 0;
+        }
+        double lonScale = Math.cos(Math.toRadians(latitude));
+        if (resultHeapKeys.length < k) {
+            resultHeapKeys = new double[k];
+            resultHeapValues = new int[k];
+        }
+        int results = 0;
+        int nodes = 0;
+        nodes = pushMin(nodes, 0, 0);
+
+        while (nodes > 0) {
+            double nodeDistance = nodeHeapKeys[0];
+            int node = nodeHeapValues[0];
+            nodes = popMin(nodes);
+            if (results == k && nodeDistance >= resultHeapKeys[0]) {
+                // No remaining node can hold anything closer than the current k-th result
+                break;
+            }
+            if (firstChild[node] >= 0) {
+                for (int q = 0; q < 4; q++) {
+                    int child = firstChild[node] + q;
+                    if (count[child] > 0) {
+                        nodes = pushMin(nodes, boxDistance(child, latitude, longitude, lonScale),
+                                child);
+                    }
+                }
+            } else {
+                for (int slot = head[node]; slot >= 0; slot = nextInLeaf[slot]) {
+                    double dLat = latitudes[slot] - latitude;
+                    double dLon = (longitudes[slot] - longitude) * lonScale;
+                    double distance = dLat * dLat + dLon * dLon;
+                    if (results < k) {
+                        results = pushMax(results, distance, slot);
+                    } else if (distance < resultHeapKeys[0]) {
+                        results = popMax(results);
+                        results = pushMax(results, distance, slot);
+                    }
+                }
+            }
+        }
+
+        // Drain the max heap from the back so the nearest point ends up first
+        int found = results;
+        while (results > 0) {
+            int slot = resultHeapValues[0];
+            double distance = resultHeapKeys[0];
+            results = popMax(results);
+            outIds[results] = ids[slot];
+            if (outDistances != null) {
+                outDistances[results] = Math.toRadians(Math.sqrt(distance)) * GeoUtils.EARTH_RADIUS_M;
+            }
+        }
+        return found;
+    }
+
+    private void insertLocked(int id, double latitude, double longitude) {
+        if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180
+                || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            throw new IllegalArgumentException("Invalid position: " + latitude + "," + longitude);
+        }
+        if (slotsById.containsKey(id)) {
+            remove(id);
+        }
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            ensurePointCapacity(end + 1);
+            slot = end++;
+        }
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        ids[slot] = id;
+        slotsById.put(id, slot, -1);
+
+        int node = 0;
+        int depth = 0;
+        while (true) {
+            count[node]++;
+            if (firstChild[node] < 0) {
+                break;
+            }
+            node = firstChild[node] + quadrant(node, latitude, longitude);
+            depth++;
+        }
+        nextInLeaf[slot] = head[node];
+        head[node] = slot;
+        if (count[node] > LEAF_CAPACITY && depth < MAX_DEPTH) {
+            split(node, depth);
+        }
+    }
+
+    private int queryLocked(double south, double west, double north, double east,
+                            PointVisitor visitor) {
+        int found = 0;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (count[node] == 0 || maxLat[node] < south || minLat[node] > north
+                    || maxLon[node] < west || minLon[node] > east) {
+                continue;
+            }
+            if (firstChild[node] >= 0) {
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                for (int q = 0; q < 4; q++) {
+                    stack[top++] = firstChild[node] + q;
+                }
+            } else {
+                for (int slot = head[node]; slot >= 0; slot = nextInLeaf[slot]) {
+                    double lat = latitudes[slot];
+                    double lon = longitudes[slot];
+                    if (lat >= south && lat <= north && lon >= west && lon <= east) {
+                        found++;
+                        if (visitor != null) {
+                            visitor.visit(ids[slot], lat, lon);
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private void split(int node, int depth) {
+        int block = allocateBlock();
+        double midLat = (minLat[node] + maxLat[node]) / 2;
+        double midLon = (minLon[node] + maxLon[node]) / 2;
+        resetNode(block, minLat[node], minLon[node], midLat, midLon);
+        resetNode(block + 1, minLat[node], midLon, midLat, maxLon[node]);
+        resetNode(block + 2, midLat, minLon[node], maxLat[node], midLon);
+        resetNode(block + 3, midLat, midLon, maxLat[node], maxLon[node]);
+        firstChild[node] = block;
+
+        int slot = head[node];
+        head[node] = -1;
+        while (slot >= 0) {
+            int next = nextInLeaf[slot];
+            int child = block + quadrant(node, latitudes[slot], longitudes[slot]);
+            nextInLeaf[slot] = head[child];
+            head[child] = slot;
+            count[child]++;
+            slot = next;
+        }
+        for (int q = 0; q < 4; q++) {
+            if (count[block + q] > LEAF_CAPACITY && depth + 1 < MAX_DEPTH) {
+                split(block + q, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Merges the children of a node back into it once they hold few points.
+     */
+    private void collapse(int node) {
+        int block = firstChild[node];
+        if (count[node] > LEAF_CAPACITY / 2) {
+            return;
+        }
+        for (int q = 0; q < 4; q++) {
+            if (firstChild[block + q] >= 0) {
+                return;
+            }
+        }
+        int merged = -1;
+        for (int q = 0; q < 4; q++) {
+            int slot = head[block + q];
+            while (slot >= 0) {
+                int next = nextInLeaf[slot];
+                nextInLeaf[slot] = merged;
+                merged = slot;
+                slot = next;
+            }
+        }
+        head[node] = merged;
+        firstChild[node] = -1;
+        if (freeBlockCount == freeBlocks.length) {
+            freeBlocks = Arrays.copyOf(freeBlocks, freeBlockCount * 2);
+        }
+        freeBlocks[freeBlockCount++] = block;
+    }
+
+    private void unlinkFromLeaf(int node, int slot) {
+        if (head[node] == slot) {
+            head[node] = nextInLeaf[slot];
+            return;
+        }
+        int previous = head[node];
+        while (nextInLeaf[previous] != slot) {
+            previous = nextInLeaf[previous];
+        }
+        nextInLeaf[previous] = nextInLeaf[slot];
+    }
+
+    private int quadrant(int node, double latitude, double longitude) {
+        int q = 0;
+        if (latitude >= (minLat[node] + maxLat[node]) / 2) {
+            q += 2;
+        }
+        if (longitude >= (minLon[node] + maxLon[node]) / 2) {
+            q += 1;
+        }
+        return q;
+    }
+
+    private double boxDistance(int node, double latitude, double longitude, double lonScale) {
+        double lat = Math.max(minLat[node], Math.min(maxLat[node], latitude));
+        double lon = Math.max(minLon[node], Math.min(maxLon[node], longitude));
+        double dLat = lat - latitude;
+        double dLon = (lon - longitude) * lonScale;
+        return dLat * dLat + dLon * dLon;
+    }
+
+    private int allocateBlock() {
+        if (freeBlockCount > 0) {
+            return freeBlocks[--freeBlockCount];
+        }
+        ensureNodeCapacity(nodeEnd + 4);
+        int block = nodeEnd;
+        nodeEnd += 4;
+        return block;
+    }
+
+    private void resetNode(int node, double south, double west, double north, double east) {
+        minLat[node] = south;
+        minLon[node] = west;
+        maxLat[node] = north;
+        maxLon[node] = east;
+        firstChild[node] = -1;
+        head[node] = -1;
+        count[node] = 0;
+    }
+
+    private void allocatePoints(int capacity) {
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        ids = new int[capacity];
+        nextInLeaf = new int[capacity];
+    }
+
+    private void ensurePointCapacity(int capacity) {
+        if (capacity > latitudes.length) {
+            int size = Math.max(capacity, latitudes.length * 2);
+            latitudes = Arrays.copyOf(latitudes, size);
+            longitudes = Arrays.copyOf(longitudes, size);
+            ids = Arrays.copyOf(ids, size);
+            nextInLeaf = Arrays.copyOf(nextInLeaf, size);
+        }
+    }
+
+    private void allocateNodes(int capacity) {
+        minLat = new double[capacity];
+        minLon = new double[capacity];
+        maxLat = new double[capacity];
+        maxLon = new double[capacity];
+        firstChild = new int[capacity];
+        head = new int[capacity];
+        count = new int[capacity];
+    }
+
+    private void ensureNodeCapacity(int capacity) {
+        if (capacity > minLat.length) {
+            int size = Math.max(capacity, minLat.length * 2);
+            minLat = Arrays.copyOf(minLat, size);
+            minLon = Arrays.copyOf(minLon, size);
+            maxLat = Arrays.copyOf(maxLat, size);
+            maxLon = Arrays.copyOf(maxLon, size);
+            firstChild = Arrays.copyOf(firstChild, size);
+            head = Arrays.copyOf(head, size);
+            count = Arrays.copyOf(count, size);
+        }
+    }
+
+    // Binary heaps on the scratch arrays, the node heap is a min heap and the result heap a
+    // max heap so its root is the current k-th nearest point.
+
+    private int pushMin(int size, double key, int value) {
+        if (size == nodeHeapKeys.length) {
+            nodeHeapKeys = Arrays.copyOf(nodeHeapKeys, size * 2);
+            nodeHeapValues = Arrays.copyOf(nodeHeapValues, size * 2);
+        }
+        int i = size;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (nodeHeapKeys[parent] <= key) {
+                break;
+            }
+            nodeHeapKeys[i] = nodeHeapKeys[parent];
+            nodeHeapValues[i] = nodeHeapValues[parent];
+            i = parent;
+        }
+        nodeHeapKeys[i] = key;
+        nodeHeapValues[i] = value;
+        return size + 1;
+    }
+
+    private int popMin(int size) {
+        size--;
+        double key = nodeHeapKeys[size];
+        int value = nodeHeapValues[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && nodeHeapKeys[child + 1] < nodeHeapKeys[child]) {
+                child++;
+            }
+            if (nodeHeapKeys[child] >= key) {
+                break;
+            }
+            nodeHeapKeys[i] = nodeHeapKeys[child];
+            nodeHeapValues[i] = nodeHeapValues[child];
+            i = child;
+        }
+        nodeHeapKeys[i] = key;
+        nodeHeapValues[i] = value;
+        return size;
+    }
+
+    private int pushMax(int size, double key, int value) {
+        int i = size;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (resultHeapKeys[parent] >= key) {
+                break;
+            }
+            resultHeapKeys[i] = resultHeapKeys[parent];
+            resultHeapValues[i] = resultHeapValues[parent];
+            i = parent;
+        }
+        resultHeapKeys[i] = key;
+        resultHeapValues[i] = value;
+        return size + 1;
+    }
+
+    private int popMax(int size) {
+        size--;
+        double key = resultHeapKeys[size];
+        int value = resultHeapValues[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && resultHeapKeys[child + 1] > resultHeapKeys[child]) {
+                child++;
+            }
+            if (resultHeapKeys[child] <= key) {
+                break;
+            }
+            resultHeapKeys[i] = resultHeapKeys[child];
+            resultHeapValues[i] = resultHeapValues[child];
+            i = child;
+        }
+        resultHeapKeys[i] = key;
+        resultHeapValues[i] = value;
+        return size;
+    }
+}
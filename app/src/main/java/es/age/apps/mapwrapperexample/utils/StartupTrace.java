@@ -0,0 +1,87 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Start and end times of the phases of a screen startup, in milliseconds since the trace was
+ * created. Phases may overlap, and may begin and end on any thread.
+ * <p>
+ * {@link LocationActivity} records the phases named here and logs the trace once the camera
+ * first settles. Subclasses can add their own phases, like {@link #PHASE_LAYOUT}.
+ */
+public class StartupTrace {
+
+    public static final String PHASE_PLAY_SERVICES = "playServices";
+    public static final String PHASE_API_CONNECT = "apiConnect";
+    public static final String PHASE_PERMISSION = "permission";
+    public static final String PHASE_NETWORK = "network";
+    public static final String PHASE_LAYOUT = "layout";
+    public static final String PHASE_MAP = "map";
+    public static final String PHASE_FIRST_CAMERA = "firstCamera";
+    public static final String PHASE_FIRST_FIX = "firstFix";
+
+    private final long originNanos = System.nanoTime();
+    // Start and end of every phase in nanoseconds since the origin, end is -1 while running
+    private final LinkedHashMap<String, long[]> phases = new LinkedHashMap<>();
+
+    /**
+     * Starts a phase, ignored if it was already started.
+     */
+    public synchronized void begin(String phase) {
+        if (!phases.containsKey(phase)) {
+            phases.put(phase, new long[]{System.nanoTime() - originNanos, -1});
+        }
+    }
+
+    /**
+     * Ends a phase and returns its duration in nanoseconds. Ignored and returns -1 if the phase
+     * was not started or already ended.
+     */
+    public synchronized long end(String phase) {
+        long[] times = phases.get(phase);
+        if (times != null && times[1] < 0) {
+            times[1] = System.nanoTime() - originNanos;
+            return times[1] - times[0];
+        }
+        return -1;
+    }
+
+    public synchronized boolean isEnded(String phase) {
+        long[] times = phases.get(phase);
+        return times != null && times[1] >= 0;
+    }
+
+    /**
+     * Milliseconds from the creation of the trace to the end of the phase, or -1.
+     */
+    public synchronized long getEndMs(String phase) {
+        long[] times = phases.get(phase);
+        return times == null || times[1] < 0 ? -1 : times[1] / 1000000;
+    }
+
+    /**
+     * Duration of the phase in milliseconds, or -1 if it has not ended.
+     */
+    public synchronized long getDurationMs(String phase) {
+        long[] times = phases.get(phase);
+        return times == null || times[1] < 0 ? -1 : (times[1] - times[0]) / 1000000;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("StartupTrace[");
+        boolean first = true;
+        for (Map.Entry<String, long[]> entry : phases.entrySet()) {
+            long[] times = entry.getValue();
+            if (!first) {
+                builder.append(", ");
+            }
+            first = false;
+            builder.append(String.format(Locale.US, "%s %d-%s", entry.getKey(),
+                    times[0] / 1000000, times[1] < 0 ? "?" : (times[1] / 1000000) + "ms"));
+        }
+        return builder.append(']').toString();
+    }
+}
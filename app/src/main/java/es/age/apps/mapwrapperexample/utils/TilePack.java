@@ -0,0 +1,140 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only access to a single file tile archive written by {@link TilePackBuilder}.
+ * <p>
+ * Layout, big endian:
+ * <pre>
+ * header   magic "TPK1", version, tile size, tile count, long index offset
+ * data     the tile images, identical tiles stored once
+ * index    tile count entries of (long key, long offset, int length), sorted by key
+ * </pre>
+ * The key of a tile packs zoom, x and y, see {@link #key}. The whole file is memory mapped:
+ * finding a tile is a binary search in the mapped index and reading it a copy out of the
+ * mapped data, there is no read system call and the page cache is shared with other users
+ * of the file. Safe to use from several threads.
+ */
+public class TilePack {
+
+    static final int MAGIC = 0x54504b31; // "TPK1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int ENTRY_SIZE = 20;
+
+    // Data is mapped in chunks: a MappedByteBuffer can not exceed 2GB, and on 32 bit devices
+    // large mappings fail to find room in a fragmented address space
+    private static final long CHUNK_SIZE = 64L << 20;
+
+    private final RandomAccessFile file;
+    private final ByteBuffer index;
+    private final MappedByteBuffer[] chunks;
+    private final int tileSize;
+    private final int tileCount;
+
+    public TilePack(File packFile) throws IOException {
+        file = new RandomAccessFile(packFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException("Not a tile pack: " + packFile);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a tile pack: " + packFile);
+            }
+            tileSize = header.getInt();
+            tileCount = header.getInt();
+            long indexOffset = header.getLong();
+            long indexSize = (long) tileCount * ENTRY_SIZE;
+            if (indexOffset < HEADER_SIZE || indexOffset + indexSize > length
+                    || indexSize > Integer.MAX_VALUE) {
+                throw new IOException("Truncated tile pack: " + packFile);
+            }
+            index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexSize);
+            chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = i * CHUNK_SIZE;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(CHUNK_SIZE, length - start));
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Key of a tile, zoom up to 29 and x, y up to 2^29 - 1.
+     */
+    public static long key(int zoom, int x, int y) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+
+    /**
+     * Size in pixels of the tiles of the pack.
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    public boolean contains(int zoom, int x, int y) {
+        return find(key(zoom, x, y)) >= 0;
+    }
+
+    /**
+     * Returns the image of the tile, or null if the pack does not have it.
+     */
+    public byte[] getTile(int zoom, int x, int y) {
+        int entry = find(key(zoom, x, y));
+        if (entry < 0) {
+            return null;
+        }
+        long offset = index.getLong(entry * ENTRY_SIZE + 8);
+        int length = index.getInt(entry * ENTRY_SIZE + 16);
+        byte[] data = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            long position = offset + copied;
+            // Duplicate so concurrent readers do not share the buffer position
+            ByteBuffer chunk = chunks[(int) (position / CHUNK_SIZE)].duplicate();
+            chunk.position((int) (position % CHUNK_SIZE));
+            int count = Math.min(length - copied, chunk.remaining());
+            chunk.get(data, copied, count);
+            copied += count;
+        }
+        return data;
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private int find(long key) {
+        int low = 0;
+        int high = tileCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleKey = index.getLong(middle * ENTRY_SIZE);
+            if (middleKey < key) {
+                low = middle + 1;
+            } else if (middleKey > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+}
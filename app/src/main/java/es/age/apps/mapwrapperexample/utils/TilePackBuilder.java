@@ -0,0 +1,181 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Writes a {@link TilePack} archive. Tile images are appended as they are added, identical
+ * images are stored once, and the sorted index is written on {@link #close}.
+ * <p>
+ * {@link #addDirectory} packs a directory of tiles laid out as {@code zoom/x/y.png}, the layout
+ * of most tile downloaders. The {@code tools} module runs it from the command line.
+ */
+public class TilePackBuilder {
+
+    private final RandomAccessFile file;
+    private final int tileSize;
+    private final MessageDigest digest;
+
+    // Offset and length of every distinct image, by content hash
+    private final HashMap<String, long[]> images = new HashMap<>();
+    // Entry of every tile by key
+    private final HashMap<Long, Integer> entries = new HashMap<>();
+    private long[] keys = new long[1024];
+    private long[] offsets = new long[1024];
+    private int[] lengths = new int[1024];
+    private int size = 0;
+    private long dataEnd = TilePack.HEADER_SIZE;
+
+    public TilePackBuilder(File packFile, int tileSize) throws IOException {
+        this.tileSize = tileSize;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.toString());
+        }
+        file = new RandomAccessFile(packFile, "rw");
+        file.setLength(0);
+        file.seek(dataEnd);
+    }
+
+    public int getTileCount() {
+        return size;
+    }
+
+    /**
+     * Number of distinct images stored, identical tiles share one.
+     */
+    public int getImageCount() {
+        return images.size();
+    }
+
+    /**
+     * Adds a tile, replacing the image of a tile already added with the same coordinates.
+     */
+    public void addTile(int zoom, int x, int y, byte[] image) throws IOException {
+        if (zoom < 0 || zoom > 29 || x < 0 || y < 0 || x >= 1 << zoom || y >= 1 << zoom) {
+            throw new IllegalArgumentException("Bad tile " + zoom + "/" + x + "/" + y);
+        }
+        String hash = toHex(digest.digest(image));
+        long[] stored = images.get(hash);
+        if (stored == null) {
+            stored = new long[]{dataEnd, image.length};
+            file.write(image);
+            dataEnd += image.length;
+            images.put(hash, stored);
+        }
+        long key = TilePack.key(zoom, x, y);
+        Integer entry = entries.get(key);
+        if (entry == null) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            entry = size++;
+            entries.put(key, entry);
+        }
+        keys[entry] = key;
+        offsets[entry] = stored[0];
+        lengths[entry] = (int) stored[1];
+    }
+
+    /**
+     * Adds every tile of a directory laid out as zoom/x/y.extension. Returns the number of
+     * tiles added.
+     */
+    public int addDirectory(File directory) throws IOException {
+        int added = 0;
+        File[] zooms = directory.listFiles();
+        if (zooms == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        for (File zoomDirectory : zooms) {
+            int zoom = parse(zoomDirectory.getName());
+            File[] columns = zoomDirectory.listFiles();
+            if (zoom < 0 || columns == null) {
+                continue;
+            }
+            for (File column : columns) {
+                int x = parse(column.getName());
+                File[] tiles = column.listFiles();
+                if (x < 0 || tiles == null) {
+                    continue;
+                }
+                for (File tile : tiles) {
+                    int y = parse(tile.getName());
+                    if (y >= 0 && tile.isFile()) {
+                        addTile(zoom, x, y, read(tile));
+                        added++;
+                    }
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Writes the index and the header and closes the file.
+     */
+    public void close() throws IOException {
+        try {
+            long[] sorted = Arrays.copyOf(keys, size);
+            Arrays.sort(sorted);
+            ByteBuffer index = ByteBuffer.allocate(TilePack.ENTRY_SIZE * 4096);
+            file.seek(dataEnd);
+            for (long key : sorted) {
+                int entry = entries.get(key);
+                index.putLong(key).putLong(offsets[entry]).putInt(lengths[entry]);
+                if (!index.hasRemaining()) {
+                    file.write(index.array(), 0, index.position());
+                    index.clear();
+                }
+            }
+            file.write(index.array(), 0, index.position());
+
+            ByteBuffer header = ByteBuffer.allocate(TilePack.HEADER_SIZE);
+            header.putInt(TilePack.MAGIC).putInt(TilePack.VERSION).putInt(tileSize).putInt(size)
+                    .putLong(dataEnd);
+            file.seek(0);
+            file.write(header.array());
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+    }
+
+    private static int parse(String name) {
+        int dot = name.indexOf('.');
+        try {
+            return Integer.parseInt(dot < 0 ? name : name.substring(0, dot));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] read(File tile) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(tile, "r");
+        try {
+            byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,236 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a {@link LocationTrace} into a {@link FixSink} with the timing of the recording,
+ * sped up, and measures how the sink keeps up.
+ * <p>
+ * Each fix is due at its recorded offset from the first one divided by the speed up. With a
+ * burst size above 1, fixes are held and delivered together when the last one of the burst is
+ * due, the way batched location updates arrive. The latency of a fix runs from the moment it
+ * was due until the sink is done with it, so a sink that falls behind shows up as a growing
+ * latency rather than a slower replay. Synchronous sinks are done when {@link FixSink#onFix}
+ * returns. Asynchronous sinks, which hand fixes over to another thread, call
+ * {@link #complete} once they have processed them.
+ * <p>
+ * {@link #run} blocks the calling thread until the end of the trace or {@link #stop}. Fix times
+ * given to the sink keep the recorded intervals and start at the wall clock time of the
+ * replay start.
+ */
+public class TraceReplayer {
+
+    /**
+     * Speed up delivering every fix as soon as the previous one has been handed over.
+     */
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+    public interface FixSink {
+        /**
+         * Called on the replay thread for every fix, in order.
+         */
+        public void onFix(int index, double latitude, double longitude, float accuracy,
+                          long timeMs);
+    }
+
+    private final LocationTrace trace;
+    private final FixSink sink;
+
+    private double speedUp = 1;
+    private int burstSize = 1;
+    private boolean asynchronous = false;
+
+    private volatile boolean stopped;
+    private volatile Thread runner;
+    private long startNanos;
+    private final long[] dueNanos;
+    // Latency of every completed fix, -1 while it is pending
+    private final AtomicLongArray latencies;
+    private final AtomicInteger delivered = new AtomicInteger();
+    private final AtomicLong lastCompletionNanos = new AtomicLong();
+
+    public TraceReplayer(LocationTrace trace, FixSink sink) {
+        this.trace = trace;
+        this.sink = sink;
+        dueNanos = new long[trace.size()];
+        latencies = new AtomicLongArray(trace.size());
+        for (int i = 0; i < dueNanos.length; i++) {
+            latencies.set(i, -1);
+        }
+    }
+
+    /**
+     * How many times faster than recorded the fixes are delivered, 1 by default.
+     */
+    public void setSpeedUp(double speedUp) {
+        if (!(speedUp > 0)) {
+            throw new IllegalArgumentException("Speed up must be positive: " + speedUp);
+        }
+        this.speedUp = speedUp;
+    }
+
+    /**
+     * Number of fixes delivered together, 1 by default.
+     */
+    public void setBurstSize(int burstSize) {
+        if (burstSize < 1) {
+            throw new IllegalArgumentException("Burst size must be at least 1: " + burstSize);
+        }
+        this.burstSize = burstSize;
+    }
+
+    /**
+     * Whether the sink reports the end of every fix with {@link #complete}, instead of being
+     * done when {@link FixSink#onFix} returns.
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    /**
+     * Replays the trace on the calling thread, returns the report once every fix has been
+     * delivered or the replay stopped. Asynchronous sinks may still be working on the last
+     * fixes, {@link #getReport} includes them later. A replayer runs once.
+     */
+    public Report run() throws InterruptedException {
+        runner = Thread.currentThread();
+        int size = trace.size();
+        startNanos = System.nanoTime();
+        lastCompletionNanos.set(startNanos);
+        long startTimeMs = System.currentTimeMillis();
+        long firstTimeMs = size > 0 ? trace.getTime(0) : 0;
+        try {
+            for (int start = 0; start < size && !stopped; start += burstSize) {
+                int end = Math.min(size, start + burstSize);
+                long due = startNanos
+                        + (long) ((trace.getTime(end - 1) - firstTimeMs) * 1e6 / speedUp);
+                waitUntil(due);
+                for (int i = start; i < end && !stopped; i++) {
+                    dueNanos[i] = due;
+                    delivered.incrementAndGet();
+                    sink.onFix(i, trace.getLatitude(i), trace.getLongitude(i),
+                            trace.getAccuracy(i), startTimeMs + trace.getTime(i) - firstTimeMs);
+                    if (!asynchronous) {
+                        complete(i);
+                    }
+                }
+            }
+        } finally {
+            runner = null;
+        }
+        return getReport();
+    }
+
+    /**
+     * Makes {@link #run} return after the fix being delivered, or right away if it has not
+     * started yet. A stopped replayer does not run again. Can be called from any thread.
+     */
+    public void stop() {
+        stopped = true;
+        Thread thread = runner;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Marks a fix as processed by an asynchronous sink. Can be called from any thread.
+     */
+    public void complete(int index) {
+        long now = System.nanoTime();
+        if (latencies.compareAndSet(index, -1, now - dueNanos[index])) {
+            long last;
+            do {
+                last = lastCompletionNanos.get();
+            } while (now > last && !lastCompletionNanos.compareAndSet(last, now));
+        }
+    }
+
+    /**
+     * When a fix was scheduled, in nanoseconds from the start of the replay: the fixes of a
+     * burst share it. Only valid once the fix has been delivered, for example from
+     * {@link FixSink#onFix}.
+     */
+    public long getDueNanos(int index) {
+        return dueNanos[index] - startNanos;
+    }
+
+    private void waitUntil(long dueNanos) throws InterruptedException {
+        long remaining;
+        while (!stopped && (remaining = dueNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Throughput and latency of the fixes completed so far.
+     */
+    public Report getReport() {
+        long[] done = new long[trace.size()];
+        int count = 0;
+        for (int i = 0; i < done.length; i++) {
+            long latency = latencies.get(i);
+            if (latency >= 0) {
+                done[count++] = latency;
+            }
+        }
+        Arrays.sort(done, 0, count);
+        return new Report(trace.size(), delivered.get(), Arrays.copyOf(done, count),
+                lastCompletionNanos.get() - startNanos);
+    }
+
+    /**
+     * Result of a replay. Latencies are in nanoseconds, 0 when no fix completed.
+     */
+    public static final class Report {
+        public final int fixCount;
+        public final int deliveredCount;
+        public final int completedCount;
+        public final long durationNanos;
+        public final long p50Nanos;
+        public final long p90Nanos;
+        public final long p99Nanos;
+        public final long maxNanos;
+
+        Report(int fixCount, int deliveredCount, long[] sortedLatencies, long durationNanos) {
+            this.fixCount = fixCount;
+            this.deliveredCount = deliveredCount;
+            this.completedCount = sortedLatencies.length;
+            this.durationNanos = durationNanos;
+            p50Nanos = percentile(sortedLatencies, 0.5);
+            p90Nanos = percentile(sortedLatencies, 0.9);
+            p99Nanos = percentile(sortedLatencies, 0.99);
+            maxNanos = percentile(sortedLatencies, 1);
+        }
+
+        /**
+         * Completed fixes per second, from the start of the replay to the last completion.
+         */
+        public double getThroughput() {
+            return durationNanos > 0 ? completedCount * 1e9 / durationNanos : 0;
+        }
+
+        private static long percentile(long[] sorted, double fraction) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(fraction * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        @Override
+        public String toString() {
+            return "Report[fixes=" + completedCount + "/" + fixCount
+                    + ", throughput=" + Math.round(getThroughput()) + "/s"
+                    + ", p50=" + p50Nanos / 1000 + "us, p90=" + p90Nanos / 1000
+                    + "us, p99=" + p99Nanos / 1000 + "us, max=" + maxNanos / 1000 + "us]";
+        }
+    }
+}
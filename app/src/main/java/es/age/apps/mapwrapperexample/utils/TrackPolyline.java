@@ -0,0 +1,276 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Draws a long track as a polyline simplified for the current zoom.
+ * <p>
+ * The points are simplified by a {@link PolylineSimplifier} on {@link MapExecutors#background()}
+ * and the level of detail of every zoom is cached, so zooming back to a level already seen
+ * costs no simplification. When the camera stops, only the parts of the level around the
+ * visible region are drawn, split in as many polylines as needed. Registers itself on the
+ * given {@link MapCameraDispatcher}. Must be used from the main thread.
+ */
+public class TrackPolyline implements GoogleMap.OnCameraIdleListener {
+
+    public static final float DEFAULT_WIDTH_DP = 4;
+
+    // Fraction of the visible region added on every side before clipping
+    private static final double VIEWPORT_MARGIN = 0.5;
+
+    private String TAG = "TrackPolyline";
+
+    private final MapCameraDispatcher cameraDispatcher;
+    private final GoogleMap googleMap;
+    private final float density;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Polyline> polylines = new ArrayList<>();
+
+    private int color = Color.BLUE;
+    private float width;
+    private double tolerancePx = PolylineSimplifier.DEFAULT_TOLERANCE_PX;
+
+    private PolylineSimplifier simplifier;
+    private int pointCount;
+
+    // Increased on every request, results of older requests are dropped
+    private int generation;
+    private int trackGeneration;
+    private int renderedZoom = -1;
+    private GeoBounds renderedBounds;
+
+    // Parts of a level inside the rendered region, built on the background thread
+    private static final class Clipped {
+        final List<List<LatLng>> runs = new ArrayList<>();
+        int points;
+    }
+
+    public TrackPolyline(Context context, MapCameraDispatcher cameraDispatcher) {
+        this.cameraDispatcher = cameraDispatcher;
+        this.googleMap = cameraDispatcher.getMap();
+        this.density = context.getResources().getDisplayMetrics().density;
+        this.width = DEFAULT_WIDTH_DP * density;
+        cameraDispatcher.addOnCameraIdleListener(this);
+    }
+
+    public void setStyle(int color, float widthDp) {
+        this.color = color;
+        this.width = widthDp * density;
+        for (Polyline polyline : polylines) {
+            polyline.setColor(color);
+            polyline.setWidth(width);
+        }
+    }
+
+    /**
+     * Sets the maximum distance in pixels between the drawn and the original track, applied
+     * to the next points set.
+     */
+    public void setTolerance(double tolerancePx) {
+        this.tolerancePx = tolerancePx;
+    }
+
+    /**
+     * Replaces the track. The arrays are copied, the simplification runs in the background.
+     */
+    public void setPoints(final double[] latitudes, final double[] longitudes, final int size) {
+        final int requestGeneration = ++trackGeneration;
+        final double tolerance = tolerancePx;
+        final int zoom = (int) googleMap.getCameraPosition().zoom;
+        MapExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                publish(requestGeneration, zoom,
+                        new PolylineSimplifier(latitudes, longitudes, size, tolerance, density));
+            }
+        });
+    }
+
+    /**
+     * Replaces the track with the one recorded by a {@link TrackRecorder} in the directory.
+     */
+    public void loadTrack(final File directory) {
+        final int requestGeneration = ++trackGeneration;
+        final double tolerance = tolerancePx;
+        final int zoom = (int) googleMap.getCameraPosition().zoom;
+        MapExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                double[] latitudes = new double[1024];
+                double[] longitudes = new double[1024];
+                int size = 0;
+                TrackReader reader = new TrackReader(directory);
+                try {
+                    while (reader.next()) {
+                        if (size == latitudes.length) {
+                            latitudes = Arrays.copyOf(latitudes, size * 2);
+                            longitudes = Arrays.copyOf(longitudes, size * 2);
+                        }
+                        latitudes[size] = reader.getLatitude();
+                        longitudes[size] = reader.getLongitude();
+                        size++;
+                    }
+                    reader.close();
+                } catch (IOException e) {
+                    Log.d(TAG, "loadTrack: " + e.getMessage());
+                }
+                publish(requestGeneration, zoom,
+                        new PolylineSimplifier(latitudes, longitudes, size, tolerance, density));
+            }
+        });
+    }
+
+    /**
+     * Returns the number of points currently drawn.
+     */
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    @Override
+    public void onCameraIdle() {
+        refresh();
+    }
+
+    /**
+     * Draws the level of detail of the current zoom around the camera, unless it is already
+     * drawn.
+     */
+    public void refresh() {
+        if (simplifier == null) {
+            return;
+        }
+        final int zoom = (int) googleMap.getCameraPosition().zoom;
+        GeoBounds visible = cameraDispatcher.getVisibleBounds();
+        if (zoom == renderedZoom && renderedBounds != null && renderedBounds.contains(visible)) {
+            return;
+        }
+        final GeoBounds bounds = visible.pad(VIEWPORT_MARGIN);
+        renderedZoom = zoom;
+        renderedBounds = bounds;
+
+        final int requestGeneration = ++generation;
+        final PolylineSimplifier requestSimplifier = simplifier;
+        MapExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Clipped clipped = clip(requestSimplifier,
+                        requestSimplifier.getLevel(zoom), bounds);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (requestGeneration == generation) {
+                            long start = FrameMonitor.begin(JankStats.OP_OVERLAY_UPDATE);
+                            render(clipped);
+                            FrameMonitor.end(JankStats.OP_OVERLAY_UPDATE, start);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Removes the polylines, drops pending results and stops listening to the camera.
+     */
+    public void destroy() {
+        generation++;
+        trackGeneration++;
+        cameraDispatcher.removeOnCameraIdleListener(this);
+        for (Polyline polyline : polylines) {
+            polyline.remove();
+        }
+        polylines.clear();
+        simplifier = null;
+        pointCount = 0;
+    }
+
+    private void publish(final int requestGeneration, int zoom,
+                         final PolylineSimplifier result) {
+        // Warm the cache for the current zoom before going back to the main thread
+        result.getLevel(zoom);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (requestGeneration == trackGeneration) {
+                    simplifier = result;
+                    renderedZoom = -1;
+                    refresh();
+                }
+            }
+        });
+    }
+
+    private static Clipped clip(PolylineSimplifier simplifier, int[] level, GeoBounds bounds) {
+        double minX = 0;
+        double maxX = 1;
+        if (!bounds.crossesAntimeridian()) {
+            minX = GeoUtils.lonToX(bounds.west);
+            maxX = GeoUtils.lonToX(bounds.east);
+        }
+        double minY = GeoUtils.latToY(bounds.north);
+        double maxY = GeoUtils.latToY(bounds.south);
+
+        Clipped clipped = new Clipped();
+        List<LatLng> run = null;
+        for (int k = 1; k < level.length; k++) {
+            int a = level[k - 1];
+            int b = level[k];
+            double ax = simplifier.getX(a);
+            double ay = simplifier.getY(a);
+            double bx = simplifier.getX(b);
+            double by = simplifier.getY(b);
+            boolean inside = Math.max(ax, bx) >= minX && Math.min(ax, bx) <= maxX
+                    && Math.max(ay, by) >= minY && Math.min(ay, by) <= maxY;
+            if (!inside) {
+                run = null;
+                continue;
+            }
+            if (run == null) {
+                run = new ArrayList<>();
+                run.add(new LatLng(simplifier.getLatitude(a), simplifier.getLongitude(a)));
+                clipped.runs.add(run);
+                clipped.points++;
+            }
+            run.add(new LatLng(simplifier.getLatitude(b), simplifier.getLongitude(b)));
+            clipped.points++;
+        }
+        return clipped;
+    }
+
+    private void render(Clipped clipped) {
+        int count = clipped.runs.size();
+        for (int i = 0; i < count; i++) {
+            List<LatLng> run = clipped.runs.get(i);
+            if (i < polylines.size()) {
+                polylines.get(i).setPoints(run);
+            } else {
+                polylines.add(googleMap.addPolyline(new PolylineOptions()
+                        .addAll(run)
+                        .color(color)
+                        .width(width)));
+            }
+        }
+        while (polylines.size() > count) {
+            polylines.remove(polylines.size() - 1).remove();
+        }
+        pointCount = clipped.points;
+        Log.d(TAG, "render: zoom " + renderedZoom + ", " + clipped.points + " of "
+                + simplifier.size() + " points in " + count + " polylines");
+    }
+}
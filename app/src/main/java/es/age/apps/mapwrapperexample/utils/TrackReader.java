@@ -0,0 +1,141 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Streams back the fixes written by a {@link TrackRecorder}, one segment mapped at a time.
+ * <p>
+ * Reading stops at the end of the last complete record of every segment, so the segment a
+ * crashed recorder was writing is read up to its last fix. Segments with a bad header are
+ * skipped. Usage:
+ * <pre>
+ * TrackReader reader = new TrackReader(directory);
+ * while (reader.next()) {
+ *     reader.getLatitude(); reader.getLongitude(); reader.getTime();
+ * }
+ * reader.close();
+ * </pre>
+ */
+public class TrackReader {
+
+    private final File directory;
+    private final int[] sequences;
+    private int segment = -1;
+
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+
+    private int latE7;
+    private int lonE7;
+    private long time;
+
+    public TrackReader(File directory) {
+        this.directory = directory;
+        String[] names = directory.list();
+        int[] found = new int[names == null ? 0 : names.length];
+        int count = 0;
+        if (names != null) {
+            for (String name : names) {
+                int sequence = TrackRecorder.segmentSequence(name);
+                if (sequence > 0) {
+                    found[count++] = sequence;
+                }
+            }
+        }
+        sequences = Arrays.copyOf(found, count);
+        Arrays.sort(sequences);
+    }
+
+    public int getSegmentCount() {
+        return sequences.length;
+    }
+
+    /**
+     * Moves to the next fix, returns false at the end of the track.
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (buffer != null && readRecord()) {
+                return true;
+            }
+            if (!openNextSegment()) {
+                return false;
+            }
+        }
+    }
+
+    public double getLatitude() {
+        return latE7 / 1e7;
+    }
+
+    public double getLongitude() {
+        return lonE7 / 1e7;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void close() throws IOException {
+        buffer = null;
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    private boolean readRecord() {
+        if (buffer.remaining() < 1) {
+            return false;
+        }
+        byte tag = buffer.get();
+        if (tag == TrackRecorder.TAG_KEYFRAME) {
+            latE7 = (int) TrackRecorder.unzigzag(readVarLong());
+            lonE7 = (int) TrackRecorder.unzigzag(readVarLong());
+            time = TrackRecorder.unzigzag(readVarLong());
+            return true;
+        }
+        if (tag == TrackRecorder.TAG_DELTA) {
+            latE7 += (int) TrackRecorder.unzigzag(readVarLong());
+            lonE7 += (int) TrackRecorder.unzigzag(readVarLong());
+            time += TrackRecorder.unzigzag(readVarLong());
+            return true;
+        }
+        // End of segment, or the unwritten tail of a segment that was not closed
+        return false;
+    }
+
+    private boolean openNextSegment() throws IOException {
+        close();
+        while (++segment < sequences.length) {
+            File segmentFile = new File(directory, TrackRecorder.segmentName(sequences[segment]));
+            file = new RandomAccessFile(segmentFile, "r");
+            long length = file.length();
+            if (length >= TrackRecorder.HEADER_SIZE) {
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                if (buffer.getInt() == TrackRecorder.MAGIC && buffer.getInt() == 1) {
+                    return true;
+                }
+            }
+            close();
+        }
+        return false;
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,346 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * Records a track into append only segment files in a directory, a few bytes per fix.
+ * <p>
+ * Positions are stored in 1e-7 degrees and every record holds the zigzag varint deltas of
+ * latitude, longitude and time from the previous one. Each segment starts with an absolute
+ * keyframe, so segments can be read on their own. Segments are written through a
+ * {@link MappedByteBuffer}: appending is a memory write, and the record tag is written after
+ * its payload, so after a crash a reader stops at the last complete record. When a segment is
+ * full it is closed and the next one is started.
+ * <p>
+ * {@link #append} only copies the fix to a primitive queue. Encoding, rollover and
+ * {@code force()} run on the recorder's own thread, never on the caller's. Read the segments
+ * back with {@link TrackReader}.
+ */
+public class TrackRecorder {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    static final int MAGIC = 0x54524b31; // "TRK1"
+    static final int HEADER_SIZE = 8;
+    static final String SEGMENT_PREFIX = "track-";
+    static final String SEGMENT_SUFFIX = ".trk";
+
+    static final byte TAG_NONE = 0;
+    static final byte TAG_KEYFRAME = 1;
+    static final byte TAG_DELTA = 2;
+    static final byte TAG_SEGMENT_END = 3;
+
+    private static final int MAX_RECORD_SIZE = 1 + 5 + 5 + 10;
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final long FORCE_INTERVAL_MS = 5000;
+
+    private final File directory;
+    private final int segmentSize;
+
+    // Fixes waiting for the writer thread, guarded by lock
+    private final Object lock = new Object();
+    private final int[] pendingLat = new int[QUEUE_CAPACITY];
+    private final int[] pendingLon = new int[QUEUE_CAPACITY];
+    private final long[] pendingTime = new long[QUEUE_CAPACITY];
+    private int pendingStart;
+    private int pendingCount;
+    private boolean writing;
+    private boolean running;
+    private long dropped;
+    private long recorded;
+    private IOException error;
+    private Thread writer;
+
+    // Only touched by the writer thread
+    private int sequence;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private boolean keyframeNeeded;
+    private int previousLat;
+    private int previousLon;
+    private long previousTime;
+    private long lastForceMs;
+
+    public TrackRecorder(File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public TrackRecorder(File directory, int segmentSize) {
+        if (segmentSize < HEADER_SIZE + 2 * MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Segment too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Starts the writer thread. A new segment is opened after the ones already in the
+     * directory, existing segments are never modified.
+     */
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            error = null;
+        }
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "track-recorder");
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    /**
+     * Queues a fix, returns false if it was dropped because the recorder is stopped, failed
+     * or too far behind.
+     */
+    public boolean append(double latitude, double longitude, long timeMs) {
+        synchronized (lock) {
+            if (!running || error != null) {
+                return false;
+            }
+            if (pendingCount == QUEUE_CAPACITY) {
+                dropped++;
+                return false;
+            }
+            int index = (pendingStart + pendingCount) % QUEUE_CAPACITY;
+            pendingLat[index] = toE7(latitude);
+            pendingLon[index] = toE7(longitude);
+            pendingTime[index] = timeMs;
+            pendingCount++;
+            if (pendingCount == 1) {
+                lock.notifyAll();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Blocks until every queued fix is in the mapped segment.
+     */
+    public void flush() throws InterruptedException {
+        synchronized (lock) {
+            while ((pendingCount > 0 || writing) && running && error == null) {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Writes the queued fixes, closes the current segment and stops the writer thread.
+     */
+    public void close() throws InterruptedException {
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            lock.notifyAll();
+        }
+        writer.join();
+        writer = null;
+    }
+
+    /**
+     * Error that stopped the recorder, or null.
+     */
+    public IOException getError() {
+        synchronized (lock) {
+            return error;
+        }
+    }
+
+    public long getRecordedCount() {
+        synchronized (lock) {
+            return recorded;
+        }
+    }
+
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return dropped;
+        }
+    }
+
+    static String segmentName(int sequence) {
+        return String.format(Locale.US, "%s%06d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX);
+    }
+
+    static int segmentSequence(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void writeLoop() {
+        int[] lat = new int[QUEUE_CAPACITY];
+        int[] lon = new int[QUEUE_CAPACITY];
+        long[] time = new long[QUEUE_CAPACITY];
+        try {
+            openNextSegment();
+            while (true) {
+                int count;
+                boolean stopping;
+                synchronized (lock) {
+                    while (pendingCount == 0 && running) {
+                        lock.wait(FORCE_INTERVAL_MS);
+                        if (pendingCount == 0) {
+                            break;
+                        }
+                    }
+                    stopping = !running;
+                    count = pendingCount;
+                    for (int i = 0; i < count; i++) {
+                        int index = (pendingStart + i) % QUEUE_CAPACITY;
+                        lat[i] = pendingLat[index];
+                        lon[i] = pendingLon[index];
+                        time[i] = pendingTime[index];
+                    }
+                    pendingStart = (pendingStart + count) % QUEUE_CAPACITY;
+                    pendingCount = 0;
+                    writing = true;
+                }
+                for (int i = 0; i < count; i++) {
+                    write(lat[i], lon[i], time[i]);
+                }
+                synchronized (lock) {
+                    recorded += count;
+                    writing = false;
+                    lock.notifyAll();
+                }
+                long now = System.currentTimeMillis();
+                if (stopping) {
+                    closeSegment();
+                    return;
+                }
+                if (now - lastForceMs >= FORCE_INTERVAL_MS) {
+                    buffer.force();
+                    lastForceMs = now;
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new IOException("Interrupted"));
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (lock) {
+            error = e;
+            writing = false;
+            lock.notifyAll();
+        }
+        try {
+            closeSegment();
+        } catch (IOException ignored) {
+            // Already failing
+        }
+    }
+
+    private void write(int lat, int lon, long time) throws IOException {
+        if (buffer.remaining() < MAX_RECORD_SIZE + 1) {
+            closeSegment();
+            openNextSegment();
+        }
+        int start = buffer.position();
+        buffer.position(start + 1);
+        byte tag;
+        if (keyframeNeeded) {
+            tag = TAG_KEYFRAME;
+            writeVarLong(zigzag(lat));
+            writeVarLong(zigzag(lon));
+            writeVarLong(zigzag(time));
+            keyframeNeeded = false;
+        } else {
+            tag = TAG_DELTA;
+            writeVarLong(zigzag((long) lat - previousLat));
+            writeVarLong(zigzag((long) lon - previousLon));
+            writeVarLong(zigzag(time - previousTime));
+        }
+        // Tag last, a record is only visible once it is complete
+        buffer.put(start, tag);
+        previousLat = lat;
+        previousLon = lon;
+        previousTime = time;
+    }
+
+    private void openNextSegment() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        if (sequence == 0) {
+            String[] names = directory.list();
+            if (names != null) {
+                for (String name : names) {
+                    sequence = Math.max(sequence, segmentSequence(name));
+                }
+            }
+        }
+        sequence++;
+        file = new RandomAccessFile(new File(directory, segmentName(sequence)), "rw");
+        channel = file.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        buffer.putInt(MAGIC);
+        buffer.putInt(1);
+        keyframeNeeded = true;
+        lastForceMs = System.currentTimeMillis();
+    }
+
+    private void closeSegment() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        int end = buffer.position();
+        if (buffer.remaining() > 0) {
+            buffer.put(TAG_SEGMENT_END);
+            end++;
+        }
+        buffer.force();
+        buffer = null;
+        try {
+            channel.truncate(end);
+        } finally {
+            file.close();
+            file = null;
+            channel = null;
+        }
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int toE7(double degrees) {
+        return (int) Math.round(degrees * 1e7);
+    }
+}
@@ -0,0 +1,243 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps markers on the map only for the items around the visible region.
+ * <p>
+ * Items live in a {@link ViewportSelector}. When the camera stops, the visible region plus a
+ * margin is queried off the main thread and diffed against the markers already drawn: markers that
+ * left the region are hidden and kept in a pool, and new items reuse them before any new marker
+ * is added. The number of live markers depends on the screen, not on the number of items.
+ * Must be used from the main thread.
+ */
+public class ViewportMarkerRenderer implements GoogleMap.OnCameraIdleListener {
+
+    public static final int DEFAULT_MAX_MARKERS = 300;
+
+    // Fraction of the visible region added on every side before querying
+    private static final double VIEWPORT_MARGIN = 0.25;
+
+    private static final int MAX_POOLED_MARKERS = 100;
+
+    private String TAG = "ViewportMarkerRenderer";
+
+    private final MapCameraDispatcher cameraDispatcher;
+    private final GoogleMap googleMap;
+    private final ViewportSelector selector = new ViewportSelector();
+    private final SparseArray<String> titles = new SparseArray<>();
+    private final SparseArray<Marker> drawn = new SparseArray<>();
+    private final ArrayList<Marker> pool = new ArrayList<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private int maxMarkers = DEFAULT_MAX_MARKERS;
+
+    private int generation;
+    private boolean dirty = true;
+    private boolean refreshPending = false;
+    private GeoBounds renderedBounds;
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refreshPending = false;
+            refresh();
+        }
+    };
+
+    public ViewportMarkerRenderer(MapCameraDispatcher cameraDispatcher) {
+        this.cameraDispatcher = cameraDispatcher;
+        this.googleMap = cameraDispatcher.getMap();
+        cameraDispatcher.addOnCameraIdleListener(this);
+    }
+
+    /**
+     * Sets the maximum number of markers drawn at once. When more items are in view, the ones
+     * closest to the center of the map are drawn.
+     */
+    public void setMaxMarkers(int maxMarkers) {
+        this.maxMarkers = maxMarkers;
+        invalidate();
+    }
+
+    /**
+     * Adds an item, or moves it if the id is already used.
+     */
+    public void addItem(int id, double latitude, double longitude, String title) {
+        selector.put(id, latitude, longitude);
+        titles.put(id, title);
+        Marker marker = drawn.get(id);
+        if (marker != null) {
+            marker.setPosition(new LatLng(latitude, longitude));
+            marker.setTitle(title);
+        }
+        invalidate();
+    }
+
+    /**
+     * Replaces the items with the points of the store, under their ids and without titles.
+     * Markers are only built for the points in view. Call it again after moving points of the
+     * store, markers already drawn are moved right away.
+     */
+    public void setItems(PointStore store) {
+        selector.load(store);
+        titles.clear();
+        for (int i = 0; i < drawn.size(); i++) {
+            int id = drawn.keyAt(i);
+            if (store.contains(id)) {
+                Marker marker = drawn.valueAt(i);
+                marker.setPosition(store.toLatLng(id));
+                marker.setTitle(null);
+            }
+        }
+        invalidate();
+    }
+
+    public void removeItem(int id) {
+        if (selector.remove(id)) {
+            titles.remove(id);
+            invalidate();
+        }
+    }
+
+    public void clearItems() {
+        selector.clear();
+        titles.clear();
+        invalidate();
+    }
+
+    /**
+     * Returns the number of markers currently shown on the map.
+     */
+    public int getMarkerCount() {
+        return drawn.size();
+    }
+
+    @Override
+    public void onCameraIdle() {
+        refresh();
+    }
+
+    /**
+     * Diffs the region around the camera against the drawn markers, unless nothing changed
+     * since the last time.
+     */
+    public void refresh() {
+        GeoBounds visible = cameraDispatcher.getVisibleBounds();
+        if (!dirty && renderedBounds != null && renderedBounds.contains(visible)) {
+            return;
+        }
+        final GeoBounds bounds = visible.pad(VIEWPORT_MARGIN);
+        renderedBounds = bounds;
+        dirty = false;
+
+        final int requestGeneration = ++generation;
+        final int limit = maxMarkers;
+        MapExecutors.background().execute(new Runnable() {
+            @Override
+            public void run() {
+                final ViewportSelector.Selection result = selector.select(bounds, limit);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (requestGeneration == generation) {
+                            long start = FrameMonitor.begin(JankStats.OP_OVERLAY_UPDATE);
+                            render(result);
+                            FrameMonitor.end(JankStats.OP_OVERLAY_UPDATE, start);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Removes every marker drawn by this renderer and stops listening to the camera.
+     */
+    public void destroy() {
+        generation++;
+        handler.removeCallbacks(refreshRunnable);
+        refreshPending = false;
+        cameraDispatcher.removeOnCameraIdleListener(this);
+        for (int i = 0; i < drawn.size(); i++) {
+            drawn.valueAt(i).remove();
+        }
+        drawn.clear();
+        for (Marker marker : pool) {
+            marker.remove();
+        }
+        pool.clear();
+    }
+
+    private void render(ViewportSelector.Selection visible) {
+        IntIntMap wanted = new IntIntMap(visible.size);
+        for (int i = 0; i < visible.size; i++) {
+            wanted.put(visible.ids[i], i, -1);
+        }
+
+        // Hide the markers that left the region, from the end so indexes stay valid
+        int removed = 0;
+        for (int i = drawn.size() - 1; i >= 0; i--) {
+            if (!wanted.containsKey(drawn.keyAt(i))) {
+                recycle(drawn.valueAt(i));
+                drawn.removeAt(i);
+                removed++;
+            }
+        }
+
+        int added = 0;
+        int reused = 0;
+        for (int i = 0; i < visible.size; i++) {
+            int id = visible.ids[i];
+            if (drawn.get(id) != null) {
+                continue;
+            }
+            LatLng position = new LatLng(visible.latitudes[i], visible.longitudes[i]);
+            // Items loaded from a store have no title
+            String title = titles.get(id);
+            Marker marker;
+            if (!pool.isEmpty()) {
+                marker = pool.remove(pool.size() - 1);
+                marker.setPosition(position);
+                marker.setTitle(title);
+                marker.setVisible(true);
+                reused++;
+            } else {
+                marker = googleMap.addMarker(new MarkerOptions()
+                        .position(position)
+                        .title(title));
+            }
+            drawn.put(id, marker);
+            added++;
+        }
+        Log.d(TAG, "render: " + drawn.size() + " markers, " + added + " added (" + reused
+                + " reused), " + removed + " removed");
+    }
+
+    private void recycle(Marker marker) {
+        if (pool.size() < MAX_POOLED_MARKERS) {
+            marker.setVisible(false);
+            pool.add(marker);
+        } else {
+            marker.remove();
+        }
+    }
+
+    private void invalidate() {
+        dirty = true;
+        if (!refreshPending) {
+            refreshPending = true;
+            handler.post(refreshRunnable);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package es.age.apps.mapwrapperexample.utils;
+
+/**
+ * Picks the items {@link ViewportMarkerRenderer} draws for a region: every item inside it, or
+ * the ones closest to its center when there are more than a limit.
+ * <p>
+ * Items live in a {@link SpatialIndex}, so selections can run off the main thread while items
+ * are added. Positions always come from the bounds query, which handles regions crossing the
+ * antimeridian, so only items inside the region are ever selected.
+ */
+public class ViewportSelector {
+
+    private final SpatialIndex index = new SpatialIndex();
+    // Guarded by itself, selections may run on several threads
+    private final Candidates candidates = new Candidates();
+
+    /**
+     * Items selected for a region, in parallel arrays.
+     */
+    public static final class Selection {
+        public int size;
+        public final int[] ids;
+        public final double[] latitudes;
+        public final double[] longitudes;
+
+        Selection(int capacity) {
+            ids = new int[capacity];
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+        }
+
+        void add(int id, double latitude, double longitude) {
+            ids[size] = id;
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            size++;
+        }
+    }
+
+    // Every item inside a region, with its distance to the center. Reused by every selection
+    // over the limit, its arrays only grow
+    private static final class Candidates implements SpatialIndex.PointVisitor {
+        double centerLatitude;
+        double centerLongitude;
+        double lonScale;
+        int size;
+        int capacity;
+        int[] ids = new int[0];
+        double[] latitudes = new double[0];
+        double[] longitudes = new double[0];
+        double[] distances = new double[0];
+        int[] heap = new int[0];
+
+        void reset(GeoBounds bounds, int capacity, int kept) {
+            centerLatitude = bounds.getCenterLatitude();
+            centerLongitude = bounds.getCenterLongitude();
+            lonScale = Math.cos(Math.toRadians(centerLatitude));
+            size = 0;
+            this.capacity = capacity;
+            if (ids.length < capacity) {
+                int grown = Math.max(capacity, ids.length * 3 / 2);
+                ids = new int[grown];
+                latitudes = new double[grown];
+                longitudes = new double[grown];
+                distances = new double[grown];
+            }
+            if (heap.length < kept) {
+                heap = new int[kept];
+            }
+        }
+
+        @Override
+        public void visit(int id, double latitude, double longitude) {
+            // Items added since the count are left for the next selection
+            if (size == capacity) {
+                return;
+            }
+            double dLat = latitude - centerLatitude;
+            double dLon = GeoBounds.wrapLongitude(longitude - centerLongitude) * lonScale;
+            ids[size] = id;
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            distances[size] = dLat * dLat + dLon * dLon;
+            size++;
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Adds an item, or moves it if the id is already used.
+     */
+    public void put(int id, double latitude, double longitude) {
+        index.insert(id, latitude, longitude);
+    }
+
+    public boolean remove(int id) {
+        return index.remove(id);
+    }
+
+    public void clear() {
+        index.clear();
+    }
+
+    /**
+     * Replaces the items with the points of the store, under their ids.
+     */
+    public void load(PointStore store) {
+        int size = store.size();
+        int[] ids = new int[size];
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        store.copyTo(ids, latitudes, longitudes);
+        index.bulkLoad(ids, latitudes, longitudes, size);
+    }
+
+    /**
+     * Selects the items inside the bounds, at most {@code limit} of them. When there are more,
+     * the ones closest to the center of the bounds are kept, nearest first.
+     */
+    public Selection select(GeoBounds bounds, int limit) {
+        int count = index.count(bounds.south, bounds.west, bounds.north, bounds.east);
+        final Selection selection = new Selection(Math.min(count, limit));
+        if (count <= limit) {
+            index.query(bounds.south, bounds.west, bounds.north, bounds.east,
+                    new SpatialIndex.PointVisitor() {
+                        @Override
+                        public void visit(int id, double latitude, double longitude) {
+                            if (selection.size < selection.ids.length) {
+                                selection.add(id, latitude, longitude);
+                            }
+                        }
+                    });
+            return selection;
+        }
+
+        // Too many items in view, keep the ones closest to the center
+        synchronized (candidates) {
+            candidates.reset(bounds, count, limit);
+            index.query(bounds.south, bounds.west, bounds.north, bounds.east, candidates);
+            selectClosest(candidates, Math.min(limit, candidates.size), selection);
+        }
+        return selection;
+    }
+
+    private static void selectClosest(Candidates candidates, int kept, Selection selection) {
+        // Max heap of the closest candidates found so far, the farthest on top
+        int[] heap = candidates.heap;
+        int heapSize = 0;
+        double[] distances = candidates.distances;
+        for (int i = 0; i < candidates.size; i++) {
+            if (heapSize < kept) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++, distances);
+            } else if (kept > 0 && distances[i] < distances[heap[0]]) {
+                heap[0] = i;
+                siftDown(heap, heapSize, distances);
+            }
+        }
+        // Popping the farthest first fills the selection from the end
+        selection.size = heapSize;
+        while (heapSize > 0) {
+            int candidate = heap[0];
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize, distances);
+            selection.ids[heapSize] = candidates.ids[candidate];
+            selection.latitudes[heapSize] = candidates.latitudes[candidate];
+            selection.longitudes[heapSize] = candidates.longitudes[candidate];
+        }
+    }
+
+    private static void siftUp(int[] heap, int position, double[] distances) {
+        int value = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (distances[heap[parent]] >= distances[value]) {
+                break;
+            }
+            heap[position] = heap[parent];
+            position = parent;
+        }
+        heap[position] = value;
+    }
+
+    private static void siftDown(int[] heap, int size, double[] distances) {
+        if (size == 0) {
+            return;
+        }
+        int value = heap[0];
+        int position = 0;
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && distances[heap[child + 1]] > distances[heap[child]]) {
+                child++;
+            }
+            if (distances[heap[child]] <= distances[value]) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = value;
+    }
+}
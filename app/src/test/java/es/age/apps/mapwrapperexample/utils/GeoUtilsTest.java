@@ -0,0 +1,38 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link GeoUtils}.
+ */
+public class GeoUtilsTest {
+
+    @Test
+    public void distanceBetweenCities() throws Exception {
+        // Madrid to Barcelona, about 505 km
+        assertEquals(505000, GeoUtils.distance(40.4168, -3.7038, 41.3851, 2.1734), 2000);
+        assertEquals(0, GeoUtils.distance(40.4168, -3.7038, 40.4168, -3.7038), 1e-9);
+    }
+
+    @Test
+    public void bearingAlongTheAxes() throws Exception {
+        assertEquals(0, GeoUtils.bearing(0, 0, 1, 0), 1e-9);
+        assertEquals(90, GeoUtils.bearing(0, 0, 0, 1), 1e-9);
+        assertEquals(180, GeoUtils.bearing(1, 0, 0, 0), 1e-9);
+        assertEquals(270, GeoUtils.bearing(0, 1, 0, 0), 1e-9);
+        // Across the antimeridian the short way is still east
+        assertEquals(90, GeoUtils.bearing(0, 179.5, 0, -179.5), 1e-9);
+    }
+
+    @Test
+    public void geohashOfKnownPositions() throws Exception {
+        assertEquals("u4pruydqqvj", GeoUtils.geohash(57.64911, 10.40744, 11));
+        assertEquals("ezjmgtw", GeoUtils.geohash(40.4168, -3.7038, 7));
+        // Neighbouring positions share the prefix of their cell
+        assertEquals(GeoUtils.geohash(40.41680, -3.70380, 7),
+                GeoUtils.geohash(40.41685, -3.70385, 7));
+        assertEquals("s0000000", GeoUtils.geohash(0, 0, 8));
+    }
+}
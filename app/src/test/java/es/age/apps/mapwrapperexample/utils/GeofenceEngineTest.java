@@ -0,0 +1,109 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link GeofenceEngine}.
+ */
+public class GeofenceEngineTest {
+
+    private static final class Recorder implements GeofenceEngine.Listener {
+        final List<int[]> events = new ArrayList<>();
+
+        @Override
+        public void onGeofenceTransition(int fenceId, int transition, long timeMs) {
+            events.add(new int[]{fenceId, transition, (int) timeMs});
+        }
+    }
+
+    // An L shaped zone, concave so ray casting is actually exercised
+    private static int addL(GeofenceEngine engine, double lat, double lon, double size) {
+        double[] lats = {lat, lat, lat + size / 2, lat + size / 2, lat + size, lat + size};
+        double[] lons = {lon, lon + size, lon + size, lon + size / 2, lon + size / 2, lon};
+        return engine.addPolygon(lats, lons, lats.length);
+    }
+
+    @Test
+    public void matchesPointInPolygonOfConcaveFences() throws Exception {
+        GeofenceEngine engine = new GeofenceEngine(0, 0, 0);
+        int fence = addL(engine, 40, -3, 1);
+        assertTrue(engine.contains(fence, 40.25, -2.25));
+        assertTrue(engine.contains(fence, 40.75, -2.75));
+        // The missing quadrant of the L
+        assertFalse(engine.contains(fence, 40.75, -2.25));
+        assertFalse(engine.contains(fence, 39.9, -2.5));
+    }
+
+    @Test
+    public void debouncesTransitions() throws Exception {
+        GeofenceEngine engine = new GeofenceEngine(2000, 5000, 10000);
+        Recorder recorder = new Recorder();
+        engine.addListener(recorder);
+        int fence = engine.addCircle(40.4168, -3.7038, 100, 32);
+
+        // Outside, then a single fix inside is not enough to enter
+        assertEquals(0, engine.process(40.42, -3.7038, 0));
+        assertEquals(0, engine.process(40.4168, -3.7038, 1000));
+        assertEquals(0, engine.process(40.42, -3.7038, 2000));
+        assertFalse(engine.isInside(fence));
+
+        // Staying inside enters after the delay, then dwells
+        engine.process(40.4168, -3.7038, 10000);
+        assertEquals(1, engine.process(40.4168, -3.7038, 12000));
+        assertTrue(engine.isInside(fence));
+        assertEquals(1, engine.process(40.4168, -3.7038, 20000));
+
+        // Short trip out along the border is ignored, a long one exits
+        engine.process(40.42, -3.7038, 21000);
+        engine.process(40.4168, -3.7038, 23000);
+        engine.process(40.42, -3.7038, 24000);
+        assertEquals(0, engine.process(40.42, -3.7038, 28000));
+        assertEquals(1, engine.process(40.42, -3.7038, 29000));
+        assertFalse(engine.isInside(fence));
+
+        assertEquals(3, recorder.events.size());
+        assertArrayEquals(new int[]{fence, GeofenceEngine.TRANSITION_ENTER, 12000},
+                recorder.events.get(0));
+        assertArrayEquals(new int[]{fence, GeofenceEngine.TRANSITION_DWELL, 20000},
+                recorder.events.get(1));
+        assertArrayEquals(new int[]{fence, GeofenceEngine.TRANSITION_EXIT, 29000},
+                recorder.events.get(2));
+    }
+
+    @Test
+    public void evaluatesManyFencesQuickly() throws Exception {
+        GeofenceEngine engine = new GeofenceEngine(0, 0, 0);
+        Random random = new Random(11);
+        int fences = 20000;
+        for (int i = 0; i < fences; i++) {
+            addL(engine, 40 + random.nextDouble() * 2, -4 + random.nextDouble() * 2,
+                    0.005 + random.nextDouble() * 0.02);
+        }
+        double[] lats = new double[10000];
+        double[] lons = new double[10000];
+        for (int i = 0; i < lats.length; i++) {
+            lats[i] = 40 + random.nextDouble() * 2;
+            lons[i] = -4 + random.nextDouble() * 2;
+        }
+        // Check the index against a brute force scan
+        for (int i = 0; i < 200; i++) {
+            engine.process(lats[i], lons[i], i);
+            for (int fence = 0; fence < fences; fence++) {
+                assertEquals(engine.contains(fence, lats[i], lons[i]), engine.isInside(fence));
+            }
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < lats.length; i++) {
+            engine.process(lats[i], lons[i], 1000 + i);
+        }
+        long perFixNanos = (System.nanoTime() - start) / lats.length;
+        assertTrue("per fix " + perFixNanos + "ns", perFixNanos < 200000);
+        assertTrue(engine.getLastCandidateCount() < 200);
+    }
+}
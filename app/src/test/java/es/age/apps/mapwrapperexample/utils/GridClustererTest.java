@@ -0,0 +1,77 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link GridClusterer}.
+ */
+public class GridClustererTest {
+
+    private static int total(List<GridClusterer.Cluster> clusters) {
+        int total = 0;
+        for (GridClusterer.Cluster cluster : clusters) {
+            total += cluster.count;
+        }
+        return total;
+    }
+
+    @Test
+    public void closePointsClusterAtLowZoomAndSplitAtHighZoom() throws Exception {
+        GridClusterer clusterer = new GridClusterer();
+        clusterer.add(-34.000, 151.000);
+        clusterer.add(-34.001, 151.001);
+        clusterer.add(40.4, -3.7);
+
+        List<GridClusterer.Cluster> world = clusterer.getClusters(3, -85, -180, 85, 180);
+        assertEquals(2, world.size());
+        assertEquals(3, total(world));
+
+        List<GridClusterer.Cluster> street = clusterer.getClusters(20, -85, -180, 85, 180);
+        assertEquals(3, street.size());
+        for (GridClusterer.Cluster cluster : street) {
+            assertFalse(cluster.isCluster());
+            assertEquals(-(cluster.itemId + 1L), cluster.key);
+        }
+    }
+
+    @Test
+    public void boundsOnlyReturnVisibleCells() throws Exception {
+        GridClusterer clusterer = new GridClusterer();
+        clusterer.add(-34, 151);
+        clusterer.add(40.4, -3.7);
+
+        List<GridClusterer.Cluster> sydney = clusterer.getClusters(10, -35, 150, -33, 152);
+        assertEquals(1, sydney.size());
+        assertEquals(-34, sydney.get(0).latitude, 1e-9);
+
+        // Bounds crossing the antimeridian
+        List<GridClusterer.Cluster> pacific = clusterer.getClusters(10, -35, 150, -33, -170);
+        assertEquals(1, pacific.size());
+    }
+
+    @Test
+    public void builtLevelsFollowAddAndRemove() throws Exception {
+        GridClusterer clusterer = new GridClusterer();
+        int first = clusterer.add(10, 10);
+        assertEquals(1, total(clusterer.getClusters(2, -85, -180, 85, 180)));
+
+        int second = clusterer.add(10.01, 10.01);
+        List<GridClusterer.Cluster> clusters = clusterer.getClusters(2, -85, -180, 85, 180);
+        assertEquals(1, clusters.size());
+        assertEquals(2, clusters.get(0).count);
+
+        assertTrue(clusterer.remove(first));
+        assertFalse(clusterer.remove(first));
+        clusters = clusterer.getClusters(2, -85, -180, 85, 180);
+        assertEquals(1, clusters.size());
+        assertEquals(second, clusters.get(0).itemId);
+
+        // Removed ids are reused
+        assertEquals(first, clusterer.add(0, 0));
+        assertEquals(2, clusterer.size());
+    }
+}
@@ -0,0 +1,92 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link HeatmapRasterizer}.
+ */
+public class HeatmapRasterizerTest {
+
+    private static final int ZOOM = 12;
+
+    private static double[][] points(int size, long seed) {
+        Random random = new Random(seed);
+        double[][] points = new double[2][size];
+        for (int i = 0; i < size; i++) {
+            points[0][i] = 40.4168 + random.nextGaussian() * 0.01;
+            points[1][i] = -3.7038 + random.nextGaussian() * 0.01;
+        }
+        return points;
+    }
+
+    private static int tileX(double longitude) {
+        return (int) (GeoUtils.lonToX(longitude) * (1 << ZOOM));
+    }
+
+    private static int tileY(double latitude) {
+        return (int) (GeoUtils.latToY(latitude) * (1 << ZOOM));
+    }
+
+    @Test
+    public void drawsOnlyTilesNearThePoints() throws Exception {
+        HeatmapRasterizer rasterizer = new HeatmapRasterizer();
+        double[][] points = points(100000, 5);
+        rasterizer.addPoints(points[0], points[1], 100000);
+        int[] pixels = rasterizer.render(ZOOM, tileX(-3.7038), tileY(40.4168));
+        assertNotNull(pixels);
+        assertEquals(HeatmapRasterizer.TILE_SIZE * HeatmapRasterizer.TILE_SIZE, pixels.length);
+        assertNull(rasterizer.render(ZOOM, tileX(2.1734), tileY(41.3851)));
+        assertTrue(rasterizer.getMaxCount(ZOOM) > 1);
+    }
+
+    @Test
+    public void addingPointsMatchesBuildingFromScratch() throws Exception {
+        double[][] first = points(20000, 1);
+        double[][] second = points(5000, 2);
+        int x = tileX(-3.7038);
+        int y = tileY(40.4168);
+
+        HeatmapRasterizer incremental = new HeatmapRasterizer();
+        incremental.addPoints(first[0], first[1], 20000);
+        // Build the grid before the second batch, so it is updated in place
+        incremental.render(ZOOM, x, y);
+        incremental.addPoints(second[0], second[1], 5000);
+
+        HeatmapRasterizer scratch = new HeatmapRasterizer();
+        scratch.addPoints(first[0], first[1], 20000);
+        scratch.addPoints(second[0], second[1], 5000);
+
+        assertEquals(scratch.getMaxCount(ZOOM), incremental.getMaxCount(ZOOM));
+        assertArrayEquals(scratch.render(ZOOM, x, y), incremental.render(ZOOM, x, y));
+    }
+
+    @Test
+    public void reportsTilesTouchedByAPoint() throws Exception {
+        HeatmapRasterizer rasterizer = new HeatmapRasterizer();
+        final HashSet<Long> tiles = new HashSet<>();
+        HeatmapRasterizer.TileVisitor visitor = new HeatmapRasterizer.TileVisitor() {
+            @Override
+            public void visit(int zoom, int x, int y) {
+                tiles.add(TilePack.key(zoom, x, y));
+            }
+        };
+        // Center of a tile, only that tile
+        double longitude = GeoUtils.xToLon((100.5) / (1 << ZOOM));
+        double latitude = GeoUtils.yToLat((200.5) / (1 << ZOOM));
+        rasterizer.affectedTiles(latitude, longitude, ZOOM, visitor);
+        assertEquals(1, tiles.size());
+        assertTrue(tiles.contains(TilePack.key(ZOOM, 100, 200)));
+
+        // Corner of four tiles
+        tiles.clear();
+        rasterizer.affectedTiles(GeoUtils.yToLat(200.0 / (1 << ZOOM)),
+                GeoUtils.xToLon(100.0 / (1 << ZOOM)), ZOOM, visitor);
+        assertEquals(4, tiles.size());
+        assertTrue(tiles.contains(TilePack.key(ZOOM, 99, 199)));
+    }
+}
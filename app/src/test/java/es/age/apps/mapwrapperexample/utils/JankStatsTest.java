@@ -0,0 +1,59 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link JankStats}.
+ */
+public class JankStatsTest {
+
+    private static final long FRAME = JankStats.DEFAULT_FRAME_NANOS;
+
+    @Test
+    public void chargesSlowFramesToTheLongestOperation() throws Exception {
+        JankStats stats = new JankStats();
+        int cameraAndMarkers = (1 << JankStats.OP_CAMERA_MOVE) | (1 << JankStats.OP_MARKER_BATCH);
+        for (int i = 0; i < 10; i++) {
+            stats.onFrame(i * FRAME, FRAME, cameraAndMarkers, JankStats.OP_MARKER_BATCH);
+        }
+        // Two vsyncs missed while adding markers during a camera move
+        stats.onFrame(10 * FRAME, 3 * FRAME, cameraAndMarkers, JankStats.OP_MARKER_BATCH);
+        // One missed with nothing of the wrapper running
+        stats.onFrame(12 * FRAME, 2 * FRAME, 0, JankStats.OP_NONE);
+
+        assertEquals(12, stats.getFrameCount());
+        assertEquals(2, stats.getSlowFrameCount());
+        assertEquals(3, stats.getDroppedFrameCount());
+        assertEquals(1, stats.getSlowFrameCount(JankStats.OP_CAMERA_MOVE));
+        assertEquals(1, stats.getSlowFrameCount(JankStats.OP_MARKER_BATCH));
+        assertEquals(0, stats.getSlowFrameCount(JankStats.OP_LOCATION_CALLBACK));
+        assertEquals(2 * FRAME, stats.getJankNanos(JankStats.OP_MARKER_BATCH));
+        assertEquals(0, stats.getJankNanos(JankStats.OP_CAMERA_MOVE));
+        assertEquals(FRAME, stats.getJankNanos(JankStats.OP_NONE));
+        assertEquals(JankStats.OP_MARKER_BATCH, stats.getWorstOperation());
+    }
+
+    @Test
+    public void keepsTheLastSlowFrames() throws Exception {
+        JankStats stats = new JankStats(FRAME, 4);
+        for (int i = 0; i < 10; i++) {
+            stats.onFrame(i, 2 * FRAME + i, 1 << JankStats.OP_OVERLAY_UPDATE,
+                    JankStats.OP_OVERLAY_UPDATE);
+        }
+        List<JankStats.SlowFrame> frames = stats.getSlowFrames();
+        assertEquals(4, frames.size());
+        assertEquals(6, frames.get(0).timeNanos);
+        assertEquals(9, frames.get(3).timeNanos);
+        assertTrue(frames.get(3).hasOperation(JankStats.OP_OVERLAY_UPDATE));
+        assertFalse(frames.get(3).hasOperation(JankStats.OP_CAMERA_MOVE));
+        assertEquals(10, stats.getSlowFrameCount(JankStats.OP_OVERLAY_UPDATE));
+
+        stats.clear();
+        assertEquals(0, stats.getSlowFrames().size());
+        assertEquals(JankStats.OP_NONE, stats.getWorstOperation());
+    }
+}
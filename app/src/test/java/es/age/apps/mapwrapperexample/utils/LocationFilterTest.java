@@ -0,0 +1,84 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LocationFilter} on a synthetic walking trace.
+ */
+public class LocationFilterTest {
+
+    private static final double START_LAT = 40.4168;
+    private static final double START_LON = -3.7038;
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * GeoUtils.EARTH_RADIUS_M;
+
+    // Walking east at 1.4 m/s, one fix per second
+    private static double trueLon(int second) {
+        return START_LON + 1.4 * second
+                / (METERS_PER_DEGREE * Math.cos(Math.toRadians(START_LAT)));
+    }
+
+    @Test
+    public void smoothsNoiseAndRejectsSpikes() throws Exception {
+        Random random = new Random(7);
+        LocationFilter filter = new LocationFilter();
+        double rawError = 0;
+        double filteredError = 0;
+        int rejected = 0;
+        int fixes = 300;
+        for (int t = 0; t < fixes; t++) {
+            double noise = 6 / METERS_PER_DEGREE;
+            double lat = START_LAT + random.nextGaussian() * noise;
+            double lon = trueLon(t) + random.nextGaussian() * noise;
+            boolean spike = t > 20 && t % 50 == 0;
+            if (spike) {
+                // Multipath jump of about 1km
+                lat += 0.01;
+            }
+            int result = filter.process(lat, lon, 8, 1000L * t);
+            if (spike) {
+                assertFalse(LocationFilter.isAccepted(result));
+                rejected++;
+                continue;
+            }
+            assertTrue(LocationFilter.isAccepted(result));
+            if (t > 30) {
+                rawError += GeoUtils.distance(START_LAT, trueLon(t), lat, lon);
+                filteredError += GeoUtils.distance(START_LAT, trueLon(t),
+                        filter.getLatitude(), filter.getLongitude());
+            }
+        }
+        assertEquals(5, rejected);
+        assertTrue("filtered " + filteredError + " raw " + rawError, filteredError < rawError * 0.7);
+    }
+
+    @Test
+    public void rejectsInaccurateAndOutOfOrderFixes() throws Exception {
+        LocationFilter filter = new LocationFilter();
+        assertEquals(LocationFilter.RESULT_REJECTED_ACCURACY,
+                filter.process(START_LAT, START_LON, 500, 0));
+        assertFalse(filter.isInitialized());
+        assertEquals(LocationFilter.RESULT_ACCEPTED, filter.process(START_LAT, START_LON, 10, 1000));
+        assertEquals(LocationFilter.RESULT_REJECTED_TIME, filter.process(START_LAT, START_LON, 10, 1000));
+    }
+
+    @Test
+    public void restartsAfterARealJump() throws Exception {
+        LocationFilter filter = new LocationFilter();
+        for (int t = 0; t < 10; t++) {
+            filter.process(START_LAT, START_LON, 5, 1000L * t);
+        }
+        // Moved 1km away while no fix was received
+        double lat = START_LAT + 0.009;
+        int result = LocationFilter.RESULT_REJECTED_SPEED;
+        int t = 10;
+        while (!LocationFilter.isAccepted(result)) {
+            result = filter.process(lat, START_LON, 5, 1000L * t++);
+        }
+        assertEquals(LocationFilter.RESULT_RESET, result);
+        assertEquals(lat, filter.getLatitude(), 1e-9);
+    }
+}
@@ -0,0 +1,49 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LocationUpdatePolicy}.
+ */
+public class LocationUpdatePolicyTest {
+
+    @Test
+    public void speedsUpRightAwayAndSlowsDownAfterSeveralFixes() throws Exception {
+        LocationUpdatePolicy policy = new LocationUpdatePolicy();
+        policy.onBatteryChanged(0.8f, false);
+
+        assertTrue(policy.onFix(40.4, -3.7, 0, 20, 5));
+        assertEquals(LocationUpdatePolicy.MODE_FAST, policy.getMode());
+        assertEquals(LocationUpdatePolicy.PRIORITY_HIGH_ACCURACY, policy.getPriority());
+
+        assertFalse(policy.onFix(40.4, -3.7, 1000, 0, 5));
+        assertFalse(policy.onFix(40.4, -3.7, 2000, 0, 5));
+        assertTrue(policy.onFix(40.4, -3.7, 3000, 0, 5));
+        assertEquals(LocationUpdatePolicy.MODE_IDLE, policy.getMode());
+        assertEquals(LocationUpdatePolicy.PRIORITY_BALANCED_POWER_ACCURACY, policy.getPriority());
+    }
+
+    @Test
+    public void measuresSpeedWhenTheFixHasNone() throws Exception {
+        LocationUpdatePolicy policy = new LocationUpdatePolicy();
+        policy.onBatteryChanged(0.8f, false);
+        policy.onFix(40.4, -3.7, 0, -1, 5);
+        // About 111m in 5s
+        assertTrue(policy.onFix(40.401, -3.7, 5000, -1, 5));
+        assertEquals(LocationUpdatePolicy.MODE_FAST, policy.getMode());
+    }
+
+    @Test
+    public void lowBatteryOverridesSpeed() throws Exception {
+        LocationUpdatePolicy policy = new LocationUpdatePolicy();
+        assertTrue(policy.onBatteryChanged(0.1f, false));
+        assertFalse(policy.onFix(40.4, -3.7, 0, 30, 5));
+        assertEquals(LocationUpdatePolicy.PRIORITY_LOW_POWER, policy.getPriority());
+
+        assertTrue(policy.onBatteryChanged(0.1f, true));
+        assertTrue(policy.onFix(40.4, -3.7, 1000, 30, 5));
+        assertEquals(LocationUpdatePolicy.MODE_FAST, policy.getMode());
+    }
+}
@@ -0,0 +1,94 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link MetricsRegistry} and {@link LatencyHistogram}.
+ */
+public class MetricsRegistryTest {
+
+    @Test
+    public void bucketsCoverEveryValueInOrder() throws Exception {
+        int previous = 0;
+        for (long micros = 0; micros < 1 << 20; micros++) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(micros <= LatencyHistogram.bucketUpperMicros(bucket));
+            previous = bucket;
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesWithinABucketOfTheValues() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1 to 100 ms, uniformly
+        for (int ms = 1; ms <= 100; ms++) {
+            histogram.record(ms * 1000000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(false);
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50500000, snapshot.getMeanNanos());
+        assertEquals(100000000, snapshot.getMaxNanos());
+        assertEquals(50e6, snapshot.getPercentileNanos(0.5), 50e6 * 0.125);
+        assertEquals(90e6, snapshot.getPercentileNanos(0.9), 90e6 * 0.125);
+        assertEquals(100000000, snapshot.getPercentileNanos(1));
+        histogram.record(-1);
+        assertEquals(100, histogram.snapshot(false).getCount());
+    }
+
+    @Test
+    public void recordsFromManyThreadsAndResets() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(random.nextInt(1000000));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        // Every recorded value ends up in exactly one of the snapshots taken meanwhile
+        long collected = 0;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                collected += histogram.snapshot(true).getCount();
+            }
+        }
+        collected += histogram.snapshot(true).getCount();
+        assertEquals(400000, collected);
+        assertEquals(0, histogram.snapshot(false).getCount());
+    }
+
+    @Test
+    public void exportsSnapshotAsJson() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("location.fixes").add(12);
+        assertSame(registry.counter("location.fixes"), registry.counter("location.fixes"));
+        registry.histogram("startup.apiConnect").record(8000000);
+
+        MetricsRegistry.Snapshot snapshot = registry.snapshot(true);
+        assertEquals(12, (long) snapshot.counters.get("location.fixes"));
+        assertEquals(1, snapshot.histograms.get("startup.apiConnect").getCount());
+        String json = snapshot.toJson();
+        assertTrue(json, json.startsWith("{\"time\":" + snapshot.timeMs
+                + ",\"counters\":{\"location.fixes\":12},\"histograms\":{\"startup.apiConnect\":"
+                + "{\"count\":1,\"mean\":8000,"));
+        assertTrue(json, json.endsWith(",\"max\":8000}}}"));
+
+        // Counters keep counting, histograms start over
+        snapshot = registry.snapshot(false);
+        assertEquals(12, (long) snapshot.counters.get("location.fixes"));
+        assertEquals(0, snapshot.histograms.get("startup.apiConnect").getCount());
+    }
+}
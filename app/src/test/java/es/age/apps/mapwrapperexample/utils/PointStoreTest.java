@@ -0,0 +1,100 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PointStore}.
+ */
+public class PointStoreTest {
+
+    @Test
+    public void growsInChunksAndIteratesInOrder() throws Exception {
+        PointStore store = new PointStore(16);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, store.add(i * 0.5, -i * 0.5, 1000L * i, i % 3));
+        }
+        assertEquals(100, store.size());
+        assertEquals(7, store.getChunkCount());
+        assertEquals(49.5, store.getLatitude(99), 0);
+        assertEquals(2, store.getAttribute(98));
+
+        PointStore.Cursor cursor = store.cursor();
+        int count = 0;
+        while (cursor.moveToNext()) {
+            assertEquals(count, cursor.getId());
+            assertEquals(count * 0.5, cursor.getLatitude(), 0);
+            assertEquals(-count * 0.5, cursor.getLongitude(), 0);
+            assertEquals(1000L * count, cursor.getTime());
+            count++;
+        }
+        assertEquals(100, count);
+        cursor.reset();
+        assertTrue(cursor.moveToNext());
+        assertEquals(0, cursor.getId());
+    }
+
+    @Test
+    public void keepsIdsAcrossCompaction() throws Exception {
+        PointStore store = new PointStore(16);
+        for (int i = 0; i < 100; i++) {
+            store.add(i, i);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            assertTrue(store.remove(i));
+        }
+        assertFalse(store.remove(0));
+        assertTrue(store.move(51, -1, -2));
+        store.compact();
+
+        assertEquals(50, store.size());
+        // 50 points fill 4 chunks, one empty chunk is kept
+        assertEquals(5, store.getChunkCount());
+        assertFalse(store.contains(50));
+        assertEquals(-1, store.getLatitude(51), 0);
+        assertEquals(-2, store.getLongitude(51), 0);
+        assertEquals(99, store.getLatitude(99), 0);
+
+        int[] ids = new int[store.size()];
+        double[] latitudes = new double[ids.length];
+        double[] longitudes = new double[ids.length];
+        assertEquals(50, store.copyTo(ids, latitudes, longitudes));
+        assertEquals(1, ids[0]);
+        assertEquals(99, ids[49]);
+        assertEquals(97, latitudes[48], 0);
+
+        // New ids keep counting
+        assertEquals(100, store.add(5, 5));
+    }
+
+    @Test
+    public void reusesRemovedRowsBeforeGrowing() throws Exception {
+        PointStore store = new PointStore(16);
+        for (int i = 0; i < 32; i++) {
+            store.add(i, i);
+        }
+        for (int i = 0; i < 32; i += 4) {
+            store.remove(i);
+        }
+        PointStore.Cursor cursor = store.cursor();
+        assertTrue(cursor.moveToNext());
+        // The store is full, this compacts instead of adding a third chunk
+        int id = store.add(100, 100);
+        assertEquals(2, store.getChunkCount());
+        assertEquals(100, store.getLatitude(id), 0);
+        assertEquals(25, store.size());
+        try {
+            cursor.moveToNext();
+            fail();
+        } catch (ConcurrentModificationException expected) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsChunksThatAreNotPowersOfTwo() throws Exception {
+        new PointStore(1000);
+    }
+}
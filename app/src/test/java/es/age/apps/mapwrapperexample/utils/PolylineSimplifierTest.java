@@ -0,0 +1,83 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PolylineSimplifier} on a synthetic wandering track.
+ */
+public class PolylineSimplifierTest {
+
+    private static PolylineSimplifier track(int size, double tolerancePx) {
+        Random random = new Random(3);
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        double lat = 40.4168;
+        double lon = -3.7038;
+        double heading = 0;
+        for (int i = 0; i < size; i++) {
+            heading += random.nextGaussian() * 0.2;
+            lat += Math.cos(heading) * 0.00001;
+            lon += Math.sin(heading) * 0.00001;
+            latitudes[i] = lat;
+            longitudes[i] = lon;
+        }
+        return new PolylineSimplifier(latitudes, longitudes, size, tolerancePx, 2);
+    }
+
+    @Test
+    public void keepsEveryPointWithinTolerance() throws Exception {
+        PolylineSimplifier simplifier = track(20000, 2);
+        for (int zoom = 4; zoom <= 18; zoom += 7) {
+            int[] level = simplifier.getLevel(zoom);
+            double tolerance = PolylineSimplifier.worldTolerance(zoom, 2, 2);
+            assertEquals(0, level[0]);
+            assertEquals(simplifier.size() - 1, level[level.length - 1]);
+            for (int k = 1; k < level.length; k++) {
+                for (int i = level[k - 1] + 1; i < level[k]; i++) {
+                    double distance = distance(simplifier, i, level[k - 1], level[k]);
+                    assertTrue("zoom " + zoom + " point " + i, distance <= tolerance * 1.0001);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void levelsAreNestedAndCached() throws Exception {
+        PolylineSimplifier simplifier = track(20000, 1.5);
+        int[] previous = simplifier.getLevel(0);
+        for (int zoom = 1; zoom <= PolylineSimplifier.MAX_ZOOM; zoom++) {
+            int[] level = simplifier.getLevel(zoom);
+            assertTrue(level.length >= previous.length);
+            int k = 0;
+            for (int index : previous) {
+                while (level[k] != index) {
+                    k++;
+                }
+            }
+            previous = level;
+        }
+        assertSame(previous, simplifier.getLevel(PolylineSimplifier.MAX_ZOOM));
+        assertSame(previous, simplifier.getLevel(30));
+        assertTrue(simplifier.getLevel(5).length < 20);
+    }
+
+    @Test
+    public void simplifiesLargeTrack() throws Exception {
+        PolylineSimplifier simplifier = track(500000, 1.5);
+        int[] level = simplifier.getLevel(14);
+        assertTrue(level.length < simplifier.size() / 10);
+    }
+
+    private static double distance(PolylineSimplifier simplifier, int point, int start, int end) {
+        double dx = simplifier.getX(end) - simplifier.getX(start);
+        double dy = simplifier.getY(end) - simplifier.getY(start);
+        double px = simplifier.getX(point) - simplifier.getX(start);
+        double py = simplifier.getY(point) - simplifier.getY(start);
+        double t = Math.max(0, Math.min(1, (px * dx + py * dy) / (dx * dx + dy * dy)));
+        return Math.hypot(px - t * dx, py - t * dy);
+    }
+}
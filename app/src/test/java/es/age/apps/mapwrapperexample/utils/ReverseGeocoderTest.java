@@ -0,0 +1,204 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ReverseGeocoder}, on a backend that makes up addresses.
+ */
+public class ReverseGeocoderTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File directory;
+
+    // Blocks until released, counts the lookups
+    private static final class FakeBackend implements ReverseGeocoder.Backend {
+        final AtomicInteger lookups = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile boolean failing = false;
+        volatile boolean throwing = false;
+
+        @Override
+        public String lookup(double latitude, double longitude) throws IOException {
+            lookups.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (failing) {
+                throw new IOException("offline");
+            }
+            if (throwing) {
+                // As the platform geocoder does for a latitude out of range
+                throw new IllegalArgumentException("latitude == " + latitude);
+            }
+            // Nothing in the ocean south of the equator
+            return latitude < 0 ? null
+                    : "Street of cell " + GeoUtils.geohash(latitude, longitude, 7);
+        }
+    }
+
+    // Collects the addresses, null included
+    private static final class Results implements ReverseGeocoder.OnAddressListener {
+        final List<String> addresses = new CopyOnWriteArrayList<>();
+        final CountDownLatch done;
+
+        Results(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onAddress(String address) {
+            addresses.add(String.valueOf(address));
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("geocoder", "");
+        assertTrue(directory.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void coalescesLookupsOfTheSameCell() throws Exception {
+        FakeBackend backend = new FakeBackend();
+        ReverseGeocoder geocoder = new ReverseGeocoder(backend, directory, DIRECT);
+        Results results = new Results(10);
+        // Fixes a few meters apart while the first lookup is still running
+        for (int i = 0; i < 10; i++) {
+            geocoder.lookup(40.41680 + i * 0.00001, -3.70380, results);
+        }
+        backend.release.countDown();
+        results.await();
+        assertEquals(1, backend.lookups.get());
+        for (String address : results.addresses) {
+            assertEquals("Street of cell ezjmgtw", address);
+        }
+
+        // From memory, without waiting
+        assertEquals("Street of cell ezjmgtw", geocoder.getCached(40.4168, -3.7038));
+        Results cached = new Results(1);
+        geocoder.lookup(40.4168, -3.7038, cached);
+        cached.await();
+        assertEquals(1, backend.lookups.get());
+        geocoder.shutdown();
+    }
+
+    @Test
+    public void keepsAddressesOnDisk() throws Exception {
+        FakeBackend backend = new FakeBackend();
+        backend.release.countDown();
+        ReverseGeocoder geocoder = new ReverseGeocoder(backend, directory, DIRECT);
+        Results results = new Results(2);
+        geocoder.lookup(40.4168, -3.7038, results);
+        geocoder.lookup(-40, 10, results);
+        results.await();
+        geocoder.shutdown();
+        assertEquals(2, backend.lookups.get());
+
+        // A new instance, as after a restart, finds both on disk, the missing address included
+        FakeBackend other = new FakeBackend();
+        other.release.countDown();
+        geocoder = new ReverseGeocoder(other, directory, DIRECT);
+        Results found = new Results(1);
+        Results missing = new Results(1);
+        geocoder.lookup(40.4168, -3.7038, found);
+        geocoder.lookup(-40, 10, missing);
+        found.await();
+        missing.await();
+        assertEquals(0, other.lookups.get());
+        assertEquals("Street of cell ezjmgtw", found.addresses.get(0));
+        assertEquals("null", missing.addresses.get(0));
+        geocoder.shutdown();
+    }
+
+    @Test
+    public void doesNotCacheFailuresAndPrunesTheDisk() throws Exception {
+        FakeBackend backend = new FakeBackend();
+        backend.release.countDown();
+        backend.failing = true;
+        ReverseGeocoder geocoder = new ReverseGeocoder(backend, directory, DIRECT, 7, 4, 8);
+        Results failed = new Results(1);
+        geocoder.lookup(40.4168, -3.7038, failed);
+        failed.await();
+        assertEquals("null", failed.addresses.get(0));
+
+        backend.failing = false;
+        Results retried = new Results(1);
+        geocoder.lookup(40.4168, -3.7038, retried);
+        retried.await();
+        assertEquals("Street of cell ezjmgtw", retried.addresses.get(0));
+        assertEquals(2, backend.lookups.get());
+
+        // 20 cells along a meridian, the disk keeps at most 8 and the memory 4
+        Results many = new Results(20);
+        for (int i = 0; i < 20; i++) {
+            geocoder.lookup(10 + i * 0.1, 10, many);
+        }
+        many.await();
+        assertTrue(directory.list().length <= 8);
+        assertTrue(geocoder.toString(), geocoder.toString().startsWith("ReverseGeocoder[memory=4"));
+        geocoder.shutdown();
+    }
+
+    @Test
+    public void answersWaitingLookupsWhenTheBackendThrows() throws Exception {
+        FakeBackend backend = new FakeBackend();
+        backend.throwing = true;
+        ReverseGeocoder geocoder = new ReverseGeocoder(backend, directory, DIRECT);
+        Results failed = new Results(5);
+        for (int i = 0; i < 5; i++) {
+            geocoder.lookup(40.4168, -3.7038, failed);
+        }
+        backend.release.countDown();
+        failed.await();
+        assertEquals(1, backend.lookups.get());
+        for (String address : failed.addresses) {
+            assertEquals("null", address);
+        }
+
+        // Not cached and no longer in flight, the next lookup reaches the backend again
+        backend.throwing = false;
+        Results retried = new Results(1);
+        geocoder.lookup(40.4168, -3.7038, retried);
+        retried.await();
+        assertEquals("Street of cell ezjmgtw", retried.addresses.get(0));
+        assertEquals(2, backend.lookups.get());
+        geocoder.shutdown();
+    }
+}
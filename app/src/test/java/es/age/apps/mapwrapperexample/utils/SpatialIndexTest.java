@@ -0,0 +1,128 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SpatialIndex}, checked against a linear scan.
+ */
+public class SpatialIndexTest {
+
+    private static final int SIZE = 20000;
+
+    private int[] ids;
+    private double[] latitudes;
+    private double[] longitudes;
+    private SpatialIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        ids = new int[SIZE];
+        latitudes = new double[SIZE];
+        longitudes = new double[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            ids[i] = i * 3;
+            // Half of the points packed around Madrid to get a deep tree
+            if (i % 2 == 0) {
+                latitudes[i] = 40.4 + random.nextGaussian() * 0.05;
+                longitudes[i] = -3.7 + random.nextGaussian() * 0.05;
+            } else {
+                latitudes[i] = random.nextDouble() * 170 - 85;
+                longitudes[i] = random.nextDouble() * 360 - 180;
+            }
+        }
+        index = new SpatialIndex();
+        index.bulkLoad(ids, latitudes, longitudes, SIZE);
+    }
+
+    private Set<Integer> scan(double south, double west, double north, double east) {
+        Set<Integer> found = new HashSet<>();
+        for (int i = 0; i < SIZE; i++) {
+            if (ids[i] >= 0 && latitudes[i] >= south && latitudes[i] <= north
+                    && (west <= east ? longitudes[i] >= west && longitudes[i] <= east
+                    : longitudes[i] >= west || longitudes[i] <= east)) {
+                found.add(ids[i]);
+            }
+        }
+        return found;
+    }
+
+    private Set<Integer> query(double south, double west, double north, double east) {
+        final Set<Integer> found = new HashSet<>();
+        index.query(south, west, north, east, new SpatialIndex.PointVisitor() {
+            @Override
+            public void visit(int id, double latitude, double longitude) {
+                assertTrue(found.add(id));
+            }
+        });
+        return found;
+    }
+
+    @Test
+    public void queryMatchesLinearScan() throws Exception {
+        assertEquals(SIZE, index.size());
+        assertEquals(scan(40.35, -3.75, 40.45, -3.65), query(40.35, -3.75, 40.45, -3.65));
+        assertEquals(scan(-10, 20, 30, 60), query(-10, 20, 30, 60));
+        assertEquals(scan(-20, 170, 20, -170), query(-20, 170, 20, -170));
+        assertEquals(SIZE, index.count(-90, -180, 90, 180));
+    }
+
+    @Test
+    public void removeAndMove() throws Exception {
+        for (int i = 0; i < SIZE; i += 3) {
+            assertTrue(index.remove(ids[i]));
+            assertFalse(index.contains(ids[i]));
+            ids[i] = -1;
+        }
+        assertFalse(index.remove(-1));
+        assertEquals(scan(40.35, -3.75, 40.45, -3.65), query(40.35, -3.75, 40.45, -3.65));
+
+        // Inserting an existing id moves the point
+        index.insert(ids[1], 0, 0);
+        latitudes[1] = 0;
+        longitudes[1] = 0;
+        assertEquals(scan(-1, -1, 1, 1), query(-1, -1, 1, 1));
+        assertEquals(scan(-90, -180, 90, 180).size(), index.size());
+    }
+
+    @Test
+    public void nearestMatchesLinearScan() throws Exception {
+        double lat = 40.41;
+        double lon = -3.69;
+        int k = 25;
+        int[] found = new int[k];
+        double[] distances = new double[k];
+        assertEquals(k, index.nearest(lat, lon, k, found, distances));
+
+        final double scale = Math.cos(Math.toRadians(lat));
+        Integer[] order = new Integer[SIZE];
+        final double[] keys = new double[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            order[i] = i;
+            double dLat = latitudes[i] - lat;
+            double dLon = (longitudes[i] - lon) * scale;
+            keys[i] = dLat * dLat + dLon * dLon;
+        }
+        Arrays.sort(order, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(keys[a], keys[b]);
+            }
+        });
+        for (int i = 0; i < k; i++) {
+            assertEquals(ids[order[i]], found[i]);
+            if (i > 0) {
+                assertTrue(distances[i] >= distances[i - 1]);
+            }
+        }
+        assertEquals(0, index.nearest(lat, lon, 0, found, distances));
+    }
+}
@@ -0,0 +1,95 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TilePackBuilder} and {@link TilePack}.
+ */
+public class TilePackTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] image(int zoom, int x, int y) {
+        return ("tile " + zoom + "/" + x + "/" + y).getBytes();
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+    }
+
+    @Test
+    public void packsDirectoryAndReadsTilesBack() throws Exception {
+        File tiles = folder.newFolder("tiles");
+        byte[] ocean = "ocean".getBytes();
+        int count = 0;
+        for (int zoom = 0; zoom <= 4; zoom++) {
+            for (int x = 0; x < 1 << zoom; x++) {
+                for (int y = 0; y < 1 << zoom; y++) {
+                    byte[] data = (x + y) % 3 == 0 ? ocean : image(zoom, x, y);
+                    write(new File(tiles, zoom + "/" + x + "/" + y + ".png"), data);
+                    count++;
+                }
+            }
+        }
+        File packFile = new File(folder.getRoot(), "region.tpk");
+        TilePackBuilder builder = new TilePackBuilder(packFile, 256);
+        assertEquals(count, builder.addDirectory(tiles));
+        builder.close();
+
+        TilePack pack = new TilePack(packFile);
+        assertEquals(count, pack.getTileCount());
+        assertEquals(256, pack.getTileSize());
+        for (int zoom = 0; zoom <= 4; zoom++) {
+            for (int x = 0; x < 1 << zoom; x++) {
+                for (int y = 0; y < 1 << zoom; y++) {
+                    byte[] expected = (x + y) % 3 == 0 ? ocean : image(zoom, x, y);
+                    assertArrayEquals(expected, pack.getTile(zoom, x, y));
+                }
+            }
+        }
+        assertNull(pack.getTile(5, 0, 0));
+        assertFalse(pack.contains(4, 16, 0));
+        pack.close();
+    }
+
+    @Test
+    public void storesIdenticalTilesOnce() throws Exception {
+        File packFile = new File(folder.getRoot(), "ocean.tpk");
+        TilePackBuilder builder = new TilePackBuilder(packFile, 512);
+        byte[] ocean = new byte[10000];
+        for (int x = 0; x < 64; x++) {
+            builder.addTile(6, x, 10, ocean);
+        }
+        builder.addTile(6, 3, 10, image(6, 3, 10));
+        builder.close();
+        assertTrue(packFile.length() < 2 * ocean.length);
+
+        TilePack pack = new TilePack(packFile);
+        assertEquals(64, pack.getTileCount());
+        assertArrayEquals(ocean, pack.getTile(6, 63, 10));
+        assertArrayEquals(image(6, 3, 10), pack.getTile(6, 3, 10));
+        pack.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws Exception {
+        File other = folder.newFile("other.png");
+        write(other, new byte[64]);
+        new TilePack(other);
+    }
+}
@@ -0,0 +1,182 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LocationTrace} and {@link TraceReplayer}.
+ */
+public class TraceReplayerTest {
+
+    /**
+     * Stands in for the map screen: filters the fixes and runs the geofences on the accepted
+     * ones, like the listeners of LocationActivity do.
+     */
+    private static final class FakeMap implements TraceReplayer.FixSink {
+        final LocationFilter filter = new LocationFilter();
+        final GeofenceEngine geofences = new GeofenceEngine(0, 0, 0);
+        final List<Integer> transitions = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+        int accepted;
+
+        FakeMap() {
+            geofences.addListener(new GeofenceEngine.Listener() {
+                @Override
+                public void onGeofenceTransition(int fenceId, int transition, long timeMs) {
+                    transitions.add(transition);
+                }
+            });
+        }
+
+        @Override
+        public void onFix(int index, double latitude, double longitude, float accuracy,
+                          long timeMs) {
+            times.add(timeMs);
+            if (LocationFilter.isAccepted(filter.process(latitude, longitude, accuracy, timeMs))) {
+                accepted++;
+                geofences.process(filter.getLatitude(), filter.getLongitude(), timeMs);
+            }
+        }
+    }
+
+    // Heads north at 10 m/s, one fix every 100 ms
+    private static LocationTrace northbound(int size) {
+        LocationTrace trace = new LocationTrace();
+        for (int i = 0; i < size; i++) {
+            trace.add(40 + i / 111320.0, -3, 5, 1000000 + i * 100L);
+        }
+        return trace;
+    }
+
+    @Test
+    public void readsCsvWithHeaderAndIsoTimes() throws Exception {
+        LocationTrace trace = LocationTrace.readCsv(new StringReader(
+                "# exported trace\n"
+                        + "latitude,longitude,accuracy,time\n"
+                        + "40.4168,-3.7038,12.5,2016-10-02T10:00:00Z\n"
+                        + "40.4169,-3.7037,,2016-10-02T12:00:01.5+02:00\n"));
+        assertEquals(2, trace.size());
+        assertEquals(40.4169, trace.getLatitude(1), 1e-9);
+        assertEquals(12.5f, trace.getAccuracy(0), 0);
+        assertEquals(0f, trace.getAccuracy(1), 0);
+        assertEquals(1475402400000L, trace.getTime(0));
+        assertEquals(1500, trace.getDurationMs());
+    }
+
+    @Test
+    public void readsGpxTrackPoints() throws Exception {
+        String gpx = "<?xml version=\"1.0\"?>\n"
+                + "<gpx version=\"1.1\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n"
+                + "<wpt lat=\"1\" lon=\"1\"/>\n"
+                + "<trk><trkseg>\n"
+                + "<trkpt lat=\"40.4168\" lon=\"-3.7038\"><time>2016-10-02T10:00:00Z</time>"
+                + "<hdop>2</hdop></trkpt>\n"
+                + "<trkpt lat=\"40.4170\" lon=\"-3.7036\"><time>2016-10-02T10:00:05Z</time>"
+                + "</trkpt>\n"
+                + "</trkseg></trk></gpx>";
+        LocationTrace trace = LocationTrace.readGpx(new ByteArrayInputStream(gpx.getBytes()));
+        assertEquals(2, trace.size());
+        assertEquals(-3.7036, trace.getLongitude(1), 1e-9);
+        assertEquals(10f, trace.getAccuracy(0), 0);
+        assertEquals(5000, trace.getDurationMs());
+    }
+
+    @Test
+    public void replaysFasterKeepingRecordedIntervals() throws Exception {
+        // 60 seconds of fixes crossing a fence
+        LocationTrace trace = northbound(600);
+        FakeMap map = new FakeMap();
+        map.geofences.addCircle(40 + 300 / 111320.0, -3, 50, 32);
+        TraceReplayer replayer = new TraceReplayer(trace, map);
+        replayer.setSpeedUp(1000);
+
+        long start = System.nanoTime();
+        TraceReplayer.Report report = replayer.run();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("replay took " + elapsedMs + "ms", elapsedMs >= 59 && elapsedMs < 2000);
+        assertEquals(600, report.completedCount);
+        assertEquals(600, map.times.size());
+        assertEquals(59900, map.times.get(599) - map.times.get(0));
+        assertTrue(map.accepted > 500);
+        assertEquals(GeofenceEngine.TRANSITION_ENTER, (int) map.transitions.get(0));
+        assertTrue(map.transitions.contains(GeofenceEngine.TRANSITION_EXIT));
+        assertTrue(report.p50Nanos <= report.p99Nanos && report.p99Nanos <= report.maxNanos);
+    }
+
+    @Test
+    public void measuresAsynchronousSinksInBursts() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final FakeMap map = new FakeMap();
+        final TraceReplayer[] replayer = new TraceReplayer[1];
+        final int[] batches = new int[1];
+        final long[] lastDueNanos = {-1};
+        replayer[0] = new TraceReplayer(northbound(1000), new TraceReplayer.FixSink() {
+            @Override
+            public void onFix(final int index, final double latitude, final double longitude,
+                              final float accuracy, final long timeMs) {
+                // Bursts are counted from the schedule, not from the wall clock, so a pause of
+                // the test thread does not split one
+                long due = replayer[0].getDueNanos(index);
+                if (due != lastDueNanos[0]) {
+                    if (lastDueNanos[0] >= 0) {
+                        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), due - lastDueNanos[0]);
+                    }
+                    batches[0]++;
+                }
+                lastDueNanos[0] = due;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        map.onFix(index, latitude, longitude, accuracy, timeMs);
+                        replayer[0].complete(index);
+                    }
+                });
+            }
+        });
+        // 100 seconds of fixes in batches of 50 every 5 seconds, 1000 times faster
+        replayer[0].setSpeedUp(1000);
+        replayer[0].setBurstSize(50);
+        replayer[0].setAsynchronous(true);
+        replayer[0].run();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        TraceReplayer.Report report = replayer[0].getReport();
+        assertEquals(1000, report.deliveredCount);
+        assertEquals(1000, report.completedCount);
+        assertEquals(1000, map.times.size());
+        assertEquals(20, batches[0]);
+        assertTrue(report.getThroughput() > 0);
+    }
+
+    @Test
+    public void stopsBeforeTheEnd() throws Exception {
+        final List<Integer> delivered = new ArrayList<>();
+        final TraceReplayer[] replayer = new TraceReplayer[1];
+        replayer[0] = new TraceReplayer(northbound(100), new TraceReplayer.FixSink() {
+            @Override
+            public void onFix(int index, double latitude, double longitude, float accuracy,
+                              long timeMs) {
+                delivered.add(index);
+                if (index == 9) {
+                    replayer[0].stop();
+                }
+            }
+        });
+        replayer[0].setSpeedUp(TraceReplayer.AS_FAST_AS_POSSIBLE);
+        TraceReplayer.Report report = replayer[0].run();
+        assertEquals(10, delivered.size());
+        assertEquals(10, report.completedCount);
+        assertEquals(100, report.fixCount);
+    }
+}
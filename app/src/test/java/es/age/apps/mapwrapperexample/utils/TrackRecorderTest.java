@@ -0,0 +1,89 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TrackRecorder} and {@link TrackReader}.
+ */
+public class TrackRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static double latitude(int i) {
+        return 40.4168 + i * 0.00001 + Math.sin(i) * 0.00002;
+    }
+
+    private static double longitude(int i) {
+        return -3.7038 + i * 0.00002;
+    }
+
+    @Test
+    public void writesAndReadsBackAcrossSegments() throws Exception {
+        File directory = folder.newFolder("track");
+        int fixes = 20000;
+        TrackRecorder recorder = new TrackRecorder(directory, 16 * 1024);
+        recorder.start();
+        for (int i = 0; i < fixes; i++) {
+            while (!recorder.append(latitude(i), longitude(i), 1000L * i)) {
+                // Queue full, let the writer catch up
+                recorder.flush();
+            }
+        }
+        recorder.close();
+        assertNull(recorder.getError());
+        assertEquals(fixes, recorder.getRecordedCount());
+
+        TrackReader reader = new TrackReader(directory);
+        assertTrue(reader.getSegmentCount() > 1);
+        long bytes = 0;
+        for (File file : directory.listFiles()) {
+            bytes += file.length();
+        }
+        assertTrue("bytes per fix " + (double) bytes / fixes, bytes < fixes * 8);
+
+        int read = 0;
+        while (reader.next()) {
+            assertEquals(latitude(read), reader.getLatitude(), 1e-7);
+            assertEquals(longitude(read), reader.getLongitude(), 1e-7);
+            assertEquals(1000L * read, reader.getTime());
+            read++;
+        }
+        reader.close();
+        assertEquals(fixes, read);
+    }
+
+    @Test
+    public void readsSegmentOfAnUnclosedRecorder() throws Exception {
+        File directory = folder.newFolder("crash");
+        TrackRecorder recorder = new TrackRecorder(directory);
+        recorder.start();
+        for (int i = 0; i < 100; i++) {
+            recorder.append(latitude(i), longitude(i), 1000L * i);
+        }
+        recorder.flush();
+
+        // The recorder is still running, its segment has no end mark and a zero filled tail
+        TrackReader reader = new TrackReader(directory);
+        int read = 0;
+        while (reader.next()) {
+            read++;
+        }
+        reader.close();
+        assertEquals(100, read);
+
+        recorder.close();
+        // A new recorder never appends to existing segments
+        TrackRecorder next = new TrackRecorder(directory);
+        next.start();
+        next.append(0, 0, 0);
+        next.close();
+        assertEquals(2, new TrackReader(directory).getSegmentCount());
+    }
+}
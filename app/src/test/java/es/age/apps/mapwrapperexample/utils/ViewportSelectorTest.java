@@ -0,0 +1,117 @@
+package es.age.apps.mapwrapperexample.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ViewportSelector}.
+ */
+public class ViewportSelectorTest {
+
+    @Test
+    public void selectsEveryItemUnderTheLimit() throws Exception {
+        ViewportSelector selector = new ViewportSelector();
+        for (int i = 0; i < 10; i++) {
+            selector.put(i, 40 + i * 0.01, -3.7);
+        }
+        selector.put(100, 10, 10);
+        ViewportSelector.Selection selection =
+                selector.select(new GeoBounds(39.9, -3.8, 41, -3.6), 50);
+        assertEquals(10, selection.size);
+        for (int i = 0; i < selection.size; i++) {
+            assertEquals(40 + selection.ids[i] * 0.01, selection.latitudes[i], 1e-9);
+            assertEquals(-3.7, selection.longitudes[i], 0);
+        }
+    }
+
+    @Test
+    public void keepsTheClosestItemsInsideWideBounds() throws Exception {
+        ViewportSelector selector = new ViewportSelector();
+        Random random = new Random(7);
+        // A wide, short region: the closest items to the center in a circle would include
+        // many above and below it
+        GeoBounds bounds = new GeoBounds(39.9, -10, 40.1, 10);
+        for (int i = 0; i < 5000; i++) {
+            selector.put(i, 38 + random.nextDouble() * 4, -12 + random.nextDouble() * 24);
+        }
+        ViewportSelector.Selection selection = selector.select(bounds, 100);
+        assertEquals(100, selection.size);
+        double previous = 0;
+        for (int i = 0; i < selection.size; i++) {
+            assertTrue(bounds.contains(selection.latitudes[i], selection.longitudes[i]));
+            double dLat = selection.latitudes[i] - bounds.getCenterLatitude();
+            double dLon = (selection.longitudes[i] - bounds.getCenterLongitude())
+                    * Math.cos(Math.toRadians(bounds.getCenterLatitude()));
+            double distance = dLat * dLat + dLon * dLon;
+            assertTrue(distance >= previous);
+            previous = distance;
+        }
+    }
+
+    @Test
+    public void keepsTheClosestItemsAcrossTheAntimeridian() throws Exception {
+        ViewportSelector selector = new ViewportSelector();
+        // Ids are the distance to 180 in hundredths of a degree, on both sides
+        for (int i = 1; i <= 100; i++) {
+            selector.put(i, 0, 180 - i * 0.01);
+            selector.put(-i, 0, -180 + i * 0.01);
+        }
+        GeoBounds bounds = new GeoBounds(-1, 179, 1, -179);
+        ViewportSelector.Selection selection = selector.select(bounds, 20);
+        assertEquals(20, selection.size);
+        for (int i = 0; i < selection.size; i++) {
+            assertTrue(Math.abs(selection.ids[i]) <= 10);
+            assertTrue(bounds.contains(selection.latitudes[i], selection.longitudes[i]));
+            // Never the zero of an unfilled slot
+            assertEquals(180, Math.abs(selection.longitudes[i]), 0.11);
+        }
+    }
+
+    @Test
+    public void reusesTheCandidatesOfALargerSelection() throws Exception {
+        ViewportSelector selector = new ViewportSelector();
+        for (int i = 0; i < 1000; i++) {
+            selector.put(i, 40, -5 + i * 0.01);
+        }
+        selector.select(new GeoBounds(39, -6, 41, 6), 10);
+        // Fewer candidates than the buffer holds, none left over from the first selection
+        GeoBounds bounds = new GeoBounds(39, -4.005, 41, -3.895);
+        ViewportSelector.Selection selection = selector.select(bounds, 5);
+        assertEquals(5, selection.size);
+        for (int i = 0; i < selection.size; i++) {
+            assertTrue(bounds.contains(selection.latitudes[i], selection.longitudes[i]));
+            assertTrue(Math.abs(selection.longitudes[i] + 3.95) <= 0.025);
+        }
+    }
+
+    @Test
+    public void selectsThePointsOfAStore() throws Exception {
+        PointStore store = new PointStore(16);
+        for (int i = 0; i < 40; i++) {
+            store.add(40 + i * 0.001, -3.7);
+        }
+        store.remove(3);
+        ViewportSelector selector = new ViewportSelector();
+        selector.load(store);
+        GeoBounds bounds = new GeoBounds(39.9, -3.8, 40.1, -3.6);
+        // Every point of the store in view gets a marker, titles or not
+        ViewportSelector.Selection selection = selector.select(bounds, 100);
+        assertEquals(39, selection.size);
+
+        // Moved points are selected at their new position after loading the store again
+        store.move(5, 40.05, -3.65);
+        selector.load(store);
+        selection = selector.select(bounds, 100);
+        assertEquals(39, selection.size);
+        for (int i = 0; i < selection.size; i++) {
+            assertNotEquals(3, selection.ids[i]);
+            if (selection.ids[i] == 5) {
+                assertEquals(40.05, selection.latitudes[i], 0);
+                assertEquals(-3.65, selection.longitudes[i], 0);
+            }
+        }
+    }
+}
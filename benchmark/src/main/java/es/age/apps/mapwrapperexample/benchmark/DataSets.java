@@ -0,0 +1,49 @@
+package es.age.apps.mapwrapperexample.benchmark;
+
+import java.util.Random;
+
+/**
+ * Seeded synthetic data sets, so every run of a benchmark sees the same points.
+ */
+final class DataSets {
+
+    static final double CENTER_LATITUDE = 40.4168;
+    static final double CENTER_LONGITUDE = -3.7038;
+
+    private DataSets() {
+    }
+
+    /**
+     * Points spread uniformly over a square of the given side in degrees around the center,
+     * as {latitudes, longitudes}.
+     */
+    static double[][] uniform(int size, double spanDegrees, long seed) {
+        Random random = new Random(seed);
+        double[][] points = new double[2][size];
+        for (int i = 0; i < size; i++) {
+            points[0][i] = CENTER_LATITUDE + (random.nextDouble() - 0.5) * spanDegrees;
+            points[1][i] = CENTER_LONGITUDE + (random.nextDouble() - 0.5) * spanDegrees;
+        }
+        return points;
+    }
+
+    /**
+     * A walk of one fix per second at about 10 m/s with a slowly turning heading, as
+     * {latitudes, longitudes}.
+     */
+    static double[][] walk(int size, long seed) {
+        Random random = new Random(seed);
+        double[][] points = new double[2][size];
+        double latitude = CENTER_LATITUDE;
+        double longitude = CENTER_LONGITUDE;
+        double heading = 0;
+        for (int i = 0; i < size; i++) {
+            heading += random.nextGaussian() * 0.2;
+            latitude += Math.cos(heading) * 10 / 111320;
+            longitude += Math.sin(heading) * 10 / (111320 * Math.cos(Math.toRadians(latitude)));
+            points[0][i] = latitude;
+            points[1][i] = longitude;
+        }
+        return points;
+    }
+}
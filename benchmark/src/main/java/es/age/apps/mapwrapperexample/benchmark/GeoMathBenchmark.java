@@ -0,0 +1,72 @@
+package es.age.apps.mapwrapperexample.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import es.age.apps.mapwrapperexample.utils.GeoUtils;
+
+/**
+ * Distance, bearing and projection math of {@link GeoUtils}. Every operation walks the whole
+ * data set once, so the score is the time of {@code size} calls.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeoMathBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private double[] latitudes;
+    private double[] longitudes;
+
+    @Setup
+    public void setUp() {
+        double[][] points = DataSets.uniform(size, 1, 1);
+        latitudes = points[0];
+        longitudes = points[1];
+    }
+
+    @Benchmark
+    public double distance() {
+        double sum = 0;
+        for (int i = 1; i < size; i++) {
+            sum += GeoUtils.distance(latitudes[i - 1], longitudes[i - 1],
+                    latitudes[i], longitudes[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double bearing() {
+        double sum = 0;
+        for (int i = 1; i < size; i++) {
+            sum += GeoUtils.bearing(latitudes[i - 1], longitudes[i - 1],
+                    latitudes[i], longitudes[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double project() {
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += GeoUtils.lonToX(longitudes[i]) + GeoUtils.latToY(latitudes[i]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,79 @@
+package es.age.apps.mapwrapperexample.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import es.age.apps.mapwrapperexample.utils.GridClusterer;
+
+/**
+ * Clustering points spread over a region about 100 km wide with {@link GridClusterer}.
+ * {@code cold} adds every point and clusters them at one zoom, the cost of a new data set.
+ * {@code zoom} asks for the clusters of the whole region at a zoom already built, the cost of
+ * a camera move.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GridClustererBenchmark {
+
+    private static final double SPAN_DEGREES = 1;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"8", "12"})
+    public int zoom;
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private double south;
+    private double west;
+    private double north;
+    private double east;
+
+    private final GridClusterer clusterer = new GridClusterer();
+
+    @Setup
+    public void setUp() {
+        double[][] points = DataSets.uniform(size, SPAN_DEGREES, 1);
+        latitudes = points[0];
+        longitudes = points[1];
+        south = DataSets.CENTER_LATITUDE - SPAN_DEGREES / 2;
+        north = DataSets.CENTER_LATITUDE + SPAN_DEGREES / 2;
+        west = DataSets.CENTER_LONGITUDE - SPAN_DEGREES / 2;
+        east = DataSets.CENTER_LONGITUDE + SPAN_DEGREES / 2;
+        for (int i = 0; i < size; i++) {
+            clusterer.add(latitudes[i], longitudes[i]);
+        }
+        clusterer.getClusters(zoom, south, west, north, east);
+    }
+
+    @Benchmark
+    public int cold() {
+        GridClusterer fresh = new GridClusterer();
+        for (int i = 0; i < size; i++) {
+            fresh.add(latitudes[i], longitudes[i]);
+        }
+        return fresh.getClusters(zoom, south, west, north, east).size();
+    }
+
+    @Benchmark
+    public List<GridClusterer.Cluster> zoom() {
+        return clusterer.getClusters(zoom, south, west, north, east);
+    }
+}
@@ -0,0 +1,69 @@
+package es.age.apps.mapwrapperexample.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import es.age.apps.mapwrapperexample.utils.LocationFilter;
+
+/**
+ * Filters a noisy trace with a few outliers through {@link LocationFilter}. The score is the
+ * time to filter the whole trace.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LocationFilterBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private float[] accuracies;
+    private final LocationFilter filter = new LocationFilter();
+
+    @Setup
+    public void setUp() {
+        double[][] points = DataSets.walk(size, 1);
+        latitudes = points[0];
+        longitudes = points[1];
+        accuracies = new float[size];
+        Random random = new Random(2);
+        for (int i = 0; i < size; i++) {
+            accuracies[i] = 5 + random.nextFloat() * 20;
+            latitudes[i] += random.nextGaussian() * accuracies[i] / 111320;
+            if (random.nextInt(50) == 0) {
+                // Outlier a kilometer away
+                latitudes[i] += 0.01;
+            }
+        }
+    }
+
+    @Benchmark
+    public int process() {
+        filter.clear();
+        int accepted = 0;
+        for (int i = 0; i < size; i++) {
+            int result = filter.process(latitudes[i], longitudes[i], accuracies[i], i * 1000L);
+            if (LocationFilter.isAccepted(result)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+}
@@ -0,0 +1,66 @@
+package es.age.apps.mapwrapperexample.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import es.age.apps.mapwrapperexample.utils.PolylineSimplifier;
+
+/**
+ * Simplifying a recorded track with {@link PolylineSimplifier}. {@code prepare} is the one off
+ * cost of a new track, {@code simplify} the cost of a zoom level not cached yet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PolylineSimplifierBenchmark {
+
+    private static final float DENSITY = 2;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"10", "16"})
+    public int zoom;
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private PolylineSimplifier simplifier;
+    private double tolerance;
+
+    @Setup
+    public void setUp() {
+        double[][] points = DataSets.walk(size, 1);
+        latitudes = points[0];
+        longitudes = points[1];
+        simplifier = new PolylineSimplifier(latitudes, longitudes, size,
+                PolylineSimplifier.DEFAULT_TOLERANCE_PX, DENSITY);
+        tolerance = PolylineSimplifier.worldTolerance(zoom,
+                PolylineSimplifier.DEFAULT_TOLERANCE_PX, DENSITY);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PolylineSimplifier prepare() {
+        return new PolylineSimplifier(latitudes, longitudes, size,
+                PolylineSimplifier.DEFAULT_TOLERANCE_PX, DENSITY);
+    }
+
+    @Benchmark
+    public int[] simplify() {
+        return simplifier.simplify(tolerance);
+    }
+}
@@ -0,0 +1,115 @@
+package es.age.apps.mapwrapperexample.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import es.age.apps.mapwrapperexample.utils.SpatialIndex;
+
+/**
+ * Loading and querying a {@link SpatialIndex} of points spread over a region about 100 km
+ * wide. Queries cycle through a fixed list of positions inside the region.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpatialIndexBenchmark {
+
+    private static final double SPAN_DEGREES = 1;
+    // A city sized viewport
+    private static final double VIEWPORT_DEGREES = 0.05;
+    private static final int QUERIES = 1024;
+    private static final int NEAREST = 10;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private int[] ids;
+    private double[] latitudes;
+    private double[] longitudes;
+    private double[] queryLatitudes;
+    private double[] queryLongitudes;
+    private int query;
+
+    private final SpatialIndex index = new SpatialIndex();
+    private final SpatialIndex loadIndex = new SpatialIndex();
+    private final int[] outIds = new int[NEAREST];
+    private final double[] outDistances = new double[NEAREST];
+
+    private final Counter counter = new Counter();
+
+    private static final class Counter implements SpatialIndex.PointVisitor {
+        int count;
+
+        @Override
+        public void visit(int id, double latitude, double longitude) {
+            count++;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        double[][] points = DataSets.uniform(size, SPAN_DEGREES, 1);
+        latitudes = points[0];
+        longitudes = points[1];
+        ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+        }
+        index.bulkLoad(ids, latitudes, longitudes, size);
+        double[][] queries = DataSets.uniform(QUERIES, SPAN_DEGREES - VIEWPORT_DEGREES, 2);
+        queryLatitudes = queries[0];
+        queryLongitudes = queries[1];
+    }
+
+    private int nextQuery() {
+        query = (query + 1) & (QUERIES - 1);
+        return query;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int bulkLoad() {
+        loadIndex.bulkLoad(ids, latitudes, longitudes, size);
+        return loadIndex.size();
+    }
+
+    @Benchmark
+    public int queryViewport() {
+        int q = nextQuery();
+        double half = VIEWPORT_DEGREES / 2;
+        counter.count = 0;
+        index.query(queryLatitudes[q] - half, queryLongitudes[q] - half,
+                queryLatitudes[q] + half, queryLongitudes[q] + half, counter);
+        return counter.count;
+    }
+
+    @Benchmark
+    public int nearest() {
+        int q = nextQuery();
+        return index.nearest(queryLatitudes[q], queryLongitudes[q], NEAREST, outIds,
+                outDistances);
+    }
+
+    @Benchmark
+    public void move() {
+        // Moves a point to a query position and back, two updates per call
+        int q = nextQuery();
+        int id = (int) ((long) q * size / QUERIES);
+        index.insert(id, queryLatitudes[q], queryLongitudes[q]);
+        index.insert(id, latitudes[id], longitudes[id]);
+    }
+}
@@ -0,0 +1,30 @@
+package es.age.apps.mapwrapperexample.tools;
+
+import java.io.File;
+import java.io.IOException;
+
+import es.age.apps.mapwrapperexample.utils.TilePackBuilder;
+
+/**
+ * Command line tool that packs a directory of tiles laid out as {@code zoom/x/y.png} (any image
+ * extension) into a tile pack the app reads with its {@code TilePack}:
+ * <pre>
+ * ./gradlew :tools:packTiles -Ptiles=tiles/ -Ppack=region.tpk [-PtileSize=256]
+ * </pre>
+ */
+public class PackTiles {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: PackTiles <tile directory> <pack file> [tile size]");
+            System.exit(1);
+        }
+        int tileSize = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        File packFile = new File(args[1]);
+        TilePackBuilder builder = new TilePackBuilder(packFile, tileSize);
+        int added = builder.addDirectory(new File(args[0]));
+        builder.close();
+        System.out.println(added + " tiles, " + builder.getImageCount() + " distinct, "
+                + packFile.length() + " bytes");
+    }
+}